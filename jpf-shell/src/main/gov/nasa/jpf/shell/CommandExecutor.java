@@ -0,0 +1,265 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell;
+
+import gov.nasa.jpf.Config;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The scheduler that runs all {@link ShellCommand}s and the helper tasks they
+ * need (process watchers, stream readers, monitors). There is one
+ * CommandExecutor per {@link ShellManager}.<br>
+ *
+ * Commands are executed by a bounded pool of command threads with a bounded
+ * queue in front of it. A command that is already waiting in the queue is
+ * not queued a second time, and commands that don't fit into the queue are
+ * rejected, which gives us back-pressure if the user keeps hitting the
+ * buttons. Idle threads time out, so nothing is left behind between runs.<br>
+ *
+ * Commands that are fired by another command (the runs of Batch, Swarm,
+ * Sweep, ...) go into a pool of their own with an unbounded queue. They are
+ * never rejected, and they can't take the command threads away from the
+ * command that waits for them. How many of them a command starts at once is
+ * up to that command.<br>
+ *
+ * Helper tasks go into a separate, unbounded service pool since they mostly
+ * block on I/O for the whole lifetime of a command, and would otherwise starve
+ * the command pool.<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.executor.threads - max number of concurrently running commands</li>
+ *   <li>shell.executor.queue_size - max number of waiting commands</li>
+ *   <li>shell.executor.child_threads - max number of concurrently running
+ *       commands that were fired by other commands (default: number of
+ *       processors)</li>
+ *   <li>shell.executor.virtual_threads - use virtual threads if the JVM
+ *       supports them</li>
+ * </ul>
+ */
+public class CommandExecutor {
+
+  static final int DEFAULT_THREADS = 4;
+  static final int DEFAULT_QUEUE_SIZE = 8;
+  static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final ShellManager manager;
+  private final ThreadPoolExecutor commandPool;
+  private final ThreadPoolExecutor childPool;
+  private final ThreadPoolExecutor servicePool;
+  private final boolean virtualThreads;
+
+  //Holds all handles that were submitted and are not done yet
+  private final List<CommandHandle> pending = new ArrayList<CommandHandle>();
+
+  CommandExecutor(ShellManager manager, Config config){
+    this.manager = manager;
+
+    int nThreads = Math.max(1, config.getInt("shell.executor.threads", DEFAULT_THREADS));
+    int queueSize = Math.max(1, config.getInt("shell.executor.queue_size", DEFAULT_QUEUE_SIZE));
+    int nChildThreads = Math.max(1, config.getInt("shell.executor.child_threads",
+                                                  Runtime.getRuntime().availableProcessors()));
+
+    ThreadFactory commandFactory = null;
+    ThreadFactory childFactory = null;
+    ThreadFactory serviceFactory = null;
+    if (config.getBoolean("shell.executor.virtual_threads", false)){
+      commandFactory = createVirtualThreadFactory("Shell Command Thread-");
+      childFactory = createVirtualThreadFactory("Shell Child Command Thread-");
+      serviceFactory = createVirtualThreadFactory("Shell Service Thread-");
+    }
+    virtualThreads = (commandFactory != null && childFactory != null && serviceFactory != null);
+    if (!virtualThreads){
+      commandFactory = new NamedThreadFactory("Shell Command Thread-", false);
+      childFactory = new NamedThreadFactory("Shell Child Command Thread-", false);
+      serviceFactory = new NamedThreadFactory("Shell Service Thread-", true);
+    }
+
+    commandPool = new ThreadPoolExecutor(nThreads, nThreads,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), commandFactory);
+    commandPool.allowCoreThreadTimeOut(true);
+
+    childPool = new ThreadPoolExecutor(nChildThreads, nChildThreads,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), childFactory);
+    childPool.allowCoreThreadTimeOut(true);
+
+    servicePool = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), serviceFactory);
+  }
+
+  /**
+   * Queues the command for execution. Does not call
+   * {@link ShellCommand#prepare()}, that is up to the caller.
+   * @return the handle of the queued command. If the same command is already
+   *         waiting in the queue, that handle is returned instead.
+   */
+  public CommandHandle submit(ShellCommand command){
+    return submit(command, commandPool);
+  }
+
+  /**
+   * Queues a command that is fired by another command, which usually waits
+   * for it. Child commands are never rejected since they do not go through
+   * the bounded command queue.
+   * @return the handle of the queued command. If the same command is already
+   *         waiting in the queue, that handle is returned instead.
+   */
+  public CommandHandle submitChild(ShellCommand command){
+    return submit(command, childPool);
+  }
+
+  private CommandHandle submit(ShellCommand command, final ThreadPoolExecutor pool){
+    synchronized (pending){
+      CommandHandle queued = getQueuedHandle(command);
+      if (queued != null){
+        return queued;
+      }
+
+      CommandHandle handle = new CommandHandle(manager, command);
+      pending.add(handle);
+      handle.addCompletionListener(new CommandHandle.CompletionListener(){
+        @Override
+        public void commandCompleted(CommandHandle h){
+          synchronized (pending){
+            pending.remove(h);
+          }
+          //don't let cancelled handles take up queue slots
+          pool.purge();
+        }
+      });
+
+      try {
+        pool.execute(handle);
+      } catch (RejectedExecutionException rx){
+        pending.remove(handle);
+        ShellManager.getLogger().log(Level.WARNING,
+                "command queue is full, ignoring " + command.getName());
+        return CommandHandle.createRejected(manager, command);
+      }
+      return handle;
+    }
+  }
+
+  /**
+   * @return the handle of the given command if it is waiting for a command
+   *         thread, null otherwise
+   */
+  public CommandHandle getQueuedHandle(ShellCommand command){
+    synchronized (pending){
+      for (CommandHandle h : pending){
+        if (h.getCommand() == command && h.isQueued()){
+          return h;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return all handles that are either queued or running
+   */
+  public List<CommandHandle> getPendingHandles(){
+    synchronized (pending){
+      return new ArrayList<CommandHandle>(pending);
+    }
+  }
+
+  /**
+   * Runs a helper task (e.g. a process watcher or stream reader) in the
+   * service pool.
+   */
+  public Future<?> execute(Runnable task){
+    return servicePool.submit(task);
+  }
+
+  /**
+   * @return the number of child commands that can run at once, a command
+   *         that fires more than that only makes them wait for each other
+   */
+  public int getChildThreads(){
+    return childPool.getMaximumPoolSize();
+  }
+
+  public boolean usesVirtualThreads(){
+    return virtualThreads;
+  }
+
+  /**
+   * Cancels all pending commands and stops accepting new ones.
+   */
+  public void shutdown(){
+    for (CommandHandle h : getPendingHandles()){
+      h.cancel(true);
+    }
+    commandPool.shutdownNow();
+    childPool.shutdownNow();
+    servicePool.shutdownNow();
+  }
+
+  /**
+   * Virtual threads only exist on newer JVMs, so we have to go through
+   * reflection (Thread.ofVirtual().name(prefix,0).factory()).
+   * @return the factory, or null if virtual threads are not supported
+   */
+  private static ThreadFactory createVirtualThreadFactory(String prefix){
+    try {
+      Class<?> builderCls = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method name = builderCls.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderCls.getMethod("factory").invoke(builder);
+    } catch (Exception x){
+      ShellManager.getLogger().log(Level.INFO,
+              "virtual threads not supported by this JVM, using platform threads");
+      return null;
+    }
+  }
+
+  static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String prefix, boolean daemon){
+      this.prefix = prefix;
+      this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable r){
+      Thread t = new Thread(r, prefix + count.getAndIncrement());
+      t.setDaemon(daemon);
+      return t;
+    }
+  }
+}
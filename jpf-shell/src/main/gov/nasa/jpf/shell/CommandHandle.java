@@ -0,0 +1,228 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+
+/**
+ * The handle that is returned by
+ * {@link gov.nasa.jpf.shell.ShellManager#fireCommand(gov.nasa.jpf.shell.ShellCommand)}.
+ * A handle starts out <i>queued</i> in the {@link CommandExecutor}, becomes
+ * <i>running</i> once a command thread picks it up and is <i>done</i> after
+ * the postCommand notifications of the command were sent (or after it was
+ * cancelled, declined by {@link ShellCommand#prepare()} or rejected because
+ * the command queue was full).<br>
+ *
+ * Cancelling a queued handle simply drops it from the queue. Cancelling a
+ * running handle asks the command to stop through {@link ShellCommand#cancel()},
+ * the handle is still only done once the command returned and its
+ * postCommand notifications were sent, so waiting for a cancelled handle
+ * means waiting for the command to wind down.
+ */
+public class CommandHandle extends FutureTask<Void> {
+
+  /**
+   * Notified once a {@link CommandHandle} is done, for whatever reason.
+   * Listeners are executed in the thread that completed the handle.
+   */
+  public interface CompletionListener {
+    void commandCompleted(CommandHandle handle);
+  }
+
+  private final ShellCommand command;
+
+  private volatile boolean started = false;
+  private volatile boolean declined = false;
+  private volatile boolean rejected = false;
+  private volatile boolean cancelRequested = false;
+
+  private final List<CompletionListener> completionListeners
+          = new ArrayList<CompletionListener>();
+  private boolean completed = false;
+
+  CommandHandle(ShellManager manager, ShellCommand command){
+    this(new Task(manager, command), command);
+  }
+
+  private CommandHandle(Task task, ShellCommand command){
+    super(task, null);
+    this.command = command;
+    task.handle = this;
+  }
+
+  /**
+   * Runs the command unless the handle was cancelled between being picked up
+   * by a command thread and getting here.
+   */
+  private static class Task implements Runnable {
+    final ShellManager manager;
+    final ShellCommand command;
+    CommandHandle handle;
+
+    Task(ShellManager manager, ShellCommand command){
+      this.manager = manager;
+      this.command = command;
+    }
+
+    @Override
+    public void run(){
+      if (!handle.cancelRequested){
+        manager.runCommand(command);
+      }
+    }
+  }
+
+  /**
+   * @return a handle that is already done because the command's
+   *         {@link ShellCommand#prepare()} returned false.
+   */
+  static CommandHandle createDeclined(ShellManager manager, ShellCommand command){
+    CommandHandle h = new CommandHandle(manager, command);
+    h.declined = true;
+    h.cancel(false);
+    return h;
+  }
+
+  /**
+   * @return a handle that is already done because it could not be queued.
+   */
+  static CommandHandle createRejected(ShellManager manager, ShellCommand command){
+    CommandHandle h = new CommandHandle(manager, command);
+    h.rejected = true;
+    h.cancel(false);
+    return h;
+  }
+
+  public ShellCommand getCommand(){
+    return command;
+  }
+
+  @Override
+  public void run(){
+    started = true;
+    super.run();
+  }
+
+  /**
+   * @return true if the command is still waiting for a command thread
+   */
+  public boolean isQueued(){
+    return !started && !isDone();
+  }
+
+  /**
+   * @return true if the command is currently executing
+   */
+  public boolean isRunning(){
+    return started && !isDone();
+  }
+
+  /**
+   * @return true if the command never ran because its prepare() returned false
+   */
+  public boolean isDeclined(){
+    return declined;
+  }
+
+  /**
+   * @return true if the command never ran because the command queue was full
+   */
+  public boolean isRejected(){
+    return rejected;
+  }
+
+  /**
+   * Cancels the command. Queued commands are dropped, running commands are
+   * asked to stop via {@link ShellCommand#cancel()} if mayInterruptIfRunning
+   * is set. The command thread itself is never interrupted since most commands
+   * (JPF in particular) do not expect that. A running handle stays running
+   * until the command returns, {@link #get()} then returns normally.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning){
+    if (!started){
+      return super.cancel(false);
+    }
+    if (!mayInterruptIfRunning || isDone()){
+      return false;
+    }
+    cancelRequested = true;
+    command.cancel();
+    return true;
+  }
+
+  /**
+   * @return true if the handle was cancelled, before or while it was running
+   */
+  @Override
+  public boolean isCancelled(){
+    return cancelRequested || super.isCancelled();
+  }
+
+  /**
+   * Adds a listener that is notified once this handle is done. If it is
+   * already done the listener is executed right away in the calling thread.
+   */
+  public void addCompletionListener(CompletionListener l){
+    synchronized (completionListeners){
+      if (!completed){
+        completionListeners.add(l);
+        return;
+      }
+    }
+    notifyCompletion(l);
+  }
+
+  public void removeCompletionListener(CompletionListener l){
+    synchronized (completionListeners){
+      completionListeners.remove(l);
+    }
+  }
+
+  @Override
+  protected void done(){
+    List<CompletionListener> list;
+    synchronized (completionListeners){
+      completed = true;
+      list = new ArrayList<CompletionListener>(completionListeners);
+      completionListeners.clear();
+    }
+    for (CompletionListener l : list){
+      notifyCompletion(l);
+    }
+  }
+
+  private void notifyCompletion(CompletionListener l){
+    try {
+      l.commandCompleted(this);
+    } catch (Exception e){
+      ShellManager.getLogger().log(Level.SEVERE, "Error in commandCompleted", e);
+    }
+  }
+
+  @Override
+  public String toString(){
+    String state = isQueued() ? "queued" : isRunning() ? "running" :
+                   declined ? "declined" : rejected ? "rejected" :
+                   isCancelled() ? "cancelled" : "done";
+    return command.getName() + " [" + state + "]";
+  }
+}
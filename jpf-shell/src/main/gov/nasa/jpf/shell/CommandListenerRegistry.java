@@ -0,0 +1,151 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link ShellCommandListener}s of a {@link ShellManager}.<br>
+ *
+ * Listeners are registered for a command class (and all of its subclasses)
+ * and are kept in the order they were added. The registrations are an
+ * immutable snapshot that is replaced whenever a listener is added or
+ * removed, and every snapshot caches the listener arrays it computed per
+ * command class (and per listener type). Firing a command therefore is a
+ * lookup plus a walk over an array that nobody modifies, no matter which
+ * thread adds or removes listeners in the meantime.
+ */
+final class CommandListenerRegistry {
+
+  private static final ShellCommandListener[] NO_LISTENERS = new ShellCommandListener[0];
+
+  private static class Registration {
+    final Class<? extends ShellCommand> commandClass;
+    final ShellCommandListener listener;
+
+    Registration(Class<? extends ShellCommand> commandClass, ShellCommandListener listener){
+      this.commandClass = commandClass;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * The registrations at one point in time, together with the dispatch
+   * tables derived from them. A new Snapshot starts out with empty tables,
+   * which is how the cache gets invalidated.
+   */
+  private static class Snapshot {
+    final Registration[] registrations;
+
+    final ConcurrentHashMap<Class<?>, ShellCommandListener[]> byCommand =
+            new ConcurrentHashMap<Class<?>, ShellCommandListener[]>();
+    final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Object[]>> byCommandAndType =
+            new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Object[]>>();
+
+    Snapshot(Registration[] registrations){
+      this.registrations = registrations;
+    }
+
+    ShellCommandListener[] getListeners(Class<?> commandType){
+      ShellCommandListener[] a = byCommand.get(commandType);
+      if (a == null){
+        ArrayList<ShellCommandListener> list = new ArrayList<ShellCommandListener>();
+        for (Registration r : registrations){
+          if (r.commandClass.isAssignableFrom(commandType)){
+            list.add(r.listener);
+          }
+        }
+        a = list.isEmpty() ? NO_LISTENERS : list.toArray(new ShellCommandListener[list.size()]);
+        byCommand.put(commandType, a);
+      }
+      return a;
+    }
+
+    Object[] getListeners(Class<?> commandType, Class<?> listenerType){
+      ConcurrentHashMap<Class<?>, Object[]> byType = byCommandAndType.get(commandType);
+      if (byType == null){
+        byType = new ConcurrentHashMap<Class<?>, Object[]>();
+        ConcurrentHashMap<Class<?>, Object[]> prev = byCommandAndType.putIfAbsent(commandType, byType);
+        if (prev != null){
+          byType = prev;
+        }
+      }
+
+      Object[] a = byType.get(listenerType);
+      if (a == null){
+        ArrayList<Object> list = new ArrayList<Object>();
+        for (ShellCommandListener l : getListeners(commandType)){
+          if (listenerType.isInstance(l)){
+            list.add(l);
+          }
+        }
+        a = list.toArray((Object[]) Array.newInstance(listenerType, list.size()));
+        byType.put(listenerType, a);
+      }
+      return a;
+    }
+  }
+
+  private volatile Snapshot snapshot = new Snapshot(new Registration[0]);
+
+  synchronized void add(Class<? extends ShellCommand> commandClass, ShellCommandListener listener){
+    Registration[] old = snapshot.registrations;
+    Registration[] a = new Registration[old.length + 1];
+    System.arraycopy(old, 0, a, 0, old.length);
+    a[old.length] = new Registration(commandClass, listener);
+    snapshot = new Snapshot(a);
+  }
+
+  /**
+   * Removes all registrations of the listener, no matter for which command
+   * class it was added.
+   */
+  synchronized void remove(ShellCommandListener listener){
+    Registration[] old = snapshot.registrations;
+    ArrayList<Registration> list = new ArrayList<Registration>(old.length);
+    for (Registration r : old){
+      if (r.listener != listener){
+        list.add(r);
+      }
+    }
+    if (list.size() != old.length){
+      snapshot = new Snapshot(list.toArray(new Registration[list.size()]));
+    }
+  }
+
+  /**
+   * @return all listeners for commands of the given type, in the order they
+   *         were added. The array is shared and must not be modified.
+   */
+  ShellCommandListener[] getListeners(Class<? extends ShellCommand> commandType){
+    return snapshot.getListeners(commandType);
+  }
+
+  /**
+   * @return all listeners for commands of the given type that also are of
+   *         the given listener type, in the order they were added. The array
+   *         is shared and must not be modified.
+   */
+  @SuppressWarnings("unchecked")
+  <E extends ShellCommandListener> E[] getListeners(Class<? extends ShellCommand> commandType,
+                                                    Class<E> listenerType){
+    return (E[]) snapshot.getListeners(commandType, listenerType);
+  }
+}
@@ -31,8 +31,9 @@ import javax.swing.Icon;
  *
  * To execute a ShellCommand that was added to a ShellManager
  * {@link gov.nasa.jpf.shell.ShellManager#fireCommand(gov.nasa.jpf.shell.ShellCommand)}
- * should be used. This will generate a ShellCommandEvent and fire all of the
- * listeners that are associated with the ShellCommand. <br>
+ * should be used. This will queue the command in the ShellManager's
+ * {@link gov.nasa.jpf.shell.CommandExecutor} and fire all of the
+ * listeners that are associated with the ShellCommand once it runs. <br>
  *
  * Listeners can be added to the ShellManager for any ShellCommand by using 
  * {@link gov.nasa.jpf.shell.ShellManager#addCommandListener(gov.nasa.jpf.shell.ShellCommand, gov.nasa.jpf.shell.ShellCommandListener)}
@@ -89,11 +90,21 @@ public abstract class ShellCommand {
 
     /**
      * The action to be performed when the user excute this command
-     * This is run in its own thread, NOT IN THE SWING THREAD
-     * The shell given is the shell from which the command was executed from.
+     * This is run in a command thread of the
+     * {@link gov.nasa.jpf.shell.CommandExecutor}, NOT IN THE SWING THREAD
      */
     public abstract void execute();
 
+    /**
+     * Requests that a running {@link #execute()} comes to an end as soon as
+     * possible. This is called from another thread when the
+     * {@link gov.nasa.jpf.shell.CommandHandle} of this command is cancelled.
+     * Does nothing by default.
+     */
+    public void cancel(){
+      /* Do Nothing */
+    }
+
 
     /**
      * Requests that all shells updated their rendering of this command since
@@ -103,12 +114,11 @@ public abstract class ShellCommand {
       ShellManager.getManager().updateCommand(this);
     }
 
-  public void fireInNewThread() {
-    new Thread(){
-      @Override
-      public void run(){
-        ShellManager.getManager().fireCommand(ShellCommand.this);
-      }
-    }.start();
+  /**
+   * Commands are always executed in a command thread now, so this is the same
+   * as calling {@link gov.nasa.jpf.shell.ShellManager#fireCommand(gov.nasa.jpf.shell.ShellCommand)}
+   */
+  public CommandHandle fireInNewThread() {
+    return ShellManager.getManager().fireCommand(this);
   }
 }
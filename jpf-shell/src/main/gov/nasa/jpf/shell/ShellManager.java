@@ -21,14 +21,14 @@ import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPF;
 import gov.nasa.jpf.JPFConfigException;
 import gov.nasa.jpf.shell.util.LinkDestination;
+import gov.nasa.jpf.shell.server.ShellEventServer;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -39,10 +39,13 @@ import java.util.logging.StreamHandler;
  * The <code>ShellManager</code> has the following responsibilities:
  * <ul>
  *   <li>Begin the execution of
- *       {@link gov.nasa.jpf.shell.ShellCommand#execute()}</li>
+ *       {@link gov.nasa.jpf.shell.ShellCommand#execute()} through its
+ *       {@link gov.nasa.jpf.shell.CommandExecutor}</li>
  *   <li>Notify all Shells when a command is either added, removed or requests
  *       to be updated</li>
- *   <li>Manage {@link gov.nasa.jpf.shell.ShellCommandListener} instances</li>
+ *   <li>Manage {@link gov.nasa.jpf.shell.ShellCommandListener} instances. The
+ *       listeners, commands and shells may be added and removed from any
+ *       thread, also while commands are running</li>
  *   <li>Exit the System once all {@link gov.nasa.jpf.shell.Shell} instances are
  *       disposed of</li>
  *   <li>Hold a reference to the single {@link gov.nasa.jpf.Config} object</li> 
@@ -81,7 +84,21 @@ public class ShellManager {
    * @return the new singleton instance of the ShellManager
    */
   public static ShellManager createShellManager(Config c){
-    setManager(new ShellManager(c));
+    setManager(new ShellManager(c, false));
+    return getManager();
+  }
+
+  /**
+   * Creates a new ShellManager for running commands without any Shell (see
+   * {@link gov.nasa.jpf.shell.headless.HeadlessShell}). The commands listed
+   * in shell.commands are not created, so that no UI classes get loaded.
+   * shell.port is opened as usual, which allows watching a batch run.
+   * @throws IllegalStateException if a ShellManager already exists
+   * @param c the Config to base this ShellManager around
+   * @return the new singleton instance of the ShellManager
+   */
+  public static ShellManager createHeadlessShellManager(Config c){
+    setManager(new ShellManager(c, true));
     return getManager();
   }
 
@@ -134,50 +151,50 @@ public class ShellManager {
   }
   
   //Holds all of the known shells
-  private ArrayList<WeakReference<Shell>> shells =
-	  new ArrayList<WeakReference<Shell>>();
-
-  //Holds a mapping of ShellCommands to their sclisteners.
-//  private HashMap<ShellCommand, List<ShellCommandListener>> listeners =
-//	  new HashMap<ShellCommand, List<ShellCommandListener>>();
+  private CopyOnWriteArrayList<WeakReference<Shell>> shells =
+	  new CopyOnWriteArrayList<WeakReference<Shell>>();
 
-  //Holds a mapping of ShellCommandClasses to their sclisteners.
-  private HashMap<Class<? extends ShellCommand>, List<ShellCommandListener>> 
-	  classlisteners = new HashMap<Class<? extends ShellCommand>,
-	                               List<ShellCommandListener>>();
+  //Holds the ShellCommandClasses and their sclisteners, with cached dispatch tables
+  private CommandListenerRegistry classlisteners = new CommandListenerRegistry();
   
-  //Stream to outside program
-  private PrintWriter ideOut = null;
+  //Connections to outside programs (IDEs and monitors)
+  private ShellEventServer eventServer = null;
 
   //Holds a list of all commands that are currently registered
-  private ArrayList<ShellCommand> commands = new ArrayList<ShellCommand>();
+  private CopyOnWriteArrayList<ShellCommand> commands = new CopyOnWriteArrayList<ShellCommand>();
+
+  //Runs the commands and their helper tasks
+  private CommandExecutor executor;
 
   /**
    * Creates a new ShellManager with the given Config. If the shell.port
-   * property is set in the config, then a connection is made to the port to 
-   * communicate with.
+   * property is set in the config, then a {@link ShellEventServer} is started
+   * on that port that outside programs can connect to.
    * @param c
+   * @param headless if true, no commands are created
    */
-  private ShellManager(Config c){
+  private ShellManager(Config c, boolean headless){
     this.config = c;
 
 		shellLog.addHandler(new StreamHandler(System.out,new SimpleFormatter()));
 
+    executor = new CommandExecutor(this, c);
+
     //Setup IDE port
-    final int p = c.getInt("shell.port", -1);
+    int p = c.getInt("shell.port", -1);
     if (p >= 0){
-      new Thread(){
-        @Override
-        public void run(){
-          try {
-            ServerSocket s = new ServerSocket(p);
-            Socket c = s.accept();
-            ideOut = new PrintWriter(c.getOutputStream(), true);
-          } catch (IOException ex) {
-            shellLog.log(Level.SEVERE, "failed to open shell port", ex);
-          }
-        }
-      }.start();
+      try {
+        eventServer = new ShellEventServer(p, c.getInt("shell.port.queue_size", 256),
+                                           c.getInt("shell.update_interval", 1000));
+        eventServer.addListeners(this);
+        executor.execute(eventServer);
+      } catch (IOException ex) {
+        shellLog.log(Level.SEVERE, "failed to open shell port", ex);
+      }
+    }
+
+    if (headless){
+      return;
     }
 
     try {
@@ -235,6 +252,21 @@ public class ShellManager {
     }
   }
 
+  /**
+   * @return the executor that runs all commands of this manager. Commands and
+   *         listeners should use it for any helper threads they need.
+   */
+  public CommandExecutor getExecutor(){
+    return executor;
+  }
+
+  /**
+   * @return the server listening on shell.port, or null if there is none
+   */
+  public ShellEventServer getEventServer(){
+    return eventServer;
+  }
+
   /**
    * @return this manager's configuration
    */
@@ -283,10 +315,7 @@ public class ShellManager {
    */
   public void addCommandListener(Class<? extends ShellCommand> commandClass,
                                  ShellCommandListener listener ){
-    if (!classlisteners.containsKey(commandClass)) {
-      classlisteners.put(commandClass, new ArrayList<ShellCommandListener>());
-    }
-    classlisteners.get(commandClass).add(listener);
+    classlisteners.add(commandClass, listener);
   }
 
   /**
@@ -294,11 +323,7 @@ public class ShellManager {
    * @param listener - the ShellCommandListener to be removed
    */
   public void removeCommandListener(ShellCommandListener listener){
-    for (List<ShellCommandListener> list : classlisteners.values()) {
-      if (list.contains(listener)) {
-        list.remove(listener);
-      }
-    }
+    classlisteners.remove(listener);
   }
   
   /**
@@ -373,27 +398,69 @@ public class ShellManager {
 
   /**
    * This method that should be called to launch/fire/execute a command. It first
-   * calls {@link gov.nasa.jpf.shell.ShellCommand#prepare()} to first determine
-   * whether to continue and notify the sclisteners. If prepare() is true then
+   * calls {@link gov.nasa.jpf.shell.ShellCommand#prepare()} in the calling
+   * thread to determine whether to continue. If prepare() is true then the
+   * command is queued in the {@link CommandExecutor} and this method returns.
+   * Once a command thread picks it up
    * {@link gov.nasa.jpf.shell.ShellCommandListener#preCommand(ShellCommand)}
    * is executed for all sclisteners to this command. The command is then executed via
    * {@link gov.nasa.jpf.shell.ShellCommand#execute()}. All the sclisteners are then
    * once again notified about the completion of the command through
    * {@link gov.nasa.jpf.shell.ShellCommandListener#postCommand(ShellCommand)}
    *
+   * If the command is still waiting in the queue from a previous call, it is
+   * not queued again and the pending handle is returned.
+   *
    * @param command the command who's sclisteners and execute method will be fired.
+   * @return the handle to wait for, or to cancel the command
    */
-  public void fireCommand(ShellCommand command){
+  public CommandHandle fireCommand(ShellCommand command){
+    CommandHandle queued = executor.getQueuedHandle(command);
+    if (queued != null){
+      return queued;
+    }
+
 		if (command.prepare()){
-      List<ShellCommandListener> sclisteners = getCommandListeners(command);
-      for (ShellCommandListener scl : sclisteners) { 
-        try{
-          scl.preCommand(command);
-        }catch(Exception e){
-          getLogger().log(Level.SEVERE, "Error in preCommand", e);
-        }
+      return executor.submit(command);
+		}
+    return CommandHandle.createDeclined(this, command);
+  }
+
+  /**
+   * Fires a command on behalf of another command, e.g. the runs of a batch.
+   * The same as {@link #fireCommand(ShellCommand)}, except that the command
+   * does not go through the bounded command queue, so it can't be rejected
+   * or wait behind the command that fired it. See
+   * {@link CommandExecutor#submitChild(ShellCommand)}.
+   */
+  public CommandHandle fireChildCommand(ShellCommand command){
+    CommandHandle queued = executor.getQueuedHandle(command);
+    if (queued != null){
+      return queued;
+    }
+
+    if (command.prepare()){
+      return executor.submitChild(command);
+    }
+    return CommandHandle.createDeclined(this, command);
+  }
+
+  /**
+   * Does the actual work of a fired command in the current thread, after it
+   * was prepared. Only called by {@link CommandHandle}.
+   */
+  void runCommand(ShellCommand command){
+    ShellCommandListener[] sclisteners = classlisteners.getListeners(command.getClass());
+    for (ShellCommandListener scl : sclisteners) { 
+      try{
+        scl.preCommand(command);
+      }catch(Exception e){
+        getLogger().log(Level.SEVERE, "Error in preCommand", e);
       }
-			command.execute();
+    }
+    try{
+      command.execute();
+    }finally{
       for (ShellCommandListener scl : sclisteners) {
         try{
           scl.postCommand(command);
@@ -401,17 +468,16 @@ public class ShellManager {
           getLogger().log(Level.SEVERE, "Error in postCommand", e);
         }
       }
-		}
+    }
   }
 
+  /**
+   * @return all listeners of the given command in the order they were added.
+   *         The list is a read-only view that is not affected by listeners
+   *         that are added or removed later on.
+   */
   public List<ShellCommandListener> getCommandListeners(ShellCommand c){
-    List<ShellCommandListener> list = new ArrayList<ShellCommandListener>();
-    for (Class ls : classlisteners.keySet()) {
-      if (ls.isAssignableFrom(c.getClass())) {
-        list.addAll(classlisteners.get(ls));
-      }
-    }
-    return list;
+    return Collections.unmodifiableList(Arrays.asList(classlisteners.getListeners(c.getClass())));
   }
 
   /**
@@ -425,13 +491,16 @@ public class ShellManager {
    * order that the sclisteners were added</li>
    * </ol>
    * @param commandClass - the class of the command being executed.
+   * @return the handles of all commands that were fired
    */
-  public void fireCommand(Class<? extends ShellCommand> commandClass){
+  public List<CommandHandle> fireCommand(Class<? extends ShellCommand> commandClass){
+    List<CommandHandle> handles = new ArrayList<CommandHandle>();
     for (ShellCommand command : commands) {
       if (commandClass.isAssignableFrom(command.getClass())){
-        fireCommand(command);
+        handles.add(fireCommand(command));
       }
     }
+    return handles;
   }
 
   public <C extends ShellCommand> C getCommand(Class<C> cls){
@@ -444,22 +513,11 @@ public class ShellManager {
   }
 
 	/**
-	 * @return all of the command sclisteners of a certain type
+	 * @return all of the command sclisteners of a certain type, as a read-only
+	 *         view like {@link #getCommandListeners(ShellCommand)}
 	 */
 	public <E extends ShellCommandListener> List<E> getCommandListeners(Class<? extends ShellCommand> commandType, Class<E> listenerType){
-		ArrayList<E> arrayList = new ArrayList<E>();
-
-    for (Class<? extends ShellCommand> class1 : classlisteners.keySet()) {
-      if (class1.isAssignableFrom(commandType)) {
-        for (ShellCommandListener shellCommandListener : classlisteners.get(class1)) {
-          if (listenerType.isAssignableFrom(shellCommandListener.getClass())) {
-            arrayList.add((E) shellCommandListener);
-          }
-        }
-      }
-    }
-
-		return arrayList;
+		return Collections.unmodifiableList(Arrays.asList(classlisteners.getListeners(commandType, listenerType)));
 	}
 
   /**
@@ -488,8 +546,8 @@ public class ShellManager {
 
   /**
    * Attempts to open the given file in an editor.<br>
-   * If there is already a connection made to the editor through the use of the
-   * "shell.port" property then the following string is printed to it:<br>
+   * If there are connections made to the "shell.port" then the following
+   * string is sent to all of them:<br>
    * <code>[LINK] <i>path</i>:<i>line</i></code><br>
    * Where path is the absolute path to the file and line is the line number of
    * of the file starting with 1.<br>
@@ -500,8 +558,8 @@ public class ShellManager {
    * @param d the destination of the link
    */
   public void printLinkCommand(LinkDestination d){
-    if (ideOut != null){
-      ideOut.println("[LINK]" + d );
+    if (eventServer != null && eventServer.hasClients()){
+      eventServer.publishLink(d.toString());
     }else{
       String e = getConfig().getProperty("shell.editor", "");
       if (e.isEmpty() == false){
@@ -517,19 +575,37 @@ public class ShellManager {
   }
 
   /**
-   * Prints the given command to the connection made to "shell.port"
+   * Prints the given command to all connections made to "shell.port"
    * @param command
    */
   public void printCommand(String command){
-    if (ideOut != null){
-      //A socket is connected, just give them the comannds
-      ideOut.print(command);    }
+    if (eventServer != null){
+      eventServer.publishCommand(command);
+    }
   }
 
 	public void setStartingArgs(String[] args){
 		this.startingArgs = args;
 	}
 
+  /**
+   * Creates a new Config from the arguments the shell was started with. This
+   * is used by runs that need their own Config snapshot, which must not be
+   * affected by later changes to the shell's config.
+   * @param appProperties the application properties (.jpf file) to use
+   *        instead of the current one, or null to keep the current one
+   */
+  public Config createConfig(String appProperties){
+    String[] args = startingArgs;
+    if (appProperties != null){
+      args = replaceAppProperties(args, appProperties);
+    }
+    if (args == null){
+      args = new String[0];
+    }
+    return JPF.createConfig(args);
+  }
+
 	public void reloadAppProperties(String appProperties){
     String[] newArgs = replaceAppProperties(startingArgs, appProperties);
     if (newArgs != startingArgs){
@@ -627,14 +703,14 @@ public class ShellManager {
         if (appProperties != null){ // replace and dump trailing app arguments
           newArgs = new String[i + 1];
           if (i>0){
-            System.arraycopy(args, 0, newArgs, 0, i-1);
+            System.arraycopy(args, 0, newArgs, 0, i);
           }
           newArgs[i] = appProperties;
           
         } else { // dump previous appProperties and trailing app args
           newArgs = new String[i];
           if (i>0){
-            System.arraycopy(args, 0, newArgs, 0, i-1);
+            System.arraycopy(args, 0, newArgs, 0, i);
           }
         }
         
@@ -669,6 +745,12 @@ public class ShellManager {
    * no jpf-shell maintainers now, and anyway it's they who chose to use a static untestable class.
    */
   public static void destroy() {
+    if (manager != null) {
+      if (manager.eventServer != null){
+        manager.eventServer.close();
+      }
+      manager.executor.shutdown();
+    }
     manager = null;
   }
 }
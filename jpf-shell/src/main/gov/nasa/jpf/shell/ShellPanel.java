@@ -119,9 +119,13 @@ public abstract class ShellPanel extends JPanel{
 
     /**
      * Sends a request to the parent shell that this panel receive focus.
+     * Does nothing if the panel is not in a shell (yet).
      */
     public void requestShellFocus(){
-      getShell().requestFocus(this);
+      Shell s = getShell();
+      if (s != null){
+        s.requestFocus(this);
+      }
     }
 
     protected void receivedFocus() {}
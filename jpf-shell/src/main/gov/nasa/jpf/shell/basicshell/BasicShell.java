@@ -203,12 +203,7 @@ public class BasicShell extends Shell {
     button.addActionListener(new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent ae) {
-        new Thread("Shell Command Thread"){
-          @Override
-          public void run(){
-            ShellManager.getManager().fireCommand(command);
-          }
-        }.start();
+        ShellManager.getManager().fireCommand(command);
       }
     });
 
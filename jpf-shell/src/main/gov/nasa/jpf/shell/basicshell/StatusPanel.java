@@ -21,6 +21,11 @@ import gov.nasa.jpf.shell.listeners.TestCommandListener;
 import gov.nasa.jpf.shell.commands.VerifyCommand;
 import gov.nasa.jpf.shell.commands.TestCommand;
 import gov.nasa.jpf.shell.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.Icon;
@@ -33,6 +38,8 @@ import static gov.nasa.jpf.shell.basicshell.images.JPFShell_Images.*;
  * A JPanel that lays along the bottom of the BasicShell displaying icons that
  * indicate the status of various ShellCommands (Right now just {@link gov.nasa.jpf.shell.commands.TestCommand}
  * and {@link gov.nasa.jpf.shell.commands.VerifyCommand}).  
+ * Independent verification runs get a labeled icon of their own, see
+ * {@link #addRun(gov.nasa.jpf.shell.commands.VerifyCommand)}.
  */
 public class StatusPanel extends JPanel implements ShellCommandListener, TestCommandListener{
 
@@ -46,6 +53,13 @@ public class StatusPanel extends JPanel implements ShellCommandListener, TestCom
   private Icon testStatusOff = getStatusIcon(StatusIcon.TestOff, "");
   private JLabel testStatusLabel = new JLabel(testStatusOff);
 
+  //Independent verification runs
+  private Map<VerifyCommand, JLabel> runLabels =
+          Collections.synchronizedMap(new LinkedHashMap<VerifyCommand, JLabel>());
+  private Set<VerifyCommand> finishedRuns =
+          Collections.synchronizedSet(new HashSet<VerifyCommand>());
+  private boolean listeningToVerify = false;
+
   public StatusPanel(){
     setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
     setBorder(BorderFactory.createLoweredBevelBorder());
@@ -58,7 +72,60 @@ public class StatusPanel extends JPanel implements ShellCommandListener, TestCom
    */
   public void addCommand(VerifyCommand command){
     add(verifyStatusLabel);
-    ShellManager.getManager().addCommandListener(command, this);
+    listenToVerify(command);
+  }
+
+  private void listenToVerify(VerifyCommand command){
+    if (!listeningToVerify){
+      ShellManager.getManager().addCommandListener(command, this);
+      listeningToVerify = true;
+    }
+  }
+
+  /**
+   * Adds a status icon that is labeled with the name of an independent run.
+   * The icon stays after the run is done, until {@link #removeFinishedRuns()}
+   * is called.
+   * @param run the run to show the status of
+   */
+  public void addRun(VerifyCommand run){
+    JLabel label = new JLabel(run.getRunName(), verifyStatusOff, JLabel.LEFT);
+    label.setToolTipText(run.getRunName() + ": queued");
+    label.setBorder(BorderFactory.createEmptyBorder(0, 4, 0, 4));
+    runLabels.put(run, label);
+    listenToVerify(run);
+    add(label);
+    revalidate();
+  }
+
+  /**
+   * Removes the icon of a run right away, e.g. if it could not be started.
+   */
+  public void removeRun(VerifyCommand run){
+    JLabel label = runLabels.remove(run);
+    finishedRuns.remove(run);
+    if (label != null){
+      remove(label);
+      revalidate();
+      repaint();
+    }
+  }
+
+  /**
+   * Removes the icons of all independent runs that are not running anymore.
+   */
+  public void removeFinishedRuns(){
+    synchronized (finishedRuns){
+      for (VerifyCommand run : finishedRuns){
+        JLabel label = runLabels.remove(run);
+        if (label != null){
+          remove(label);
+        }
+      }
+      finishedRuns.clear();
+    }
+    revalidate();
+    repaint();
   }
 
   /**
@@ -73,11 +140,36 @@ public class StatusPanel extends JPanel implements ShellCommandListener, TestCom
 
   /*----------------------- These are for the VerifyCommand ------------------*/
   public void preCommand(ShellCommand command) {
-    verifyStatusLabel.setIcon(verifyStatusOn);
+    JLabel runLabel = runLabels.get(command);
+    if (runLabel != null){
+      runLabel.setIcon(verifyStatusOn);
+      runLabel.setToolTipText(runLabel.getText() + ": verifying");
+    } else if (isShellVerify(command)){
+      verifyStatusLabel.setIcon(verifyStatusOn);
+    }
   }
 
   public void postCommand(ShellCommand command) {
-    verifyStatusLabel.setIcon(verifyStatusOff);
+    JLabel runLabel = runLabels.get(command);
+    if (runLabel != null){
+      runLabel.setIcon(verifyStatusOff);
+      finishedRuns.add((VerifyCommand) command);
+      if (((VerifyCommand) command).errorOccured()){
+        runLabel.setToolTipText(runLabel.getText() + ": failed, check the Logger Panel");
+      } else {
+        runLabel.setToolTipText(runLabel.getText() + ": done");
+      }
+    } else if (isShellVerify(command)){
+      verifyStatusLabel.setIcon(verifyStatusOff);
+    }
+  }
+
+  /**
+   * @return true for the shell's own VerifyCommand, the runs of Batch, Swarm
+   *         and the like are not shown by the main verify indicator
+   */
+  private static boolean isShellVerify(ShellCommand command){
+    return command == ShellManager.getManager().getCommand(VerifyCommand.class);
   }
 
   /* ------------- These are for the TestCommand -----------------------------*/
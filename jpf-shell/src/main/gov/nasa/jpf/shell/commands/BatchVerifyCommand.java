@@ -0,0 +1,457 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellCommandListener;
+import gov.nasa.jpf.shell.ShellManager;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import javax.swing.JFileChooser;
+
+/**
+ * Verifies all application property (.jpf) files found in a directory tree,
+ * several of them at a time. Every target is an independent
+ * {@link VerifyCommand} run, by default forked into its own worker JVM (see
+ * shell.verify.fork). <br>
+ *
+ * The runtime of every target is recorded in a history file, and the next
+ * batch starts the targets that took longest first (targets without history
+ * go first of all), so that a long run does not end up starting last and
+ * keeping the batch waiting for it alone.<br>
+ *
+ * When all runs are done, a table with the result, time and states of every
+ * target is written to <i>output_dir</i>/batch-results.txt.<br>
+ *
+ * The runs are child commands of the batch (see
+ * {@link ShellManager#fireChildCommand(ShellCommand)}), so
+ * no more than shell.executor.child_threads of them run at the same time.
+ * <br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.batch.dir - the directory to search for .jpf files, if not set
+ *       the user is asked to choose one</li>
+ *   <li>shell.batch.threads - max number of concurrent runs (default: number
+ *       of processors)</li>
+ *   <li>shell.batch.max_memory_mb, shell.batch.worker_memory_mb - if set,
+ *       also limits concurrent runs to max_memory_mb / worker_memory_mb</li>
+ *   <li>shell.batch.fork - run every target in a worker JVM (default true)</li>
+ *   <li>shell.batch.output_dir - where the table goes (default jpf-results)</li>
+ *   <li>shell.batch.history - the runtime history file (default
+ *       output_dir/batch-history.properties)</li>
+ * </ul>
+ */
+public class BatchVerifyCommand extends ShellCommand {
+
+  public static final String NAME = "Batch Verify";
+
+  static final String RESULTS_FILE = "batch-results.txt";
+  static final String HISTORY_FILE = "batch-history.properties";
+
+  private File dir;
+  private final boolean dirGiven;
+  private volatile boolean cancelled = false;
+
+  private final List<Job> jobs = new ArrayList<Job>();
+  private final Map<VerifyCommand, Job> running = new ConcurrentHashMap<VerifyCommand, Job>();
+  private final List<CommandHandle> handles = Collections.synchronizedList(new ArrayList<CommandHandle>());
+
+  public BatchVerifyCommand(){
+    this(null);
+  }
+
+  /**
+   * Creates a batch of the given directory instead of the configured one
+   */
+  public BatchVerifyCommand(File dir){
+    this.dir = dir;
+    this.dirGiven = (dir != null);
+  }
+
+  /**
+   * The result of one target of the batch.
+   */
+  public static class Job {
+    final File target;
+    final String name;
+    long expected = -1;   // ms, -1 if there is no history
+
+    VerifyCommand run;
+    volatile long start;
+    volatile long time = -1;
+    volatile String result = "NOT RUN";
+    volatile long newStates = -1;
+
+    Job(File target){
+      this.target = target;
+      this.name = MultiVerifyCommand.getRunName(target.getPath());
+    }
+
+    public File getTarget(){ return target; }
+    public String getResult(){ return result; }
+    public long getTime(){ return time; }
+
+    /**
+     * @return true if the target was verified without errors
+     */
+    public boolean isOk(){
+      return "OK".equals(result);
+    }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Verify all .jpf files of a directory, several at a time";
+  }
+
+  @Override
+  public boolean prepare(){
+    if (dirGiven){
+      return dir.isDirectory();
+    }
+    String configured = ShellManager.getManager().getConfig().getString("shell.batch.dir");
+    if (configured != null){
+      dir = new File(configured);
+    } else {
+      dir = DirectoryChooser.choose();
+    }
+    return dir != null && dir.isDirectory();
+  }
+
+  /**
+   * Stops starting new runs and cancels the running ones.
+   */
+  @Override
+  public void cancel(){
+    cancelled = true;
+    synchronized (handles){
+      for (CommandHandle h : handles){
+        h.cancel(true);
+      }
+    }
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    handles.clear();
+    jobs.clear();
+
+    ShellManager manager = ShellManager.getManager();
+    Config config = manager.getConfig();
+    File outputDir = new File(config.getString("shell.batch.output_dir", "jpf-results"));
+    File historyFile = new File(config.getString("shell.batch.history",
+                                new File(outputDir, HISTORY_FILE).getPath()));
+    boolean fork = config.getBoolean("shell.batch.fork", true);
+    int parallelism = getParallelism(config);
+
+    List<File> targets = new ArrayList<File>();
+    findTargets(dir, targets);
+    Properties history = loadHistory(historyFile);
+    for (File t : targets){
+      Job job = new Job(t);
+      String h = history.getProperty(t.getAbsolutePath());
+      if (h != null){
+        try {
+          job.expected = Long.parseLong(h);
+        } catch (NumberFormatException x){
+          // ignore broken entries
+        }
+      }
+      jobs.add(job);
+    }
+    schedule(jobs);
+
+    ShellManager.getLogger().log(Level.INFO, "batch of " + jobs.size() + " targets in "
+            + dir + ", " + parallelism + " at a time");
+
+    RunTimer timer = new RunTimer();
+    manager.addCommandListener(VerifyCommand.class, timer);
+    long batchStart = System.currentTimeMillis();
+    final Semaphore slots = new Semaphore(parallelism);
+    try {
+      for (final Job job : jobs){
+        slots.acquire();
+        if (cancelled){
+          slots.release();
+          break;
+        }
+
+        Config c;
+        try {
+          c = manager.createConfig(job.target.getPath());
+        } catch (JPFConfigException cx){
+          ShellManager.getLogger().log(Level.SEVERE, "failed to load " + job.target, cx);
+          job.result = "CONFIG ERROR";
+          slots.release();
+          continue;
+        }
+        if (fork){
+          c.setProperty("shell.verify.fork", "true");
+        }
+
+        job.run = new VerifyCommand(job.name, c);
+        running.put(job.run, job);
+        CommandHandle handle = manager.fireChildCommand(job.run);
+        handles.add(handle);
+        handle.addCompletionListener(new CommandHandle.CompletionListener(){
+          public void commandCompleted(CommandHandle h){
+            finish(job, h);
+            slots.release();
+          }
+        });
+      }
+      slots.acquire(parallelism); // wait for the last runs
+    } catch (InterruptedException ix){
+      cancel();
+      Thread.currentThread().interrupt();
+    } finally {
+      manager.removeCommandListener(timer);
+    }
+
+    long wallTime = System.currentTimeMillis() - batchStart;
+    saveHistory(historyFile, history);
+    writeResults(new File(outputDir, RESULTS_FILE), wallTime, parallelism);
+  }
+
+  /**
+   * @return the targets of the last batch in the order they were started
+   */
+  public List<Job> getJobs(){
+    return new ArrayList<Job>(jobs);
+  }
+
+  private void finish(Job job, CommandHandle h){
+    running.remove(job.run);
+    VerifyCommand run = job.run;
+    if (h.isRejected() || h.isDeclined()){
+      job.result = "NOT RUN";
+      ShellManager.getLogger().log(Level.WARNING, "could not start " + run.getName());
+      return;
+    }
+    if (h.isCancelled()){
+      job.result = "CANCELLED";
+      return;
+    }
+
+    long[] stats = run.getStatistics();
+    if (stats != null){
+      job.newStates = stats[1];
+    }
+    if (run.errorOccured()){
+      job.result = "FAILED";
+    } else {
+      int errors = run.getErrorDescriptions().size();
+      if (errors == 0 && run.isPartial()){
+        job.result = "PARTIAL";
+      } else {
+        job.result = (errors == 0) ? "OK" : "ERRORS(" + errors + ")";
+      }
+    }
+  }
+
+  /**
+   * Longest expected runtime first, targets without history before all
+   * others. The sort is stable, so ties keep their path order.
+   */
+  static void schedule(List<Job> jobs){
+    Collections.sort(jobs, new Comparator<Job>(){
+      public int compare(Job a, Job b){
+        long ea = (a.expected < 0) ? Long.MAX_VALUE : a.expected;
+        long eb = (b.expected < 0) ? Long.MAX_VALUE : b.expected;
+        return (ea > eb) ? -1 : (ea < eb) ? 1 : 0;
+      }
+    });
+  }
+
+  private static int getParallelism(Config config){
+    int n = config.getInt("shell.batch.threads", Runtime.getRuntime().availableProcessors());
+    n = Math.min(n, ShellManager.getManager().getExecutor().getChildThreads());
+    int maxMemory = config.getInt("shell.batch.max_memory_mb", 0);
+    int workerMemory = config.getInt("shell.batch.worker_memory_mb", 0);
+    if (maxMemory > 0 && workerMemory > 0){
+      n = Math.min(n, maxMemory / workerMemory);
+    }
+    return Math.max(1, n);
+  }
+
+  static void findTargets(File dir, List<File> targets){
+    File[] files = dir.listFiles();
+    if (files == null){
+      return;
+    }
+    Arrays.sort(files);
+    for (File f : files){
+      if (f.isDirectory()){
+        if (!f.getName().startsWith(".")){
+          findTargets(f, targets);
+        }
+      } else if (f.getName().endsWith(".jpf")){
+        targets.add(f);
+      }
+    }
+  }
+
+  private Properties loadHistory(File file){
+    Properties p = new Properties();
+    if (file.isFile()){
+      try {
+        Reader r = new FileReader(file);
+        try {
+          p.load(r);
+        } finally {
+          r.close();
+        }
+      } catch (IOException ex){
+        ShellManager.getLogger().log(Level.WARNING, "cannot read " + file, ex);
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Records the runtime of every target that finished, averaged with the
+   * previous one so that a single slow run does not turn the order upside
+   * down.
+   */
+  private void saveHistory(File file, Properties history){
+    for (Job job : jobs){
+      if (job.time >= 0 && !"CANCELLED".equals(job.result)){
+        long t = (job.expected < 0) ? job.time : (job.expected + job.time) / 2;
+        history.setProperty(job.target.getAbsolutePath(), String.valueOf(t));
+      }
+    }
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    try {
+      Writer w = new FileWriter(file);
+      try {
+        history.store(w, "JPF batch runtimes in ms");
+      } finally {
+        w.close();
+      }
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.WARNING, "cannot write " + file, ex);
+    }
+  }
+
+  private void writeResults(File file, long wallTime, int parallelism){
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    int nameWidth = 6;
+    for (Job job : jobs){
+      nameWidth = Math.max(nameWidth, job.name.length());
+    }
+    String row = "%-" + nameWidth + "s  %-12s  %10s  %10s  %12s%n";
+
+    long sum = 0;
+    int ok = 0;
+    try {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+        out.printf(row, "target", "result", "time[s]", "expected", "new states");
+        for (Job job : jobs){
+          out.printf(row, job.name, job.result, seconds(job.time), seconds(job.expected),
+                     (job.newStates < 0) ? "-" : String.valueOf(job.newStates));
+          if (job.time > 0){
+            sum += job.time;
+          }
+          if (job.isOk()){
+            ok++;
+          }
+        }
+        out.println();
+        out.println(ok + " of " + jobs.size() + " ok, " + parallelism + " at a time, "
+                + seconds(wallTime) + "s wall clock for " + seconds(sum) + "s of runs");
+      } finally {
+        out.close();
+      }
+      ShellManager.getLogger().log(Level.INFO, "batch results written to " + file);
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot write " + file, ex);
+    }
+  }
+
+  private static String seconds(long ms){
+    if (ms < 0){
+      return "-";
+    }
+    return String.format("%.1f", ms / 1000.0);
+  }
+
+  /**
+   * Takes the time of the runs of this batch from their pre- to their
+   * postCommand, which leaves out the time they waited in the command queue.
+   */
+  class RunTimer implements ShellCommandListener<VerifyCommand> {
+    public void preCommand(VerifyCommand command){
+      Job job = running.get(command);
+      if (job != null){
+        job.start = System.currentTimeMillis();
+      }
+    }
+
+    public void postCommand(VerifyCommand command){
+      Job job = running.get(command);
+      if (job != null){
+        job.time = System.currentTimeMillis() - job.start;
+      }
+    }
+  }
+
+  /**
+   * Kept in its own class so that headless batches never load Swing.
+   */
+  private static class DirectoryChooser {
+    static File choose(){
+      ShellManager manager = ShellManager.getManager();
+      JFileChooser chooser = new JFileChooser();
+      chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+      String app = manager.getConfig().getProperty("jpf.app");
+      if (app != null){
+        chooser.setCurrentDirectory(new File(app).getAbsoluteFile().getParentFile());
+      }
+      if (chooser.showOpenDialog(manager.getShell()) != JFileChooser.APPROVE_OPTION){
+        return null;
+      }
+      return chooser.getSelectedFile();
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.util.WarmLauncher;
+import java.awt.Font;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import javax.swing.JOptionPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the application of the {@link TestCommand} natively
+ * shell.benchmark.runs times, after shell.benchmark.warmup runs that are not
+ * counted, each in a fresh JVM. Of every run it records the wall time, the
+ * CPU time and the peak resident set size of the JVM (the latter two are
+ * reported by the {@link WarmLauncher} the application is started with, and
+ * are missing on platforms that do not tell). The report has the mean,
+ * variance and percentiles of these and, if the last Verify of the shell was
+ * of the same target, the JPF slowdown factor: the time of that verification
+ * divided by the mean wall time of a native run.<br>
+ *
+ * The output of the application is discarded, its stdin is closed.
+ */
+public class BenchmarkCommand extends ShellCommand {
+
+  public static final String NAME = "Benchmark";
+
+  private volatile boolean cancelled = false;
+  private volatile Process running;
+  private volatile Benchmark benchmark;
+
+  /**
+   * The measurements of one native run.
+   */
+  public static class Sample {
+    final double wallMillis;
+    final double cpuMillis;
+    final long peakRss;
+
+    Sample(double wallMillis, double cpuMillis, long peakRss){
+      this.wallMillis = wallMillis;
+      this.cpuMillis = cpuMillis;
+      this.peakRss = peakRss;
+    }
+
+    public double getWallMillis(){ return wallMillis; }
+
+    /**
+     * @return the CPU time of the JVM, or a negative value if unknown
+     */
+    public double getCpuMillis(){ return cpuMillis; }
+
+    /**
+     * @return the peak resident set size of the JVM in bytes, or -1 if unknown
+     */
+    public long getPeakRss(){ return peakRss; }
+  }
+
+  /**
+   * The summary of the samples of a benchmark.
+   */
+  public static class Benchmark {
+    final String target;
+    final int warmup;
+    final List<Sample> samples;
+    final long verifyMillis;
+
+    Benchmark(String target, int warmup, List<Sample> samples, long verifyMillis){
+      this.target = target;
+      this.warmup = warmup;
+      this.samples = Collections.unmodifiableList(samples);
+      this.verifyMillis = verifyMillis;
+    }
+
+    public List<Sample> getSamples(){ return samples; }
+
+    public double getMeanWallMillis(){
+      return mean(values(WALL));
+    }
+
+    /**
+     * @return the time of the last verification of the target divided by the
+     *         mean wall time of a native run, or -1 if there was none
+     */
+    public double getSlowdown(){
+      double mean = getMeanWallMillis();
+      return (verifyMillis > 0 && mean > 0) ? verifyMillis / mean : -1;
+    }
+
+    private static final int WALL = 0, CPU = 1, RSS = 2;
+
+    private double[] values(int kind){
+      double[] v = new double[samples.size()];
+      int n = 0;
+      for (Sample s : samples){
+        double x = (kind == WALL) ? s.wallMillis : (kind == CPU) ? s.cpuMillis : s.peakRss / (1024.0 * 1024.0);
+        if (x >= 0){
+          v[n++] = x;
+        }
+      }
+      v = Arrays.copyOf(v, n);
+      Arrays.sort(v);
+      return v;
+    }
+
+    private static double mean(double[] v){
+      double sum = 0;
+      for (double x : v){
+        sum += x;
+      }
+      return (v.length > 0) ? sum / v.length : -1;
+    }
+
+    private static double variance(double[] v){
+      if (v.length < 2){
+        return 0;
+      }
+      double mean = mean(v);
+      double sum = 0;
+      for (double x : v){
+        sum += (x - mean) * (x - mean);
+      }
+      return sum / (v.length - 1);
+    }
+
+    /**
+     * nearest rank of the sorted values
+     */
+    private static double percentile(double[] v, int p){
+      int rank = (int) Math.ceil(p / 100.0 * v.length);
+      return v[Math.max(0, rank - 1)];
+    }
+
+    private static void row(StringBuilder sb, String name, double[] v){
+      if (v.length == 0){
+        sb.append(String.format("%-14s%s%n", name, "n/a"));
+        return;
+      }
+      sb.append(String.format("%-14s%10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n", name,
+                              mean(v), v[0], percentile(v, 50), percentile(v, 90), percentile(v, 99),
+                              v[v.length - 1], variance(v)));
+    }
+
+    @Override
+    public String toString(){
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%s: %d runs after %d warmup runs%n", target, samples.size(), warmup));
+      sb.append(String.format("%-14s%10s %10s %10s %10s %10s %10s %12s%n", "",
+                              "mean", "min", "p50", "p90", "p99", "max", "variance"));
+      row(sb, "wall (ms)", values(WALL));
+      row(sb, "cpu (ms)", values(CPU));
+      row(sb, "peak RSS (MB)", values(RSS));
+      double slowdown = getSlowdown();
+      if (slowdown > 0){
+        sb.append(String.format("JPF slowdown:  %.0fx (verified in %d ms)%n", slowdown, verifyMillis));
+      } else {
+        sb.append("JPF slowdown:  n/a, no finished Verify of this target\n");
+      }
+      return sb.toString();
+    }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Time repeated native runs of the application and compare them with the last verification";
+  }
+
+  @Override
+  public void cancel(){
+    cancelled = true;
+    Process p = running;
+    if (p != null){
+      p.destroy();
+    }
+  }
+
+  /**
+   * @return the benchmark of the last execution, or null if there is none
+   */
+  public Benchmark getBenchmark(){
+    return benchmark;
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    benchmark = null;
+
+    ShellManager manager = ShellManager.getManager();
+    TestCommand test = new TestCommand();
+    if (!test.prepare()){
+      return;
+    }
+    Config config = test.getConfig();
+    int runs = Math.max(1, config.getInt("shell.benchmark.runs", 10));
+    int warmup = Math.max(0, config.getInt("shell.benchmark.warmup", 2));
+    String launcher = config.getString("shell.test.pool.classpath");
+    if (launcher == null){
+      launcher = TestJVMPool.getLauncherPath();
+      if (launcher == null){
+        return;
+      }
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "benchmarking " + test.target + " with " + runs
+            + " runs after " + warmup + " warmup runs");
+    List<Sample> samples = new ArrayList<Sample>(runs);
+    for (int i = 0; i < warmup + runs && !cancelled; i++){
+      Sample s;
+      try {
+        s = run(test.classpath + File.pathSeparator + launcher, test.target, test.args);
+      } catch (IOException x){
+        ShellManager.getLogger().log(Level.SEVERE, "benchmark run of " + test.target + " failed", x);
+        return;
+      } catch (InterruptedException x){
+        return;
+      }
+      if (s == null){
+        return;
+      }
+      if (i >= warmup){
+        samples.add(s);
+      }
+    }
+    if (cancelled){
+      return;
+    }
+
+    benchmark = new Benchmark(test.target, warmup, samples, getVerifyMillis(manager, test.target));
+    ShellManager.getLogger().log(Level.INFO, "benchmark:\n" + benchmark);
+    if (manager.getShell() != null){
+      ResultDialog.show(benchmark);
+    }
+  }
+
+  /**
+   * @return the measurements of one run, or null if the run was cancelled
+   *         or the application failed
+   */
+  private Sample run(String classpath, String target, String[] args) throws IOException, InterruptedException {
+    File stats = File.createTempFile("jpf-benchmark", ".stats");
+    try {
+      List<String> cmd = new ArrayList<String>();
+      cmd.add("java");
+      cmd.add("-ea");
+      cmd.add("-D" + WarmLauncher.STATS_PROPERTY + '=' + stats.getAbsolutePath());
+      cmd.add("-cp");
+      cmd.add(classpath);
+      cmd.add(WarmLauncher.class.getName());
+
+      long start = System.nanoTime();
+      Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+      running = p;
+      OutputStream out = p.getOutputStream();
+      out.write(WarmLauncher.createRequest(target, args).getBytes("UTF-8"));
+      out.close();
+      InputStream in = p.getInputStream();
+      byte[] buf = new byte[8192];
+      while (in.read(buf) >= 0){
+        // discard the output, it would only block the application
+      }
+      int exit = p.waitFor();
+      long wall = System.nanoTime() - start;
+      running = null;
+
+      if (cancelled){
+        return null;
+      }
+      if (exit != 0){
+        ShellManager.getLogger().log(Level.SEVERE, "benchmark run of " + target + " exited with " + exit);
+        return null;
+      }
+
+      long cpu = -1;
+      long rss = -1;
+      BufferedReader r = new BufferedReader(new FileReader(stats));
+      try {
+        String line = r.readLine();
+        if (line != null){
+          String[] f = line.trim().split(" ");
+          cpu = Long.parseLong(f[0]);
+          rss = Long.parseLong(f[1]);
+        }
+      } catch (RuntimeException x){
+        ShellManager.getLogger().log(Level.FINE, "no CPU time and RSS of the benchmark run", x);
+      } finally {
+        r.close();
+      }
+      return new Sample(wall / 1e6, (cpu >= 0) ? cpu / 1e6 : -1, rss);
+    } finally {
+      stats.delete();
+    }
+  }
+
+  /**
+   * @return the elapsed time of the last finished Verify of the shell if it
+   *         was of target, or -1
+   */
+  private static long getVerifyMillis(ShellManager manager, String target){
+    VerifyCommand verify = manager.getCommand(VerifyCommand.class);
+    if (verify == null || verify.isVerifying() || !target.equals(verify.getConfig().getTarget())){
+      return -1;
+    }
+    long[] s = verify.getStatistics();
+    return (s != null) ? s[0] : -1;
+  }
+
+  /**
+   * Kept in its own class so that loading the command in a headless run
+   * does not drag in Swing.
+   */
+  private static class ResultDialog {
+    static void show(final Benchmark b){
+      SwingUtilities.invokeLater(new Runnable(){
+        public void run(){
+          //monospaced, so that the columns line up
+          JTextArea text = new JTextArea(b.toString());
+          text.setEditable(false);
+          text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+          JOptionPane.showMessageDialog(ShellManager.getManager().getShell(), text,
+                                        "Benchmark", JOptionPane.INFORMATION_MESSAGE);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.basicshell.StatusPanel;
+import gov.nasa.jpf.shell.panels.ReportPanel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Verifies the current application with a growing search.depth_limit, so
+ * that shallow errors are found without the search wandering deep into the
+ * state space first. Every iteration is an independent {@link VerifyCommand}
+ * run with its own Config snapshot, the limit starts at shell.deepening.start
+ * and is multiplied by shell.deepening.factor after each iteration. The
+ * iterations stop
+ * <ul>
+ *   <li>at the first iteration that finds an error</li>
+ *   <li>once an iteration explored everything without reaching its limit,
+ *       i.e. its max depth stayed below it</li>
+ *   <li>after the iteration with a limit of shell.deepening.max, if set</li>
+ *   <li>if an iteration failed, exceeded its budget or was cancelled</li>
+ * </ul>
+ * Each iteration searches the shallow part of the state space again, which
+ * costs little compared to the deeper levels as long as the factor is not
+ * too small. The report of the last iteration is shown in a child shell,
+ * with a table of the statistics of all iterations in front of it.
+ */
+public class DeepeningVerifyCommand extends ShellCommand {
+
+  public static final String NAME = "Deepening Verify";
+
+  /**
+   * The report topic with the statistics of all iterations
+   */
+  public static final String ITERATIONS_TOPIC = "iterations";
+
+  private volatile boolean cancelled = false;
+  private volatile CommandHandle current;
+  private final List<Iteration> iterations = Collections.synchronizedList(new ArrayList<Iteration>());
+
+  /**
+   * The outcome of one depth limit.
+   */
+  public static class Iteration {
+    final int limit;
+    final VerifyCommand run;
+    String result = "cancelled";
+    long[] statistics;
+
+    Iteration(int limit, VerifyCommand run){
+      this.limit = limit;
+      this.run = run;
+    }
+
+    public int getLimit(){
+      return limit;
+    }
+
+    public VerifyCommand getRun(){
+      return run;
+    }
+
+    /**
+     * @return "error", "complete", "limit reached", "partial", "failed" or
+     *         "cancelled"
+     */
+    public String getResult(){
+      return result;
+    }
+
+    /**
+     * @return the statistics of the run, see {@link VerifyCommand#getStatistics()}
+     */
+    public long[] getStatistics(){
+      return statistics;
+    }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Verify with a growing depth limit, to find shallow errors first";
+  }
+
+  @Override
+  public void cancel(){
+    cancelled = true;
+    CommandHandle h = current;
+    if (h != null){
+      h.cancel(true);
+    }
+  }
+
+  /**
+   * @return the iterations of the last execution
+   */
+  public List<Iteration> getIterations(){
+    synchronized (iterations){
+      return new ArrayList<Iteration>(iterations);
+    }
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    iterations.clear();
+
+    ShellManager manager = ShellManager.getManager();
+    Config config = manager.getConfig();
+    int limit = Math.max(1, config.getInt("shell.deepening.start", 10));
+    int factor = Math.max(2, config.getInt("shell.deepening.factor", 2));
+    int max = config.getInt("shell.deepening.max", 0);
+    final boolean gui = manager.getShell() != null;
+    final StatusPanel statusBar = gui ? MultiVerifyCommand.getStatusBar() : null;
+
+    ReportPanel report = null;
+    Iteration last = null;
+    while (!cancelled){
+      Config c = manager.createConfig(null);
+      c.setProperty("search.depth_limit", String.valueOf(limit));
+      final VerifyCommand run = new VerifyCommand("depth " + limit, c);
+      run.setReportTopic(ITERATIONS_TOPIC, getTable(limit));
+      last = new Iteration(limit, run);
+      iterations.add(last);
+
+      if (gui){
+        final ReportPanel previous = report;
+        final ReportPanel[] created = new ReportPanel[1];
+        MultiVerifyCommand.invokeAndWait(new Runnable(){
+          public void run(){
+            if (previous != null){
+              ShellManager.getManager().removeCommandListener(previous);
+            }
+            created[0] = new ReportPanel(run);
+            if (statusBar != null){
+              statusBar.addRun(run);
+            }
+          }
+        });
+        report = created[0];
+      }
+
+      ShellManager.getLogger().log(Level.INFO, "verifying with search.depth_limit=" + limit);
+      CommandHandle h = manager.fireChildCommand(run);
+      current = h;
+      if (cancelled){
+        h.cancel(true);
+      }
+      try {
+        h.get();
+      } catch (CancellationException x){
+        break;
+      } catch (ExecutionException x){
+        ShellManager.getLogger().log(Level.SEVERE, run.getName() + " failed", x.getCause());
+      } catch (InterruptedException x){
+        h.cancel(true);
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        current = null;
+      }
+      if (h.isRejected() || h.isDeclined()){
+        ShellManager.getLogger().log(Level.WARNING, "could not start " + run.getName());
+        break;
+      }
+
+      long[] s = run.getStatistics();
+      last.statistics = s;
+      if (h.isCancelled()){
+        last.result = "cancelled";
+        break;
+      }
+      if (!run.getErrorDescriptions().isEmpty()){
+        last.result = "error";
+      } else if (run.errorOccured() || s == null){
+        last.result = "failed";
+      } else if (run.isPartial()){
+        last.result = "partial";
+      } else if (s[5] < limit){
+        last.result = "complete";
+      } else {
+        last.result = "limit reached";
+        if ((max > 0 && limit >= max) || limit > Integer.MAX_VALUE / factor){
+          break;
+        }
+        limit = (max > 0) ? Math.min(max, limit * factor) : limit * factor;
+        continue;
+      }
+      break;
+    }
+
+    if (last != null){
+      ShellManager.getLogger().log(Level.INFO, NAME + " stopped at depth limit " + last.limit
+              + ": " + last.result + "\n" + getTable(-1));
+    }
+
+    if (gui && report != null){
+      final ReportPanel r = report;
+      final VerifyCommand run = last.run;
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          Shell shell = ShellManager.getManager().getShell().createChildShell();
+          shell.setTitle("JPF Shell - " + NAME + " " + run.getRunName());
+          shell.addShellPanel(r);
+          shell.setVisible(true);
+        }
+      });
+    }
+  }
+
+  /**
+   * @param running the limit of the iteration that is about to run, -1 if
+   *        there is none
+   */
+  private String getTable(int running){
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-12s %-14s %12s %12s %10s %10s%n",
+                            "depth limit", "result", "new states", "end states", "max depth", "time"));
+    synchronized (iterations){
+      for (Iteration it : iterations){
+        long[] s = it.statistics;
+        if (s == null){
+          sb.append(String.format("%-12d %-14s%n", it.limit, it.result));
+        } else {
+          long secs = s[0] / 1000;
+          sb.append(String.format("%-12d %-14s %12d %12d %10d %4d:%02d:%02d%n", it.limit, it.result,
+                                  s[1], s[4], s[5], secs / 3600, (secs / 60) % 60, secs % 60));
+        }
+      }
+    }
+    if (running >= 0){
+      sb.append(String.format("%-12d %-14s%n", running, "this run"));
+    }
+    return sb.toString();
+  }
+}
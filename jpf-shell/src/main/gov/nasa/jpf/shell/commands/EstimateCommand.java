@@ -0,0 +1,292 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.VM;
+import java.util.logging.Level;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Estimates the size of the state space of the current application before
+ * it is verified, so that one can decide whether to enable POR, bound the
+ * depth or move the verification to a bigger machine.<br>
+ *
+ * JPF runs a RandomSearch with randomized choices, which makes
+ * shell.estimate.walks random walks from the initial state down to an end
+ * state (or shell.estimate.depth_limit). Every walk gives Knuth's estimate of
+ * the size of the search tree, 1 + b1 + b1*b2 + ... where bi is the number
+ * of choices at the i-th step of the walk. The mean of these is an unbiased
+ * estimate of the number of states of the tree, the bounds are the 95%
+ * confidence interval of the mean. Since the estimates of single walks vary
+ * a lot, the bounds are wide unless there are many walks.<br>
+ *
+ * The tree counts a state once for every path that leads to it, so for a
+ * search with state matching the estimate is an upper bound. The projected
+ * runtime uses the states/sec of the last Verify of the shell, or those of
+ * the walks if there was none.
+ */
+public class EstimateCommand extends ShellCommand {
+
+  public static final String NAME = "Estimate";
+
+  private volatile JPF jpf;
+  private volatile boolean cancelled = false;
+  private volatile Estimate estimate;
+
+  /**
+   * The estimated size of a state space.
+   */
+  public static class Estimate {
+    final int walks;
+    final double mean;
+    final double low;
+    final double high;
+    final double meanDepth;
+    final double statesPerSecond;
+
+    Estimate(int walks, double mean, double low, double high, double meanDepth, double statesPerSecond){
+      this.walks = walks;
+      this.mean = mean;
+      this.low = low;
+      this.high = high;
+      this.meanDepth = meanDepth;
+      this.statesPerSecond = statesPerSecond;
+    }
+
+    public int getWalks(){ return walks; }
+    public double getStates(){ return mean; }
+    public double getLowerBound(){ return low; }
+    public double getUpperBound(){ return high; }
+    public double getMeanDepth(){ return meanDepth; }
+
+    /**
+     * @return the projected runtime of a full search in seconds, or -1 if
+     *         there is no rate to project with
+     */
+    public double getProjectedSeconds(){
+      return (statesPerSecond > 0) ? mean / statesPerSecond : -1;
+    }
+
+    @Override
+    public String toString(){
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("estimated states:   %.3g (95%% bounds %.3g .. %.3g)%n", mean, low, high));
+      sb.append(String.format("random walks:       %d, mean depth %.1f%n", walks, meanDepth));
+      if (statesPerSecond > 0){
+        sb.append(String.format("projected runtime:  %s (%s .. %s) at %.0f states/sec%n",
+                                duration(mean / statesPerSecond), duration(low / statesPerSecond),
+                                duration(high / statesPerSecond), statesPerSecond));
+      }
+      return sb.toString();
+    }
+
+    private static String duration(double secs){
+      long s = (long) Math.min(secs, Long.MAX_VALUE / 2);
+      if (s >= 86400){
+        return String.format("%dd %02d:%02d:%02d", s / 86400, (s / 3600) % 24, (s / 60) % 60, s % 60);
+      }
+      return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Estimate the number of states and the runtime of a verification with random walks";
+  }
+
+  @Override
+  public void cancel(){
+    cancelled = true;
+    JPF j = jpf;
+    if (j != null){
+      j.getSearch().terminate();
+    }
+  }
+
+  /**
+   * @return the estimate of the last execution, or null if there is none
+   */
+  public Estimate getEstimate(){
+    return estimate;
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    estimate = null;
+
+    ShellManager manager = ShellManager.getManager();
+    Config config = manager.createConfig(null);
+    int walks = Math.max(2, config.getInt("shell.estimate.walks", 1000));
+    config.setProperty("search.class", "gov.nasa.jpf.search.RandomSearch");
+    config.setProperty("search.RandomSearch.path_limit", String.valueOf(walks));
+    config.setProperty("search.multiple_errors", "true"); // errors must not end the walks
+    String seed = config.getString("shell.estimate.seed");
+    if (seed != null){
+      config.setProperty("cg.randomize_choices", "FIXED_SEED");
+      config.setProperty("cg.seed", seed);
+    } else {
+      config.setProperty("cg.randomize_choices", "RANDOM");
+    }
+    int depthLimit = config.getInt("shell.estimate.depth_limit", 0);
+    if (depthLimit > 0){
+      config.setProperty("search.depth_limit", String.valueOf(depthLimit));
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "estimating the state space with " + walks + " random walks");
+    WalkEstimator estimator = new WalkEstimator();
+    try {
+      jpf = new JPF(config);
+      jpf.addListener(estimator);
+      if (!cancelled){
+        jpf.run();
+      }
+    } catch (Exception x){
+      ShellManager.getLogger().log(Level.SEVERE, "the random walks failed", x);
+      return;
+    } finally {
+      jpf = null;
+    }
+
+    if (estimator.walks < 2){
+      ShellManager.getLogger().log(Level.WARNING, "not enough random walks for an estimate");
+      return;
+    }
+    estimate = estimator.getEstimate(getVerifyRate(manager));
+    ShellManager.getLogger().log(Level.INFO, "state space estimate:\n" + estimate);
+    if (manager.getShell() != null){
+      ResultDialog.show(estimate);
+    }
+  }
+
+  /**
+   * @return the states/sec of the last Verify of the shell, or -1
+   */
+  private static double getVerifyRate(ShellManager manager){
+    VerifyCommand verify = manager.getCommand(VerifyCommand.class);
+    long[] s = (verify != null && !verify.isVerifying()) ? verify.getStatistics() : null;
+    if (s == null || s[0] <= 0){
+      return -1;
+    }
+    return (s[1] + s[2]) * 1000.0 / s[0];
+  }
+
+  /**
+   * Computes Knuth's estimate for every random walk of a RandomSearch, which
+   * starts every walk from the initial state again.
+   */
+  static class WalkEstimator extends ListenerAdapter {
+    //the walk that is going on
+    private double product;
+    private double size;
+    private int depth;
+    private boolean walking = false;
+
+    //of all walks so far
+    int walks;
+    private double sum;
+    private double sumOfSquares;
+    private long depths;
+
+    private long transitions;
+    private long start;
+    private long end;
+
+    @Override
+    public void searchStarted(Search search){
+      start = System.currentTimeMillis();
+    }
+
+    @Override
+    public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> cg){
+      if (cg.getPreviousChoiceGenerator() == null){
+        //back at the initial state
+        endWalk();
+        walking = true;
+        product = 1;
+        size = 1;
+        depth = 0;
+      }
+      product *= Math.max(1, cg.getTotalNumberOfChoices());
+    }
+
+    @Override
+    public void stateAdvanced(Search search){
+      if (walking){
+        size += product;
+        depth++;
+      }
+      transitions++;
+    }
+
+    @Override
+    public void searchFinished(Search search){
+      endWalk();
+      end = System.currentTimeMillis();
+    }
+
+    private void endWalk(){
+      if (walking){
+        walks++;
+        sum += size;
+        sumOfSquares += size * size;
+        depths += depth;
+        walking = false;
+      }
+    }
+
+    Estimate getEstimate(double statesPerSecond){
+      double mean = sum / walks;
+      double variance = Math.max(0, (sumOfSquares - walks * mean * mean) / (walks - 1));
+      double halfWidth = 1.96 * Math.sqrt(variance / walks);
+      if (statesPerSecond <= 0 && end > start){
+        statesPerSecond = transitions * 1000.0 / (end - start);
+      }
+      return new Estimate(walks, mean, Math.max(1, mean - halfWidth), mean + halfWidth,
+                          (double) depths / walks, statesPerSecond);
+    }
+  }
+
+  /**
+   * Kept in its own class so that loading the command in a headless run
+   * does not drag in Swing.
+   */
+  private static class ResultDialog {
+    static void show(final Estimate e){
+      SwingUtilities.invokeLater(new Runnable(){
+        public void run(){
+          JOptionPane.showMessageDialog(ShellManager.getManager().getShell(), e.toString(),
+                                        "State space estimate", JOptionPane.INFORMATION_MESSAGE);
+        }
+      });
+    }
+  }
+}
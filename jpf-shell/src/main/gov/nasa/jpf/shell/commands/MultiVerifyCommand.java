@@ -0,0 +1,195 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.basicshell.BasicShell;
+import gov.nasa.jpf.shell.basicshell.StatusPanel;
+import gov.nasa.jpf.shell.panels.ReportPanel;
+import gov.nasa.jpf.shell.panels.VerifyConsolePanel;
+import gov.nasa.jpf.shell.panels.searchgraph.SearchGraphPanel;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import javax.swing.JFileChooser;
+import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+/**
+ * Verifies several application property (.jpf) files side by side. Every
+ * target becomes an independent run: a {@link VerifyCommand} with its own
+ * Config snapshot and JPF instance, whose results are shown in a child shell
+ * of its own (report, console and, if the shell has one, search graph) and
+ * whose status is shown in the StatusPanel.<br>
+ *
+ * The runs are child commands of the multi verify (see
+ * {@link ShellManager#fireChildCommand(ShellCommand)}), so
+ * no more than shell.executor.child_threads of them verify at the same time.
+ * <br>
+ *
+ * The targets are taken from shell.multi_verify.targets, if that is not set
+ * the user is asked to choose them.
+ */
+public class MultiVerifyCommand extends ShellCommand {
+
+  public static final String NAME = "Multi Verify";
+
+  private List<String> targets;
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Verify several applications side by side";
+  }
+
+  @Override
+  public boolean prepare(){
+    targets = new ArrayList<String>();
+
+    Config config = ShellManager.getManager().getConfig();
+    String[] configured = config.getStringArray("shell.multi_verify.targets");
+    if (configured != null){
+      for (String t : configured){
+        targets.add(t);
+      }
+    } else {
+      JFileChooser chooser = new JFileChooser();
+      chooser.setMultiSelectionEnabled(true);
+      chooser.setFileFilter(new FileNameExtensionFilter("JPF application properties", "jpf"));
+      String app = config.getProperty("jpf.app");
+      if (app != null){
+        chooser.setCurrentDirectory(new File(app).getAbsoluteFile().getParentFile());
+      }
+      if (chooser.showOpenDialog(ShellManager.getManager().getShell()) != JFileChooser.APPROVE_OPTION){
+        return false;
+      }
+      for (File f : chooser.getSelectedFiles()){
+        targets.add(f.getPath());
+      }
+    }
+    return !targets.isEmpty();
+  }
+
+  @Override
+  public void execute(){
+    ShellManager manager = ShellManager.getManager();
+    final StatusPanel statusBar = getStatusBar();
+    if (statusBar != null){
+      invokeAndWait(new Runnable(){
+        public void run(){
+          statusBar.removeFinishedRuns();
+        }
+      });
+    }
+
+    for (String target : targets){
+      Config config;
+      try {
+        config = manager.createConfig(target);
+      } catch (JPFConfigException cx){
+        ShellManager.getLogger().log(Level.SEVERE, "failed to load " + target, cx);
+        continue;
+      }
+
+      final VerifyCommand run = new VerifyCommand(getRunName(target), config);
+      final Shell[] runShell = new Shell[1];
+      invokeAndWait(new Runnable(){
+        public void run(){
+          runShell[0] = createRunShell(run);
+          if (statusBar != null){
+            statusBar.addRun(run);
+          }
+        }
+      });
+
+      CommandHandle handle = manager.fireChildCommand(run);
+      if (handle.isRejected() || handle.isDeclined()){
+        ShellManager.getLogger().log(Level.WARNING,
+                "could not start " + run.getName());
+        invokeAndWait(new Runnable(){
+          public void run(){
+            if (runShell[0] != null){
+              runShell[0].dispose();
+            }
+            if (statusBar != null){
+              statusBar.removeRun(run);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Creates and shows the child shell holding the result panels of a run.
+   * Has to be called from the event dispatch thread.
+   */
+  private Shell createRunShell(VerifyCommand run){
+    ShellManager manager = ShellManager.getManager();
+    Shell shell = manager.getShell().createChildShell();
+    shell.setTitle("JPF Shell - " + run.getRunName());
+
+    shell.addShellPanel(new ReportPanel(run));
+    shell.addShellPanel(new VerifyConsolePanel(run));
+    if (manager.findPanel(SearchGraphPanel.class) != null){
+      shell.addShellPanel(new SearchGraphPanel(run));
+    }
+    shell.setVisible(true);
+    return shell;
+  }
+
+  static StatusPanel getStatusBar(){
+    Shell shell = ShellManager.getManager().getShell();
+    if (shell instanceof BasicShell){
+      return ((BasicShell) shell).getStatusBar();
+    }
+    return null;
+  }
+
+  /**
+   * @return the file name of the target without the .jpf extension
+   */
+  static String getRunName(String target){
+    String name = new File(target).getName();
+    if (name.endsWith(".jpf")){
+      name = name.substring(0, name.length() - 4);
+    }
+    return name;
+  }
+
+  static void invokeAndWait(Runnable r){
+    try {
+      SwingUtilities.invokeAndWait(r);
+    } catch (InterruptedException ix){
+      Thread.currentThread().interrupt();
+    } catch (InvocationTargetException ix){
+      ShellManager.getLogger().log(Level.SEVERE, "Error creating run panels", ix.getCause());
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.worker.Checkpoint;
+import gov.nasa.jpf.shell.worker.CheckpointListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.logging.Level;
+
+/**
+ * Continues the search of the last checkpoint in shell.checkpoint.file (see
+ * {@link CheckpointListener}), e.g. after the shell or the worker JVM died
+ * in the middle of a long verification. The search runs as the shell's
+ * {@link VerifyCommand}, so the results show up in the usual panels, and it
+ * keeps writing checkpoints to the same file.
+ */
+public class ResumeCommand extends ShellCommand {
+
+  public static final String NAME = "Resume";
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Continue the search of the last checkpoint";
+  }
+
+  @Override
+  public void execute(){
+    ShellManager manager = ShellManager.getManager();
+    String path = manager.getConfig().getString("shell.checkpoint.file");
+    if (path == null){
+      ShellManager.getLogger().log(Level.WARNING, "shell.checkpoint.file is not set, there is nothing to resume");
+      return;
+    }
+
+    File file = new File(path);
+    Checkpoint last;
+    try {
+      last = Checkpoint.readLast(file);
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot read checkpoint " + file, x);
+      return;
+    }
+    if (last == null){
+      ShellManager.getLogger().log(Level.WARNING, "there is no checkpoint in " + file);
+      return;
+    }
+    if (last.isComplete()){
+      ShellManager.getLogger().log(Level.INFO, "the search of the checkpoint of " + new Date(last.getTime())
+              + " is complete, there is nothing left to explore");
+      return;
+    }
+
+    final VerifyCommand verify = manager.getCommand(VerifyCommand.class);
+    if (verify == null){
+      ShellManager.getLogger().log(Level.WARNING, "there is no Verify command to run");
+      return;
+    }
+
+    long[] s = last.getStatistics();
+    ShellManager.getLogger().log(Level.INFO, "resuming the search of the checkpoint of " + new Date(last.getTime())
+            + ": " + last.getPrefixes().size() + " subtrees left"
+            + ((s.length > 1) ? ", " + s[1] + " new states so far" : ""));
+    verify.resumeOnce(file);
+    CommandHandle h = manager.fireCommand(verify);
+    if (h.isDeclined() || h.isRejected()){
+      ShellManager.getLogger().log(Level.WARNING, "the resumed search was " + (h.isDeclined() ? "declined" : "rejected"));
+    }
+    //a run that never started must not resume the next Verify
+    final File checkpoint = file;
+    h.addCompletionListener(new CommandHandle.CompletionListener(){
+      @Override
+      public void commandCompleted(CommandHandle handle){
+        verify.clearResume(checkpoint);
+      }
+    });
+  }
+}
@@ -0,0 +1,240 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.basicshell.StatusPanel;
+import gov.nasa.jpf.shell.panels.ReportPanel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+/**
+ * Hunts for a property violation with a portfolio of differently configured
+ * searches of the current application. Every variant is an independent
+ * {@link VerifyCommand} run with its own Config snapshot; they differ in
+ * search.class and in the seed of the randomized choice generators. As soon
+ * as one variant finds an error, all others are cancelled (which terminates
+ * their search) and the report of the winner is shown in a child shell.<br>
+ *
+ * Variant 0 keeps the configured search as it is, so the swarm is never worse
+ * than a plain verify of the same application. The other ones use
+ * cg.randomize_choices=FIXED_SEED with cg.seed = shell.swarm.seed + variant,
+ * so the trace of a winner can be reproduced by verifying with its settings,
+ * which are logged when it wins.<br>
+ *
+ * The variants are child commands of the swarm (see
+ * {@link ShellManager#fireChildCommand(ShellCommand)}). Since they only race
+ * each other if they search at the same time, the swarm has at most
+ * shell.executor.child_threads variants.<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.swarm.size - number of variants (default: number of processors,
+ *       at most shell.executor.child_threads)</li>
+ *   <li>shell.swarm.searches - the search classes the variants cycle through</li>
+ *   <li>shell.swarm.seed - the seed of variant 1, the others count up from it
+ *       (default 42)</li>
+ *   <li>shell.swarm.fork - run every variant in a worker JVM (default true)</li>
+ * </ul>
+ */
+public class SwarmVerifyCommand extends ShellCommand {
+
+  public static final String NAME = "Swarm Verify";
+
+  static final String[] DEFAULT_SEARCHES = {
+    "gov.nasa.jpf.search.DFSearch",
+    "gov.nasa.jpf.search.heuristic.BFSHeuristic",
+    "gov.nasa.jpf.search.heuristic.RandomHeuristic"
+  };
+
+  private final List<CommandHandle> handles = Collections.synchronizedList(new ArrayList<CommandHandle>());
+  private volatile VerifyCommand winner;
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Search for errors with several differently configured searches at once";
+  }
+
+  /**
+   * Cancels all variants.
+   */
+  @Override
+  public void cancel(){
+    cancelAll();
+  }
+
+  private void cancelAll(){
+    synchronized (handles){
+      for (CommandHandle h : handles){
+        h.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @return the variant that found an error first in the last swarm, or null
+   */
+  public VerifyCommand getWinner(){
+    return winner;
+  }
+
+  @Override
+  public void execute(){
+    winner = null;
+    handles.clear();
+
+    ShellManager manager = ShellManager.getManager();
+    Config config = manager.getConfig();
+    int size = Math.max(1, config.getInt("shell.swarm.size", Runtime.getRuntime().availableProcessors()));
+    int threads = manager.getExecutor().getChildThreads();
+    if (size > threads){
+      //the variants have to search at the same time to race each other
+      ShellManager.getLogger().log(Level.WARNING, "shell.swarm.size " + size
+              + " is more than shell.executor.child_threads, using " + threads + " variants");
+      size = threads;
+    }
+    String[] searches = config.getStringArray("shell.swarm.searches");
+    if (searches == null || searches.length == 0){
+      searches = DEFAULT_SEARCHES;
+    }
+    int seed = config.getInt("shell.swarm.seed", 42);
+    boolean fork = config.getBoolean("shell.swarm.fork", true);
+    final boolean gui = manager.getShell() != null;
+
+    final List<VerifyCommand> variants = new ArrayList<VerifyCommand>(size);
+    for (int i = 0; i < size; i++){
+      Config c = manager.createConfig(null);
+      String search = c.getString("search.class", DEFAULT_SEARCHES[0]);
+      if (i > 0){
+        search = searches[(i - 1) % searches.length];
+        c.setProperty("search.class", search);
+        c.setProperty("cg.randomize_choices", "FIXED_SEED");
+        c.setProperty("cg.seed", String.valueOf(seed + i - 1));
+      }
+      c.setProperty("search.multiple_errors", "false");
+      if (fork){
+        c.setProperty("shell.verify.fork", "true");
+      }
+      String simpleName = search.substring(search.lastIndexOf('.') + 1);
+      variants.add(new VerifyCommand("swarm-" + i + " (" + simpleName + ")", c));
+    }
+
+    final StatusPanel statusBar = gui ? MultiVerifyCommand.getStatusBar() : null;
+    final List<ReportPanel> reports = new ArrayList<ReportPanel>(size);
+    if (gui){
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          if (statusBar != null){
+            statusBar.removeFinishedRuns();
+          }
+          for (VerifyCommand v : variants){
+            //not shown until we know which one wins, but it has to see the run
+            reports.add(new ReportPanel(v));
+            if (statusBar != null){
+              statusBar.addRun(v);
+            }
+          }
+        }
+      });
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "swarm of " + size + " variants");
+    final CountDownLatch finished = new CountDownLatch(size);
+    for (final VerifyCommand v : variants){
+      CommandHandle handle = manager.fireChildCommand(v);
+      handles.add(handle);
+      if (winner != null){
+        handle.cancel(true); // there is no point in starting it anymore
+      }
+      handle.addCompletionListener(new CommandHandle.CompletionListener(){
+        public void commandCompleted(CommandHandle h){
+          if (h.isRejected() || h.isDeclined()){
+            ShellManager.getLogger().log(Level.WARNING, "could not start " + v.getRunName());
+          } else if (!h.isCancelled() && !v.getErrorDescriptions().isEmpty()){
+            decide(v);
+          }
+          finished.countDown();
+        }
+      });
+    }
+
+    try {
+      finished.await();
+    } catch (InterruptedException ix){
+      cancelAll();
+      Thread.currentThread().interrupt();
+    }
+
+    final VerifyCommand w = winner;
+    if (w != null){
+      Config c = w.getConfig();
+      ShellManager.getLogger().log(Level.INFO, w.getRunName() + " found " + w.getErrorDescriptions().get(0)
+              + " with search.class=" + c.getString("search.class")
+              + ", cg.randomize_choices=" + c.getString("cg.randomize_choices")
+              + ", cg.seed=" + c.getString("cg.seed"));
+    } else {
+      ShellManager.getLogger().log(Level.INFO, "no variant of the swarm found an error");
+    }
+
+    if (gui){
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          for (int i = 0; i < reports.size(); i++){
+            ReportPanel report = reports.get(i);
+            if (variants.get(i) == w){
+              Shell shell = ShellManager.getManager().getShell().createChildShell();
+              shell.setTitle("JPF Shell - " + w.getRunName());
+              shell.addShellPanel(report);
+              shell.setVisible(true);
+            } else {
+              ShellManager.getManager().removeCommandListener(report);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * The first variant with an error wins, all others are cancelled.
+   */
+  private synchronized void decide(VerifyCommand v){
+    if (winner == null){
+      winner = v;
+      synchronized (handles){
+        for (CommandHandle h : handles){
+          if (h.getCommand() != v){
+            h.cancel(true);
+          }
+        }
+      }
+    }
+  }
+}
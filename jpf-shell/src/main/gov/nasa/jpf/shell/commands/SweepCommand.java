@@ -0,0 +1,334 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.basicshell.StatusPanel;
+import gov.nasa.jpf.shell.panels.SweepPanel;
+import gov.nasa.jpf.shell.util.ColumnInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+
+/**
+ * Verifies the current application with every combination of a grid of
+ * property values, to find out which settings verify it fastest. The grid
+ * is given by the shell.sweep.grid.* properties, e.g.
+ * <pre>
+ *   shell.sweep.grid.vm.por = true,false
+ *   shell.sweep.grid.search.class = .search.DFSearch,.search.heuristic.BFSHeuristic
+ * </pre>
+ * sweeps the 4 combinations of vm.por and search.class. Every combination is
+ * an independent {@link VerifyCommand} run, by default in its own worker JVM,
+ * and shell.sweep.threads of them run at the same time, as child commands
+ * (see {@link ShellManager#fireChildCommand(ShellCommand)}).<br>
+ *
+ * When all runs are done, the time, states, memory and errors of every
+ * combination are shown in a {@link SweepPanel}, from which the settings of
+ * a combination can be adopted into the application properties.<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.sweep.grid.<i>property</i> - the values of property to sweep</li>
+ *   <li>shell.sweep.threads - max number of concurrent runs (default: number
+ *       of processors, at most shell.executor.child_threads)</li>
+ *   <li>shell.sweep.max_combinations - the grid is cut off after this many
+ *       combinations (default 64)</li>
+ *   <li>shell.sweep.fork - run every combination in a worker JVM (default
+ *       true)</li>
+ * </ul>
+ */
+public class SweepCommand extends ShellCommand {
+
+  public static final String NAME = "Sweep";
+
+  static final String GRID_PREFIX = "shell.sweep.grid.";
+
+  private volatile boolean cancelled = false;
+  private final List<CommandHandle> handles = Collections.synchronizedList(new ArrayList<CommandHandle>());
+  private final List<Combination> combinations = new ArrayList<Combination>();
+
+  /**
+   * One combination of the grid and the outcome of its run.
+   */
+  public static class Combination {
+    final Map<String, String> settings;
+    VerifyCommand run;
+
+    @ColumnInfo(name="settings")
+    String label;
+
+    @ColumnInfo(name="result")
+    String result = "NOT RUN";
+
+    @ColumnInfo(name="time [s]")
+    Double time;
+
+    @ColumnInfo(name="new states")
+    Long newStates;
+
+    @ColumnInfo(name="visited states")
+    Long visitedStates;
+
+    @ColumnInfo(name="max memory [MB]")
+    Long maxMemory;
+
+    @ColumnInfo(name="errors")
+    Integer errors;
+
+    Combination(Map<String, String> settings){
+      this.settings = settings;
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, String> e : settings.entrySet()){
+        if (sb.length() > 0){
+          sb.append(", ");
+        }
+        sb.append(e.getKey()).append('=').append(e.getValue());
+      }
+      label = sb.toString();
+    }
+
+    /**
+     * @return the property values of this combination
+     */
+    public Map<String, String> getSettings(){
+      return settings;
+    }
+
+    public String getLabel(){ return label; }
+    public String getResult(){ return result; }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Verify with every combination of the shell.sweep.grid settings";
+  }
+
+  /**
+   * Stops starting new runs and cancels the running ones.
+   */
+  @Override
+  public void cancel(){
+    cancelled = true;
+    synchronized (handles){
+      for (CommandHandle h : handles){
+        h.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @return the combinations of the last sweep
+   */
+  public List<Combination> getCombinations(){
+    synchronized (combinations){
+      return new ArrayList<Combination>(combinations);
+    }
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    handles.clear();
+
+    ShellManager manager = ShellManager.getManager();
+    Config config = manager.getConfig();
+    int max = Math.max(1, config.getInt("shell.sweep.max_combinations", 64));
+    List<Map<String, String>> grid = createGrid(config, max);
+    if (grid.isEmpty()){
+      ShellManager.getLogger().log(Level.WARNING, "there is nothing to sweep, set shell.sweep.grid.<property> = value1,value2,..");
+      return;
+    }
+    synchronized (combinations){
+      combinations.clear();
+      for (Map<String, String> settings : grid){
+        combinations.add(new Combination(settings));
+      }
+    }
+
+    boolean fork = config.getBoolean("shell.sweep.fork", true);
+    int parallelism = Math.max(1, config.getInt("shell.sweep.threads", Runtime.getRuntime().availableProcessors()));
+    parallelism = Math.min(parallelism, manager.getExecutor().getChildThreads());
+    final boolean gui = manager.getShell() != null;
+    final StatusPanel statusBar = gui ? MultiVerifyCommand.getStatusBar() : null;
+    if (statusBar != null){
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          statusBar.removeFinishedRuns();
+        }
+      });
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "sweep of " + combinations.size() + " combinations, "
+            + parallelism + " at a time");
+
+    final Semaphore slots = new Semaphore(parallelism);
+    try {
+      for (final Combination comb : combinations){
+        slots.acquire();
+        if (cancelled){
+          slots.release();
+          break;
+        }
+
+        Config c = manager.createConfig(null);
+        for (Map.Entry<String, String> e : comb.settings.entrySet()){
+          c.setProperty(e.getKey(), e.getValue());
+        }
+        if (fork){
+          c.setProperty("shell.verify.fork", "true");
+        }
+        comb.run = new VerifyCommand("sweep " + comb.label, c);
+        if (statusBar != null){
+          MultiVerifyCommand.invokeAndWait(new Runnable(){
+            public void run(){
+              statusBar.addRun(comb.run);
+            }
+          });
+        }
+
+        CommandHandle handle = manager.fireChildCommand(comb.run);
+        handles.add(handle);
+        handle.addCompletionListener(new CommandHandle.CompletionListener(){
+          public void commandCompleted(CommandHandle h){
+            finish(comb, h);
+            slots.release();
+          }
+        });
+      }
+      slots.acquire(parallelism); // wait for the last runs
+    } catch (InterruptedException ix){
+      cancel();
+      Thread.currentThread().interrupt();
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "sweep results:\n" + getTable());
+
+    if (gui){
+      final List<Combination> results = getCombinations();
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          Shell shell = ShellManager.getManager().getShell().createChildShell();
+          shell.setTitle("JPF Shell - " + NAME);
+          shell.addShellPanel(new SweepPanel(results));
+          shell.setVisible(true);
+        }
+      });
+    }
+  }
+
+  /**
+   * @return all combinations of the shell.sweep.grid.* values, but at most max
+   */
+  static List<Map<String, String>> createGrid(Config config, int max){
+    Map<String, String[]> values = new TreeMap<String, String[]>();
+    for (Object k : config.keySet()){
+      String key = k.toString();
+      if (key.startsWith(GRID_PREFIX) && key.length() > GRID_PREFIX.length()){
+        String[] v = config.getStringArray(key);
+        if (v != null && v.length > 0){
+          values.put(key.substring(GRID_PREFIX.length()), v);
+        }
+      }
+    }
+
+    List<Map<String, String>> grid = new ArrayList<Map<String, String>>();
+    if (values.isEmpty()){
+      return grid;
+    }
+    grid.add(new LinkedHashMap<String, String>());
+    for (Map.Entry<String, String[]> e : values.entrySet()){
+      List<Map<String, String>> next = new ArrayList<Map<String, String>>();
+      for (Map<String, String> partial : grid){
+        for (String v : e.getValue()){
+          Map<String, String> m = new LinkedHashMap<String, String>(partial);
+          m.put(e.getKey(), v);
+          next.add(m);
+        }
+      }
+      grid = next;
+    }
+    if (grid.size() > max){
+      ShellManager.getLogger().log(Level.WARNING, "the grid has " + grid.size() + " combinations, only the first "
+              + max + " are verified (see shell.sweep.max_combinations)");
+      grid = new ArrayList<Map<String, String>>(grid.subList(0, max));
+    }
+    return grid;
+  }
+
+  private void finish(Combination comb, CommandHandle h){
+    VerifyCommand run = comb.run;
+    if (h.isRejected() || h.isDeclined()){
+      ShellManager.getLogger().log(Level.WARNING, "could not start " + run.getName());
+      return;
+    }
+    if (h.isCancelled()){
+      comb.result = "CANCELLED";
+      return;
+    }
+
+    long[] s = run.getStatistics();
+    if (s != null){
+      comb.time = s[0] / 1000.0;
+      comb.newStates = s[1];
+      comb.visitedStates = s[2];
+      comb.maxMemory = s[7] >> 20;
+    }
+    int errors = run.getErrorDescriptions().size();
+    comb.errors = errors;
+    if (run.errorOccured()){
+      comb.result = "FAILED";
+    } else if (errors == 0 && run.isPartial()){
+      comb.result = "PARTIAL";
+    } else {
+      comb.result = (errors == 0) ? "OK" : "ERRORS(" + errors + ")";
+    }
+  }
+
+  private String getTable(){
+    int width = 8;
+    for (Combination c : combinations){
+      width = Math.max(width, c.label.length());
+    }
+    String row = "%-" + width + "s  %-12s  %10s  %12s  %10s  %6s%n";
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(row, "settings", "result", "time[s]", "new states", "memory[MB]", "errors"));
+    for (Combination c : combinations){
+      sb.append(String.format(row, c.label, c.result,
+                              (c.time == null) ? "-" : String.format("%.1f", c.time),
+                              (c.newStates == null) ? "-" : c.newStates,
+                              (c.maxMemory == null) ? "-" : c.maxMemory,
+                              (c.errors == null) ? "-" : c.errors));
+    }
+    return sb.toString();
+  }
+}
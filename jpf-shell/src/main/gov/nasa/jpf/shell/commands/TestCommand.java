@@ -23,6 +23,7 @@ import gov.nasa.jpf.Config;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import javax.swing.Icon;
 
@@ -34,15 +35,24 @@ import static gov.nasa.jpf.shell.basicshell.images.JPFShell_Images.*;
  * launches a new process if the SuT is not already running or will kill it if
  * it already is.
  * This command not only allows for listeners to be aware of when the command is
- * executed but also when the application was started or terminated.
+ * executed but also when the application was started or terminated.<br>
+ * If shell.test.pool is set, the application is run by a JVM that was started
+ * ahead of time with its classpath already loaded (see {@link TestJVMPool}),
+ * which saves most of the startup of a cold JVM. shell.test.pool.size JVMs
+ * are kept warm.
  * @see gov.nasa.jpf.shell.listeners.TestCommandListener
  */
 public class TestCommand extends ShellCommand {
 
   public static final String NAME = "Test";
 
-  protected Icon working = getStatusIcon(StatusIcon.Working, "Application is running.");
-  protected Icon test = getCommandIcon(CommandIcon.Test, "Test this application.");
+  //created on first use by getIcon(), so that headless runs never load any
+  //Swing classes
+  protected Icon working;
+  protected Icon test;
+
+  //only set if this command does not test the shell's config
+  private final Config config;
 
   protected String classpath;
   protected String target;
@@ -50,14 +60,26 @@ public class TestCommand extends ShellCommand {
 
   protected Process sut = null;
 
-  //If this is not null, then an application is running and this thread will 
-  //terminate when it does.
-  protected Thread appWatcherThread = null;
+  //If this is not null, then an application is running and this task will 
+  //terminate when it does. It runs in the CommandExecutor's service pool.
+  protected Future<?> appWatcher = null;
 
   //Added to this VM's shutdown hooks when ever the SuT is run, just incase this
   //VM closes, the appKiller will kill the SuT too.
   protected AppKiller appKiller = null;
 
+  public TestCommand(){
+    this(null);
+  }
+
+  /**
+   * Creates a TestCommand that launches the application of the given config
+   * instead of the one of the shell's config.
+   */
+  public TestCommand(Config config){
+    this.config = config;
+  }
+
   @Override
   public String getName(){
     return NAME;
@@ -65,7 +87,25 @@ public class TestCommand extends ShellCommand {
 
   @Override
   public Icon getIcon(){
-    return isApplicationRunning() ? working : test;
+    if (isApplicationRunning()){
+      if (working == null)
+        working = getStatusIcon(StatusIcon.Working, "Application is running.");
+      return working;
+    } else {
+      if (test == null)
+        test = getCommandIcon(CommandIcon.Test, "Test this application.");
+      return test;
+    }
+  }
+
+  /**
+   * @return the Config of the application that is tested, which is the
+   *         shell's config unless another one was given to the constructor
+   */
+  public Config getConfig(){
+    if (config != null)
+      return config;
+    return ShellManager.getManager().getConfig();
   }
 
   @Override
@@ -86,6 +126,14 @@ public class TestCommand extends ShellCommand {
     requestShellUpdate();
   }
 
+  /**
+   * Kills the SuT if it is running.
+   */
+  @Override
+  public void cancel(){
+    killApp();
+  }
+
   /**
    * override this if the TestCommand needs to find classes outside the SUT classpath 
    * note this has to use the platform specific pathSeparator
@@ -112,7 +160,7 @@ public class TestCommand extends ShellCommand {
       return true;
     }
     
-    Config c = ShellManager.getManager().getConfig();
+    Config c = getConfig();
     target = c.getTarget();
     
     classpath = getTestClasspath( c);
@@ -154,6 +202,25 @@ public class TestCommand extends ShellCommand {
     return command.toString();
   }
 
+  /**
+   * Takes a warm JVM from the pool if shell.test.pool is set and there is
+   * one, otherwise executes command.
+   */
+  protected Process startProcess(String command) throws IOException {
+    Config c = getConfig();
+    if (c.getBoolean("shell.test.pool", false)){
+      TestJVMPool pool = TestJVMPool.getInstance();
+      Process p = pool.take(classpath, target, args);
+      pool.refill(classpath, Math.max(1, c.getInt("shell.test.pool.size", 1)),
+                  c.getBoolean("shell.test.pool.preload", true), c.getString("shell.test.pool.classpath"));
+      if (p != null){
+        ShellManager.getLogger().log(Level.FINE, "running " + target + " in a warm JVM");
+        return p;
+      }
+    }
+    return Runtime.getRuntime().exec(command);
+  }
+
   /**
    * Starts SuT in its own process. Adds a Shutdown hook to the VM that will
    * kill the process if the VM exits. Then notifies the
@@ -164,7 +231,7 @@ public class TestCommand extends ShellCommand {
     try {
       appKiller = new AppKiller();
       Runtime.getRuntime().addShutdownHook( appKiller );
-      sut = Runtime.getRuntime().exec(command);
+      sut = startProcess(command);
     } catch (IOException ex) {
       ShellManager.getManager().getLogger().log(Level.SEVERE, "IO Error with command", ex);
     }
@@ -172,7 +239,7 @@ public class TestCommand extends ShellCommand {
 
     //Waits for the sut to terminate, this will happen when the process ends
     //for whatever reason.
-    appWatcherThread = new Thread(){
+    appWatcher = ShellManager.getManager().getExecutor().execute(new Runnable(){
       @Override
       public void run(){
 				try{
@@ -182,8 +249,7 @@ public class TestCommand extends ShellCommand {
 				}
 				terminateApp();
       }
-    };
-    appWatcherThread.start();
+    });
     //Notify the listeners
     List<TestCommandListener> commandListeners = ShellManager.getManager().getCommandListeners(getClass(), TestCommandListener.class);
     for (TestCommandListener listener: commandListeners) {
@@ -208,7 +274,7 @@ public class TestCommand extends ShellCommand {
     }
 
     sut = null;
-    appWatcherThread = null;
+    appWatcher = null;
 
     requestShellUpdate();
     try{
@@ -233,12 +299,13 @@ public class TestCommand extends ShellCommand {
   }
 
   /**
-   * If the application is running, it triggers the appWatcherThread to kill it.
+   * If the application is running, it triggers the appWatcher to kill it.
    */
   private void killApp(){
-    if (appWatcherThread != null)
-      appWatcherThread.interrupt(); //Kills the sut by ending the wait and
-                                   //destructing
+    Future<?> w = appWatcher;
+    if (w != null)
+      w.cancel(true); //Kills the sut by ending the wait and
+                      //destructing
   }
 
   class AppKiller extends Thread{
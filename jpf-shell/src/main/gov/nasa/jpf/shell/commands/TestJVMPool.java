@@ -0,0 +1,246 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.util.WarmLauncher;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * JVMs that are started ahead of time for the {@link TestCommand}, with the
+ * classpath of the application and its classes already loaded (see
+ * {@link WarmLauncher}). A warm JVM runs one application and is gone after
+ * that, every one that is taken is replaced by a new one in the background.
+ * The JVMs are kept by classpath, if the pool is full the ones of other
+ * classpaths go first. There is one pool per shell, its JVMs are destroyed
+ * when the shell exits.<br>
+ *
+ * A warm JVM remembers the newest modification time of the class files and
+ * jars on its classpath when it was started, and is thrown away instead of
+ * taken once the classpath has something newer, so that a Test after a
+ * recompile never runs the classes from before it.
+ */
+final class TestJVMPool {
+
+  private static final TestJVMPool instance = new TestJVMPool();
+
+  private static class Warm {
+    final String classpath;
+    final long modified;
+    final Process process;
+
+    Warm(String classpath, long modified, Process process){
+      this.classpath = classpath;
+      this.modified = modified;
+      this.process = process;
+    }
+  }
+
+  private final LinkedList<Warm> pool = new LinkedList<Warm>();
+  private boolean hooked = false;
+
+  private TestJVMPool(){}
+
+  static TestJVMPool getInstance(){
+    return instance;
+  }
+
+  /**
+   * @return a JVM of classpath that runs main of target with args, or null
+   *         if there is no warm one
+   */
+  Process take(String classpath, String target, String[] args){
+    long modified = getLastModified(classpath);
+    Warm w = null;
+    List<Warm> stale = new ArrayList<Warm>();
+    synchronized (this){
+      for (Iterator<Warm> it = pool.iterator(); it.hasNext(); ){
+        Warm c = it.next();
+        if (!c.process.isAlive()){
+          it.remove();
+        } else if (c.classpath.equals(classpath)){
+          it.remove();
+          if (c.modified < modified){
+            stale.add(c); // started before the last recompile
+          } else {
+            w = c;
+            break;
+          }
+        }
+      }
+    }
+    for (Warm c : stale){
+      c.process.destroy();
+    }
+    if (w == null){
+      return null;
+    }
+
+    try {
+      OutputStream out = w.process.getOutputStream();
+      out.write(WarmLauncher.createRequest(target, args).getBytes("UTF-8"));
+      out.flush();
+      return w.process;
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.WARNING, "warm test JVM is broken, starting a new one", x);
+      w.process.destroy();
+      return null;
+    }
+  }
+
+  /**
+   * Starts JVMs for classpath in the background until there are size of them.
+   * @param launcherPath where the {@link WarmLauncher} is, null to find it
+   *        where this class comes from
+   */
+  void refill(final String classpath, final int size, final boolean preload, final String launcherPath){
+    ShellManager.getManager().getExecutor().execute(new Runnable(){
+      public void run(){
+        List<Warm> evicted = new ArrayList<Warm>();
+        int missing;
+        synchronized (TestJVMPool.this){
+          int have = 0;
+          for (Warm w : pool){
+            if (w.classpath.equals(classpath) && w.process.isAlive()){
+              have++;
+            }
+          }
+          missing = size - have;
+          //make room by dropping the JVMs of other classpaths, oldest first
+          for (Iterator<Warm> it = pool.iterator(); it.hasNext() && pool.size() + missing > size; ){
+            Warm w = it.next();
+            if (!w.classpath.equals(classpath)){
+              it.remove();
+              evicted.add(w);
+            }
+          }
+        }
+        for (Warm w : evicted){
+          w.process.destroy();
+        }
+        for (int i = 0; i < missing; i++){
+          //before the start, so that a change while it loads makes it stale
+          long modified = getLastModified(classpath);
+          Process p = start(classpath, preload, launcherPath);
+          if (p == null){
+            return;
+          }
+          synchronized (TestJVMPool.this){
+            pool.add(new Warm(classpath, modified, p));
+          }
+        }
+      }
+    });
+  }
+
+  private Process start(String classpath, boolean preload, String launcherPath){
+    String launcher = (launcherPath != null) ? launcherPath : getLauncherPath();
+    if (launcher == null){
+      return null;
+    }
+    List<String> cmd = new ArrayList<String>();
+    cmd.add("java");
+    cmd.add("-ea");
+    cmd.add("-cp");
+    //last, so that it can't hide any class of the application
+    cmd.add(classpath + File.pathSeparator + launcher);
+    cmd.add(WarmLauncher.class.getName());
+    if (preload){
+      cmd.add(classpath);
+    }
+    try {
+      Process p = new ProcessBuilder(cmd).start();
+      hookShutdown();
+      return p;
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.WARNING, "cannot start a warm test JVM", x);
+      return null;
+    }
+  }
+
+  /**
+   * @return the newest modification time of the class files and jars on
+   *         classpath
+   */
+  static long getLastModified(String classpath){
+    long modified = 0;
+    for (String entry : classpath.split(File.pathSeparator)){
+      if (entry.length() > 0){
+        modified = Math.max(modified, getLastModified(new File(entry)));
+      }
+    }
+    return modified;
+  }
+
+  private static long getLastModified(File file){
+    File[] files = file.listFiles();
+    if (files == null){
+      return file.lastModified(); // a jar, or gone (0)
+    }
+    //a directory changes when a class is added or removed, not when it is rewritten
+    long modified = file.lastModified();
+    for (File f : files){
+      if (f.isDirectory() || f.getName().endsWith(".class")){
+        modified = Math.max(modified, getLastModified(f));
+      }
+    }
+    return modified;
+  }
+
+  /**
+   * @return the classpath entry the {@link WarmLauncher} was loaded from
+   */
+  static String getLauncherPath(){
+    try {
+      return new File(WarmLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    } catch (Exception x){ // no code source, or not a file
+      ShellManager.getLogger().log(Level.WARNING, "cannot find the jpf-shell classes for the warm test JVMs,"
+              + " set shell.test.pool.classpath", x);
+      return null;
+    }
+  }
+
+  private synchronized void hookShutdown(){
+    if (!hooked){
+      hooked = true;
+      Runtime.getRuntime().addShutdownHook(new Thread(){
+        @Override
+        public void run(){
+          clear();
+        }
+      });
+    }
+  }
+
+  /**
+   * Destroys all warm JVMs.
+   */
+  synchronized void clear(){
+    for (Warm w : pool){
+      w.process.destroy();
+    }
+    pool.clear();
+  }
+}
@@ -0,0 +1,432 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.panels.TestMatrixPanel;
+import gov.nasa.jpf.shell.util.ColumnInfo;
+import gov.nasa.jpf.shell.util.ConsolePanel;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs several targets, each with several argument sets, like the
+ * {@link TestCommand} runs the application: every combination in its own JVM,
+ * up to shell.test.matrix.threads of them at the same time. In the shell
+ * every run gets its own console tab next to a table with the exit codes and
+ * durations of all runs, in headless mode the output of every run goes to
+ * <i>output_dir</i>/<i>run</i>.log and the table to the log.<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.test.matrix.targets - the main classes to run (default: the
+ *       target of the application)</li>
+ *   <li>shell.test.matrix.args.1, shell.test.matrix.args.2, ... - the
+ *       argument sets, separated by blanks, every target is run with each
+ *       of them (default: the target args of the application)</li>
+ *   <li>shell.test.matrix.threads - max number of concurrent runs (default:
+ *       number of processors)</li>
+ *   <li>shell.test.matrix.output_dir - where the logs go in headless mode
+ *       (default jpf-results)</li>
+ * </ul>
+ * All runs use the classpath of the application.
+ */
+public class TestMatrixCommand extends ShellCommand {
+
+  public static final String NAME = "Test Matrix";
+
+  private volatile boolean cancelled = false;
+  private final List<Process> processes = Collections.synchronizedList(new ArrayList<Process>());
+  private volatile List<Run> runs = Collections.emptyList();
+
+  /**
+   * One target with one argument set, and how it went.
+   */
+  public static class Run {
+    final String target;
+    final String[] args;
+    volatile long start;
+
+    @ColumnInfo(name="run")
+    String name;
+
+    //written by the command thread, read by the table in the EDT
+    @ColumnInfo(name="status")
+    volatile String status = "WAITING";
+
+    @ColumnInfo(name="exit code")
+    volatile Integer exitCode;
+
+    @ColumnInfo(name="time [s]")
+    volatile Double time;
+
+    Run(String target, String[] args){
+      this.target = target;
+      this.args = args;
+      StringBuilder sb = new StringBuilder(target.substring(target.lastIndexOf('.') + 1));
+      for (String a : args){
+        sb.append(' ').append(a);
+      }
+      this.name = sb.toString();
+    }
+
+    public String getName(){ return name; }
+    public String getStatus(){ return status; }
+
+    /**
+     * @return the exit code of the JVM, or null if it did not end (yet)
+     */
+    public Integer getExitCode(){ return exitCode; }
+
+    /**
+     * @return the wall time of the run in seconds, or null if it did not end
+     */
+    public Double getTime(){ return time; }
+  }
+
+  @Override
+  public String getName(){
+    return NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return "Run every configured target with every argument set in parallel";
+  }
+
+  @Override
+  public void cancel(){
+    cancelled = true;
+    synchronized (processes){
+      for (Process p : processes){
+        p.destroy();
+      }
+    }
+  }
+
+  /**
+   * @return the runs of the last execution
+   */
+  public List<Run> getRuns(){
+    return runs;
+  }
+
+  @Override
+  public void execute(){
+    cancelled = false;
+    processes.clear();
+
+    ShellManager manager = ShellManager.getManager();
+    TestCommand test = new TestCommand();
+    if (!test.prepare()){
+      return;
+    }
+    Config config = test.getConfig();
+    final List<Run> matrix = createMatrix(config, test.target, test.args);
+    runs = Collections.unmodifiableList(matrix);
+    int threads = Math.max(1, config.getInt("shell.test.matrix.threads",
+                                            Runtime.getRuntime().availableProcessors()));
+    File outputDir = new File(config.getString("shell.test.matrix.output_dir", "jpf-results"));
+
+    Window window = null;
+    if (manager.getShell() != null){
+      window = Window.open(matrix);
+    } else if (!outputDir.isDirectory() && !outputDir.mkdirs()){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot create " + outputDir);
+      return;
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "test matrix of " + matrix.size() + " runs, "
+            + threads + " at a time");
+    LinkedList<Run> waiting = new LinkedList<Run>(matrix);
+    Map<Run, Process> running = new HashMap<Run, Process>();
+    try {
+      while (!waiting.isEmpty() || !running.isEmpty()){
+        while (!waiting.isEmpty() && running.size() < threads && !cancelled){
+          Run r = waiting.removeFirst();
+          Process p = start(r, test.classpath, (window != null) ? null : outputDir);
+          if (p == null){
+            continue;
+          }
+          running.put(r, p);
+          if (window != null){
+            window.started(r, p);
+          }
+        }
+        if (cancelled){
+          waiting.clear();
+        }
+
+        //Process has no way to wait for the first of several to end
+        Thread.sleep(20);
+        for (Iterator<Map.Entry<Run, Process>> it = running.entrySet().iterator(); it.hasNext(); ){
+          Map.Entry<Run, Process> e = it.next();
+          Process p = e.getValue();
+          if (!p.isAlive()){
+            it.remove();
+            processes.remove(p);
+            ended(e.getKey(), p.exitValue());
+            if (window != null){
+              window.ended(e.getKey());
+            }
+          }
+        }
+      }
+    } catch (InterruptedException x){
+      cancel();
+    }
+
+    for (Run r : matrix){
+      if ("WAITING".equals(r.status)){
+        r.status = "CANCELLED";
+      }
+    }
+    if (window != null){
+      window.refresh();
+    }
+    ShellManager.getLogger().log(Level.INFO, "test matrix:\n" + getSummary(matrix));
+  }
+
+  /**
+   * @param logDir where the output of the run goes, null to leave it to the
+   *        console of the run
+   */
+  private Process start(Run r, String classpath, File logDir){
+    List<String> cmd = new ArrayList<String>();
+    cmd.add("java");
+    cmd.add("-ea");
+    cmd.add("-cp");
+    cmd.add(classpath);
+    cmd.add(r.target);
+    Collections.addAll(cmd, r.args);
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    if (logDir != null){
+      pb.redirectErrorStream(true);
+      pb.redirectOutput(new File(logDir, r.name.replaceAll("[^\\w.-]+", "_") + ".log"));
+    }
+    try {
+      r.start = System.currentTimeMillis();
+      Process p = pb.start();
+      processes.add(p);
+      if (logDir != null){
+        p.getOutputStream().close();
+      }
+      r.status = "RUNNING";
+      return p;
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot start " + r.name, x);
+      r.status = "FAILED";
+      return null;
+    }
+  }
+
+  private void ended(Run r, int exitCode){
+    r.time = (System.currentTimeMillis() - r.start) / 1000.0;
+    r.exitCode = exitCode;
+    r.status = cancelled ? "CANCELLED" : (exitCode == 0) ? "PASSED" : "FAILED";
+  }
+
+  /**
+   * @return every target of shell.test.matrix.targets with every argument
+   *         set of shell.test.matrix.args.n
+   */
+  static List<Run> createMatrix(Config config, String target, String[] args){
+    String[] targets = config.getStringArray("shell.test.matrix.targets");
+    if (targets == null || targets.length == 0){
+      targets = new String[] { target };
+    }
+    List<String[]> argSets = new ArrayList<String[]>();
+    for (int i = 1; ; i++){
+      String a = config.getString("shell.test.matrix.args." + i);
+      if (a == null){
+        break;
+      }
+      a = a.trim();
+      argSets.add(a.isEmpty() ? new String[0] : a.split("\\s+"));
+    }
+    if (argSets.isEmpty()){
+      argSets.add((args != null) ? args : new String[0]);
+    }
+
+    List<Run> matrix = new ArrayList<Run>();
+    for (String t : targets){
+      for (String[] a : argSets){
+        matrix.add(new Run(t, a));
+      }
+    }
+    return matrix;
+  }
+
+  static String getSummary(List<Run> matrix){
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-40s %-10s %9s %10s%n", "run", "status", "exit code", "time [s]"));
+    for (Run r : matrix){
+      sb.append(String.format("%-40s %-10s %9s %10s%n", r.name, r.status,
+                              (r.exitCode != null) ? r.exitCode.toString() : "-",
+                              (r.time != null) ? String.format("%.2f", r.time) : "-"));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The child shell with the table and the consoles of the runs. Kept in its
+   * own class so that loading the command in a headless run does not drag
+   * in Swing.
+   */
+  private static class Window {
+    final TestMatrixPanel table;
+    final Map<Run, ConsolePanel> consoles = new HashMap<Run, ConsolePanel>();
+    //counted down when the console read stdout and stderr of a run to the end
+    final Map<Run, CountDownLatch> drained = new ConcurrentHashMap<Run, CountDownLatch>();
+
+    private Window(List<Run> matrix){
+      table = new TestMatrixPanel(matrix);
+      Shell shell = ShellManager.getManager().getShell().createChildShell();
+      shell.setTitle("JPF Shell - " + NAME);
+      shell.addShellPanel(table);
+      for (Run r : matrix){
+        ConsolePanel console = new ConsolePanel(r.name, null, "The output of " + r.name);
+        consoles.put(r, console);
+        shell.addShellPanel(console);
+      }
+      shell.setVisible(true);
+    }
+
+    static Window open(final List<Run> matrix){
+      final Window[] w = new Window[1];
+      MultiVerifyCommand.invokeAndWait(new Runnable(){
+        public void run(){
+          w[0] = new Window(matrix);
+        }
+      });
+      return w[0];
+    }
+
+    void started(final Run r, final Process p){
+      final CountDownLatch eof = new CountDownLatch(2);
+      drained.put(r, eof);
+      SwingUtilities.invokeLater(new Runnable(){
+        public void run(){
+          ConsolePanel console = consoles.get(r);
+          console.hookSystemStreams(new DrainedStream(p.getInputStream(), eof),
+                                    new DrainedStream(p.getErrorStream(), eof), p.getOutputStream());
+          if (!console.isHooked()){
+            //nobody reads the streams, there is nothing to wait for
+            eof.countDown();
+            eof.countDown();
+          }
+          table.refresh();
+        }
+      });
+    }
+
+    /**
+     * Shows the result of r right away, its console is only unhooked once it
+     * got all of the output.
+     */
+    void ended(final Run r){
+      refresh();
+      final CountDownLatch eof = drained.remove(r);
+      ShellManager.getManager().getExecutor().execute(new Runnable(){
+        public void run(){
+          try {
+            eof.await();
+          } catch (InterruptedException x){
+            // unhook it anyway
+          }
+          SwingUtilities.invokeLater(new Runnable(){
+            public void run(){
+              consoles.get(r).unhookSystemStreams();
+            }
+          });
+        }
+      });
+    }
+
+    void refresh(){
+      SwingUtilities.invokeLater(new Runnable(){
+        public void run(){
+          table.refresh();
+        }
+      });
+    }
+  }
+
+  /**
+   * Counts down eof once the stream was read to its end or closed.
+   */
+  private static class DrainedStream extends FilterInputStream {
+    private final CountDownLatch eof;
+    private boolean counted = false;
+
+    DrainedStream(InputStream in, CountDownLatch eof){
+      super(in);
+      this.eof = eof;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b < 0){
+        drained();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n < 0){
+        drained();
+      }
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        drained();
+      }
+    }
+
+    private synchronized void drained(){
+      if (!counted){
+        counted = true;
+        eof.countDown();
+      }
+    }
+  }
+}
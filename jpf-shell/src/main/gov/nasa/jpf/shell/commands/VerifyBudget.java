@@ -0,0 +1,131 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.ShellManager;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Future;
+
+/**
+ * Watches a running {@link VerifyCommand} and stops its search once it used
+ * up one of its budgets. The search is terminated the same way a cancel
+ * does it, so JPF still publishes what it found so far. The budgets are
+ * <ul>
+ *   <li>shell.budget.time - seconds since the search started</li>
+ *   <li>shell.budget.states - new states</li>
+ *   <li>shell.budget.heap_mb - heap used by JPF. For a forked run that is
+ *       the max memory of the worker's statistics, otherwise the heap of the
+ *       shell's JVM, which JPF shares with the shell</li>
+ *   <li>shell.budget.depth - search depth</li>
+ * </ul>
+ * A budget that is not set, or set to 0, is not limited. The budgets are
+ * checked every shell.update_interval ms. A budget belongs to one run of the
+ * command, the run stops it when it ends so that it can't outlive it into
+ * the next run.
+ */
+final class VerifyBudget implements Runnable {
+
+  private final VerifyCommand command;
+  private final long time;
+  private final long states;
+  private final long heap;
+  private final long depth;
+  private final int interval;
+
+  private volatile boolean stopped = false;
+  private Future<?> task;
+
+  private VerifyBudget(VerifyCommand command, Config config){
+    this.command = command;
+    time = config.getLong("shell.budget.time", 0) * 1000;
+    states = config.getLong("shell.budget.states", 0);
+    heap = config.getLong("shell.budget.heap_mb", 0) << 20;
+    depth = config.getLong("shell.budget.depth", 0);
+    interval = Math.max(10, config.getInt("shell.update_interval", 1000));
+  }
+
+  /**
+   * @return the budget of the command, or null if it has none
+   */
+  static VerifyBudget create(VerifyCommand command){
+    VerifyBudget b = new VerifyBudget(command, command.getConfig());
+    if (b.time <= 0 && b.states <= 0 && b.heap <= 0 && b.depth <= 0){
+      return null;
+    }
+    return b;
+  }
+
+  /**
+   * Starts watching the run in a service thread.
+   */
+  synchronized void start(){
+    task = ShellManager.getManager().getExecutor().execute(this);
+  }
+
+  /**
+   * Stops watching, called when the run ends.
+   */
+  synchronized void stop(){
+    stopped = true;
+    if (task != null){
+      task.cancel(true);
+    }
+  }
+
+  public void run(){
+    long start = System.currentTimeMillis();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    try {
+      while (!stopped && command.isVerifying()){
+        Thread.sleep(interval);
+
+        String breach = null;
+        long[] stats = command.getStatistics();
+        if (time > 0 && System.currentTimeMillis() - start > time){
+          breach = "time budget of " + (time / 1000) + "s";
+        } else if (stats != null && states > 0 && stats[1] > states){
+          breach = "state budget of " + states + " new states";
+        } else if (stats != null && depth > 0 && stats[5] > depth){
+          breach = "depth budget of " + depth;
+        } else if (heap > 0 && getHeapUsed(stats, memory) > heap){
+          breach = "heap budget of " + (heap >> 20) + "MB";
+        }
+
+        if (breach != null){
+          synchronized (this){
+            if (!stopped){
+              command.budgetExceeded(breach);
+            }
+          }
+          return;
+        }
+      }
+    } catch (InterruptedException ix){
+      // the run is over
+    }
+  }
+
+  private long getHeapUsed(long[] stats, MemoryMXBean memory){
+    if (command.isForked()){
+      return (stats != null) ? stats[7] : 0;
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
@@ -20,9 +20,26 @@ package gov.nasa.jpf.shell.commands;
 import java.util.logging.Level;
 import gov.nasa.jpf.shell.listeners.VerifyCommandListener;
 import gov.nasa.jpf.shell.*;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.Error;
 import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.report.Reporter;
+import gov.nasa.jpf.report.Statistics;
+import gov.nasa.jpf.shell.panels.TopicPublisher;
+import gov.nasa.jpf.shell.worker.CheckpointListener;
+import gov.nasa.jpf.shell.worker.PartitionedSearch;
+import gov.nasa.jpf.shell.worker.ResultCache;
+import gov.nasa.jpf.shell.worker.VerifyProcess;
 import gov.nasa.jpf.util.LogManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.Icon;
 import javax.swing.JOptionPane;
 
@@ -30,24 +47,110 @@ import static gov.nasa.jpf.shell.basicshell.images.JPFShell_Images.*;
 
 /**
  * The command responsible for starting and running JPF and also for canceling
- * it.
+ * it.<br>
+ * The VerifyCommand that is installed in the shell verifies the shell's
+ * config. Additional, independent runs (see {@link MultiVerifyCommand}) are
+ * VerifyCommands that carry their own name and Config, so that each of them
+ * gets its own JPF instance and can run concurrently with the others.<br>
+ * If shell.verify.fork is set, JPF does not run in the shell's JVM but in a
+ * worker process (see {@link VerifyProcess}) with its own heap, so that a
+ * run that runs out of memory does not take the shell down with it.
+ * If shell.verify.partition is set, the search is split up among several
+ * worker processes (see {@link PartitionedSearch}).<br>
+ * If shell.verify.cache is set, the results of a run are stored in the
+ * {@link ResultCache}, and the next run of the same code and config shows
+ * them instead of running JPF again, unless {@link #ignoreCacheOnce()} was
+ * called.<br>
+ * A run can have budgets (see {@link VerifyBudget}), if it exceeds one of
+ * them its search is terminated and its results are partial.<br>
+ * If shell.checkpoint.file is set, the search writes checkpoints of what it
+ * has left to explore (see {@link CheckpointListener}), and
+ * {@link #resumeOnce(File)} makes the next execution continue from the last
+ * one.
  */
 public class VerifyCommand extends ShellCommand{
 
   public static final String NAME = "Verify";
 
-  private static boolean running = false;
+  /**
+   * The topic that result panels add in front of the others if the results
+   * are partial
+   */
+  public static final String PARTIAL_TOPIC = "partial";
+
+  private volatile boolean running = false;
+  //a cancel that comes before the search started still has to stop it
+  private volatile boolean cancelRequested = false;
+  private volatile boolean ignoreCache = false;
+  private volatile String budgetBreach;
+  private volatile File resumeFile;
 	private boolean error_occured = false;
 
-  private Icon verifyIcon = getCommandIcon(CommandIcon.Verify,"Verify this application.");
-  private Icon workingIcon = getStatusIcon(StatusIcon.Working, "Currently Verifying this application");
+  //only set for independent runs
+  private final String runName;
+  private final Config config;
+
+  //created on first use, so that headless runs never load any Swing classes
+  private Icon verifyIcon;
+  private Icon workingIcon;
 
   private JPF jpf;
+  private VerifyProcess worker;
+  //collects the topics of an in-process run for the result cache
+  private TopicPublisher cachePublisher;
+  //shown in front of JPF's topics, set by whoever created this run
+  private final Map<String, String> reportTopics
+          = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+  public VerifyCommand(){
+    this(null, null);
+  }
+
+  /**
+   * Creates an independent run that verifies the given config.
+   * @param runName the name that is shown for this run, e.g. in the StatusPanel
+   * @param config the Config snapshot that is used for this run only
+   */
+  public VerifyCommand(String runName, Config config){
+    this.runName = runName;
+    this.config = config;
+  }
 
   @Override
   public String getName(){
+    if (runName != null)
+      return NAME + " " + runName;
     return NAME;
   }
+
+  /**
+   * @return the name of this run, or null if this is the shell's VerifyCommand
+   */
+  public String getRunName(){
+    return runName;
+  }
+
+  /**
+   * @return the Config that this command verifies, which is the shell's
+   *         config unless this is an independent run
+   */
+  public Config getConfig(){
+    if (config != null)
+      return config;
+    return ShellManager.getManager().getConfig();
+  }
+
+  /**
+   * Result panels either show the shell's VerifyCommand or are bound to one
+   * independent run.
+   * @param run the run a panel is bound to, or null for the shell's panels
+   * @return true if a panel that is bound to run should display this command
+   */
+  public boolean isShownBy(VerifyCommand run){
+    if (run == null)
+      return runName == null;
+    return run == this;
+  }
   
   @Override
   public String getToolTip(){
@@ -56,18 +159,31 @@ public class VerifyCommand extends ShellCommand{
 
   @Override
   public Icon getIcon(){
-    if (running)
+    if (running){
+      if (workingIcon == null)
+        workingIcon = getStatusIcon(StatusIcon.Working, "Currently Verifying this application");
       return workingIcon;
-    else
+    } else {
+      if (verifyIcon == null)
+        verifyIcon = getCommandIcon(CommandIcon.Verify,"Verify this application.");
       return verifyIcon;
+    }
   }
 
   /**
    * If jpf is running, kills it.
    */
+  @Override
+  public void cancel(){
+    cancelVerify();
+  }
+
   private void cancelVerify(){
+    cancelRequested = true;
     if (running){
-      if (jpf != null)
+      if (worker != null)
+        worker.cancel();
+      else if (jpf != null)
         jpf.getSearch().terminate();
         // TODO (sooth): shouldn't "running" be falsified here?
     }
@@ -76,11 +192,11 @@ public class VerifyCommand extends ShellCommand{
   @Override
   public boolean prepare(){
     if (running){
-      if ( JOptionPane.showConfirmDialog(ShellManager.getManager().getShell(),
-      	  "Are you sure that you want to cancel JPF?") == JOptionPane.YES_OPTION )
+      if ( CancelDialog.confirm() )
         cancelVerify();
       return false;
     }
+    cancelRequested = false;
     return true;
   }
 
@@ -96,16 +212,64 @@ public class VerifyCommand extends ShellCommand{
    * registered with the ShellManager. That is all handled here. This method
    * will get all of the VerifyCommandListeners and execute the afterJPFInit
    * after the jpf init takes place.
+   * For forked runs the listeners get called after the worker was created
+   * but before it is started, see {@link #getWorker()}. Results that come
+   * from the cache look like a forked run that is already done.
    */
   public void execute() {
 		error_occured = false;
-		jpf = new JPF(ShellManager.getManager().getConfig());
+    budgetBreach = null;
+    cachePublisher = null;
+    File resume = takeResume();
+
+    ResultCache cache = null;
+    String cacheKey = null;
+    //a resumed search only has part of the results
+    if (resume == null && ResultCache.isEnabled(getConfig())){
+      cache = new ResultCache(getConfig());
+      cacheKey = cache.computeKey();
+      boolean ignore = ignoreCache;
+      ignoreCache = false;
+      ResultCache.Entry cached = (cacheKey != null && !ignore) ? cache.load(cacheKey) : null;
+      if (cached != null){
+        executeCached(cached);
+        return;
+      }
+    }
+
+    if (getConfig().getBoolean("shell.verify.fork", false)
+        || getConfig().getBoolean("shell.verify.partition", false)){
+      executeForked(resume);
+    } else {
+      executeInProcess(cacheKey != null, resume);
+    }
+
+    if (cacheKey != null && !error_occured && !cancelRequested){
+      storeResults(cache, cacheKey);
+    }
+  }
+
+  private void executeInProcess(boolean collectTopics, File resume){
+    worker = null;
+		jpf = new JPF(getConfig());
+    CheckpointListener checkpoints = CheckpointListener.create(getConfig(),
+            (resume != null) ? resume.getPath() : null);
+    if (checkpoints != null)
+      jpf.addListener(checkpoints);
+    if (collectTopics){
+      Reporter reporter = jpf.getReporter();
+      cachePublisher = new TopicPublisher(getConfig(), reporter);
+      reporter.addPublisher(cachePublisher);
+    }
 
 		List<VerifyCommandListener> listeners = ShellManager.getManager().getCommandListeners(getClass(), VerifyCommandListener.class);
 		for (VerifyCommandListener vcl :listeners) { vcl.afterJPFInit(this); }
 
 		running = true;
 		requestShellUpdate();
+		VerifyBudget budget = startBudget();
+		if (cancelRequested)
+			jpf.getSearch().terminate();
 		try{
 			jpf.run();
 		}catch(Exception ex){
@@ -119,10 +283,184 @@ public class VerifyCommand extends ShellCommand{
 			}
       ShellManager.getManager().getLogger().log(Level.SEVERE, "JPF Error", ex);
 		}
+		if (budget != null)
+			budget.stop();
 		running = false;
 		requestShellUpdate();
   }
 
+  private void executeForked(File resume){
+    jpf = null;
+    //a resumed search is not partitioned, the prefixes of its checkpoint
+    //already say which subtrees it has to explore
+    if (resume == null && getConfig().getBoolean("shell.verify.partition", false)){
+      worker = new PartitionedSearch(getConfig());
+    } else {
+      worker = new VerifyProcess(getConfig());
+      if (resume != null)
+        worker.resumeFrom(resume);
+    }
+
+    List<VerifyCommandListener> listeners = ShellManager.getManager().getCommandListeners(getClass(), VerifyCommandListener.class);
+    for (VerifyCommandListener vcl :listeners) { vcl.afterJPFInit(this); }
+
+    running = true;
+    requestShellUpdate();
+    VerifyBudget budget = startBudget();
+    Exception failure = null;
+    try {
+      worker.start();
+      if (cancelRequested)
+        worker.cancel();
+      worker.run();
+      if (worker.getFailure() != null){
+        failure = new Exception(worker.getFailure());
+      }
+    } catch (IOException ex){
+      failure = ex;
+    } catch (InterruptedException ex){
+      worker.cancel();
+      failure = ex;
+    }
+    if (budget != null)
+      budget.stop();
+
+    if (failure != null){
+      ShellManager.getManager().getLogger().log(Level.SEVERE, "JPF worker Error", failure);
+      error_occured = true;
+      for (VerifyCommandListener listener : listeners) {
+        listener.exceptionDuringVerify(failure);
+      }
+    }
+    running = false;
+    requestShellUpdate();
+  }
+
+  /**
+   * @return the budget watching the run that is starting, or null if it has
+   *         none. The run stops it when it ends.
+   */
+  private VerifyBudget startBudget(){
+    VerifyBudget budget = VerifyBudget.create(this);
+    if (budget != null)
+      budget.start();
+    return budget;
+  }
+
+  /**
+   * Called by the {@link VerifyBudget} of this run, stops the search.
+   */
+  void budgetExceeded(String breach){
+    budgetBreach = breach;
+    ShellManager.getLogger().log(Level.WARNING, getName() + " exceeded its " + breach
+            + ", the results are partial");
+    cancelVerify();
+  }
+
+  /**
+   * @return the budget the last run exceeded, e.g. "time budget of 60s", or
+   *         null if it stayed within its budgets
+   */
+  public String getBudgetBreach(){
+    return budgetBreach;
+  }
+
+  /**
+   * @return true if the search of the last run was stopped because it
+   *         exceeded a budget, so its results only cover part of the state
+   *         space
+   */
+  public boolean isPartial(){
+    return budgetBreach != null;
+  }
+
+  private void executeCached(ResultCache.Entry cached){
+    jpf = null;
+    worker = cached;
+    ShellManager.getLogger().log(Level.INFO, "showing the results of " + cached.getCreated()
+            + " from the cache, the code and config did not change since");
+
+    List<VerifyCommandListener> listeners = ShellManager.getManager().getCommandListeners(getClass(), VerifyCommandListener.class);
+    for (VerifyCommandListener vcl :listeners) { vcl.afterJPFInit(this); }
+  }
+
+  private void storeResults(ResultCache cache, String cacheKey){
+    Map<String, String> topics;
+    String statisticsText;
+    if (worker != null){
+      topics = worker.getTopics();
+      statisticsText = worker.getStatisticsText();
+    } else {
+      topics = cachePublisher.getResults();
+      StringWriter sw = new StringWriter(512);
+      PrintWriter pw = new PrintWriter(sw);
+      cachePublisher.printStatistics(pw);
+      pw.flush();
+      statisticsText = sw.toString();
+    }
+    cache.store(cacheKey, new LinkedHashMap<String, String>(topics), getStatistics(),
+                statisticsText, getErrorDescriptions());
+  }
+
+  /**
+   * Makes the next execution run JPF even if the result cache has the
+   * results of the same code and config, e.g. because the results depend on
+   * something that is not part of the cache key.
+   */
+  public void ignoreCacheOnce(){
+    ignoreCache = true;
+  }
+
+  /**
+   * Makes the next execution only search what the last checkpoint in file
+   * left to explore, its statistics then include those of the searches
+   * before. The result cache is not used for such a run.
+   */
+  public void resumeOnce(File checkpoint){
+    resumeFile = checkpoint;
+  }
+
+  /**
+   * Undoes {@link #resumeOnce(File)} if no execution took checkpoint yet,
+   * e.g. because the handle of the resumed run was declined or cancelled.
+   */
+  public synchronized void clearResume(File checkpoint){
+    if (resumeFile == checkpoint){
+      resumeFile = null;
+    }
+  }
+
+  private synchronized File takeResume(){
+    File f = resumeFile;
+    resumeFile = null;
+    return f;
+  }
+
+  /**
+   * @return true if the results of the last execution came from the
+   *         {@link ResultCache} instead of a JPF run
+   */
+  public boolean isCached(){
+    return worker instanceof ResultCache.Entry;
+  }
+
+  /**
+   * Sets a topic that result panels show in front of JPF's own topics, e.g.
+   * how this run relates to other runs of the same application.
+   */
+  public void setReportTopic(String name, String text){
+    reportTopics.put(name, text);
+  }
+
+  /**
+   * @return the topics set with {@link #setReportTopic(String, String)}
+   */
+  public Map<String, String> getReportTopics(){
+    synchronized (reportTopics){
+      return new LinkedHashMap<String, String>(reportTopics);
+    }
+  }
+
   /**
    * @return true if jpf is running, otherwise false.
    */
@@ -136,13 +474,86 @@ public class VerifyCommand extends ShellCommand{
    *	     Mostly meant to be used by listeners.
    */
   public JPF getJPF(){
+    if (worker != null)
+      throw new IllegalStateException("JPF runs in a worker process, use getWorker()");
     if (jpf == null)
       throw new IllegalStateException("Cannot reference JPF before prepare()");
     return jpf;
   }
 
+  /**
+   * @return true if JPF runs in a worker process, in which case listeners
+   *         have to use {@link #getWorker()} instead of {@link #getJPF()}
+   */
+  public boolean isForked(){
+    return worker != null;
+  }
+
+  /**
+   * @return the worker process of a forked run, otherwise null
+   */
+  public VerifyProcess getWorker(){
+    return worker;
+  }
+
+  /**
+   * @return true once JPF finished its search, no matter where it runs
+   */
+  public boolean isSearchDone(){
+    if (worker != null)
+      return worker.isDone();
+    return jpf != null && jpf.getStatus() == JPF.Status.DONE;
+  }
+
+  /**
+   * @return the current search statistics, no matter where JPF runs: elapsed
+   *         ms, new states, visited states, backtracked, end states, max
+   *         depth, instructions and max memory. null if there are none yet.
+   */
+  public long[] getStatistics(){
+    if (worker != null)
+      return worker.getStatistics();
+    if (jpf == null)
+      return null;
+
+    Reporter reporter = jpf.getReporter();
+    Statistics stat = reporter.getStatistics();
+    if (stat == null)
+      return null;
+    return new long[] { reporter.getElapsedTime(), stat.newStates, stat.visitedStates,
+                        stat.backtracked, stat.endStates, stat.maxDepth,
+                        stat.insns, stat.maxUsed };
+  }
+
+  /**
+   * @return the descriptions of the property violations JPF found
+   */
+  public List<String> getErrorDescriptions(){
+    if (worker != null)
+      return new ArrayList<String>(worker.getErrors());
+
+    List<String> list = new ArrayList<String>();
+    if (jpf != null && jpf.getSearchErrors() != null){
+      for (Error e : jpf.getSearchErrors()){
+        list.add(e.getDescription());
+      }
+    }
+    return list;
+  }
+
 	public boolean errorOccured() {
 		return error_occured;
 	}
 
-}
\ No newline at end of file
+  /**
+   * Kept in its own class so that loading VerifyCommand in a headless run
+   * does not drag in the Shell and with it all of Swing.
+   */
+  private static class CancelDialog {
+    static boolean confirm(){
+      return JOptionPane.showConfirmDialog(ShellManager.getManager().getShell(),
+              "Are you sure that you want to cancel JPF?") == JOptionPane.YES_OPTION;
+    }
+  }
+
+}
@@ -0,0 +1,311 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.commands;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Verifies the loaded application again whenever its classes, sources or
+ * application properties change. Firing the command starts watching, firing
+ * it again stops it.<br>
+ *
+ * The directories of classpath and sourcepath are watched with all of their
+ * subdirectories, jars on the classpath and the jpf.app file by their
+ * directory. Since a build or a save usually touches many files at once, a
+ * new run is only started once there were no further changes for
+ * shell.watch.debounce ms. A verification that is still running then is
+ * cancelled (which terminates its search) and the new one starts as soon as
+ * it is done. If the jpf.app file changed, the application properties are
+ * reloaded first.
+ */
+public class WatchCommand extends ShellCommand {
+
+  public static final String NAME = "Watch";
+
+  private volatile WatchService watcher;
+  private volatile boolean appChanged;
+
+  //what is watched, by directory
+  private final Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+  private final Set<Path> recursiveDirs = new HashSet<Path>();
+  private final Map<Path, Set<String>> watchedFiles = new HashMap<Path, Set<String>>();
+  private Path appFile;
+
+  @Override
+  public String getName(){
+    return isWatching() ? "Stop Watching" : NAME;
+  }
+
+  @Override
+  public String getToolTip(){
+    return isWatching() ? "Stop verifying on changes"
+                        : "Verify again whenever the classes, sources or application properties change";
+  }
+
+  public boolean isWatching(){
+    return watcher != null;
+  }
+
+  @Override
+  public void execute(){
+    if (isWatching()){
+      stop();
+    } else {
+      start();
+    }
+    requestShellUpdate();
+  }
+
+  private synchronized void start(){
+    try {
+      watchConfig(ShellManager.getManager().getConfig());
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot watch the application", x);
+      closeWatcher();
+      return;
+    }
+
+    final WatchService w = watcher;
+    ShellManager.getManager().getExecutor().execute(new Runnable(){
+      public void run(){
+        watch(w);
+      }
+    });
+    ShellManager.getLogger().log(Level.INFO, "watching " + dirs.size() + " directories for changes");
+  }
+
+  private synchronized void stop(){
+    closeWatcher();
+    ShellManager.getLogger().log(Level.INFO, "stopped watching");
+  }
+
+  private void closeWatcher(){
+    WatchService w = watcher;
+    watcher = null;
+    dirs.clear();
+    recursiveDirs.clear();
+    watchedFiles.clear();
+    if (w != null){
+      try {
+        w.close();
+      } catch (IOException x){
+        // we don't care
+      }
+    }
+  }
+
+  private void watchConfig(Config config) throws IOException {
+    watcher = FileSystems.getDefault().newWatchService();
+
+    String[] classpath = config.getStringArray("classpath");
+    String[] sourcepath = config.getStringArray("sourcepath");
+    for (String[] path : new String[][] { classpath, sourcepath }){
+      if (path != null){
+        for (String p : path){
+          File f = new File(p);
+          if (f.isDirectory()){
+            watchTree(f.toPath().toAbsolutePath());
+          } else if (f.isFile()){
+            watchFile(f.toPath().toAbsolutePath());
+          }
+        }
+      }
+    }
+
+    String app = config.getProperty("jpf.app");
+    appFile = null;
+    if (app != null && new File(app).isFile()){
+      appFile = new File(app).toPath().toAbsolutePath();
+      watchFile(appFile);
+    }
+  }
+
+  private void watchTree(Path dir) throws IOException {
+    if (recursiveDirs.add(dir)){
+      register(dir);
+      File[] files = dir.toFile().listFiles();
+      if (files != null){
+        for (File f : files){
+          if (f.isDirectory() && !f.getName().startsWith(".")){
+            watchTree(f.toPath());
+          }
+        }
+      }
+    }
+  }
+
+  private void watchFile(Path file) throws IOException {
+    Path dir = file.getParent();
+    Set<String> names = watchedFiles.get(dir);
+    if (names == null){
+      names = new HashSet<String>();
+      watchedFiles.put(dir, names);
+      register(dir);
+    }
+    names.add(file.getFileName().toString());
+  }
+
+  private void register(Path dir) throws IOException {
+    WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    dirs.put(key, dir);
+  }
+
+  private void watch(WatchService w){
+    long debounce = ShellManager.getManager().getConfig().getInt("shell.watch.debounce", 500);
+    try {
+      while (true){
+        //wait for the first change, then until things calm down
+        boolean changed = handle(w.take());
+        WatchKey key;
+        while ((key = w.poll(debounce, TimeUnit.MILLISECONDS)) != null){
+          changed |= handle(key);
+        }
+        if (changed && watcher == w){
+          restart();
+        }
+      }
+    } catch (ClosedWatchServiceException x){
+      // stopped
+    } catch (InterruptedException x){
+      // stopped
+    }
+  }
+
+  /**
+   * @return true if the events of key are a reason to verify again
+   */
+  private synchronized boolean handle(WatchKey key){
+    Path dir = dirs.get(key);
+    boolean changed = false;
+    for (WatchEvent<?> e : key.pollEvents()){
+      if (dir == null || e.kind() == StandardWatchEventKinds.OVERFLOW){
+        changed = true;
+        continue;
+      }
+      Path name = (Path) e.context();
+      Path file = dir.resolve(name);
+      if (recursiveDirs.contains(dir)){
+        if (e.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.toFile().isDirectory()){
+          try {
+            watchTree(file);
+          } catch (IOException x){
+            ShellManager.getLogger().log(Level.WARNING, "cannot watch " + file, x);
+          }
+        }
+        changed |= !isScratchFile(name.toString());
+      }
+      Set<String> names = watchedFiles.get(dir);
+      if (names != null && names.contains(name.toString())){
+        changed = true;
+        if (file.equals(appFile)){
+          appChanged = true;
+        }
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  /**
+   * Editors write backup and swap files next to the ones that are edited
+   */
+  private static boolean isScratchFile(String name){
+    return name.startsWith(".") || name.endsWith("~") || name.endsWith(".swp") || name.endsWith(".tmp");
+  }
+
+  private void restart(){
+    ShellManager manager = ShellManager.getManager();
+    VerifyCommand verify = manager.getCommand(VerifyCommand.class);
+    if (verify == null){
+      ShellManager.getLogger().log(Level.WARNING, "there is no Verify command to run");
+      return;
+    }
+
+    //a cancelled handle is only done once its run has wound down
+    List<CommandHandle> running = new ArrayList<CommandHandle>();
+    for (CommandHandle h : manager.getExecutor().getPendingHandles()){
+      if (h.getCommand() == verify){
+        h.cancel(true);
+        running.add(h);
+      }
+    }
+    for (CommandHandle h : running){
+      try {
+        h.get();
+      } catch (CancellationException x){
+        // it never started
+      } catch (ExecutionException x){
+        // the run reported it already
+      } catch (InterruptedException x){
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+
+    if (appChanged){
+      appChanged = false;
+      manager.reloadAppProperties(appFile.toString());
+      synchronized (this){
+        //the reloaded properties might have a different classpath
+        if (isWatching()){
+          closeWatcher();
+          try {
+            watchConfig(manager.getConfig());
+          } catch (IOException x){
+            ShellManager.getLogger().log(Level.SEVERE, "cannot watch the application", x);
+            closeWatcher();
+            requestShellUpdate();
+            return;
+          }
+          final WatchService w = watcher;
+          manager.getExecutor().execute(new Runnable(){
+            public void run(){
+              watch(w);
+            }
+          });
+        }
+      }
+    }
+
+    ShellManager.getLogger().log(Level.INFO, "the application changed, verifying again");
+    manager.fireCommand(verify);
+  }
+}
@@ -0,0 +1,307 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.headless;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.shell.CommandHandle;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.commands.BatchVerifyCommand;
+import gov.nasa.jpf.shell.commands.TestCommand;
+import gov.nasa.jpf.shell.commands.VerifyCommand;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+
+/**
+ * A JPFShell without any UI, meant for batch runs (e.g. on a CI server). It
+ * creates a headless {@link ShellManager} and runs the {@link VerifyCommand}
+ * and/or {@link TestCommand} for one or many application property files,
+ * one after the other. Instead of panels, {@link VerifyResultWriter} and
+ * {@link TestResultWriter} write the results of each target into
+ * <i>output_dir/name</i>, where name is the .jpf file name without
+ * extension. No AWT or Swing class is loaded on the way.<br>
+ *
+ * Start it either through JPF with <code>+shell=gov.nasa.jpf.shell.headless.HeadlessShell</code>
+ * or directly with <code>java gov.nasa.jpf.shell.headless.HeadlessShell [+key=value..] app.jpf..</code>
+ * <br>
+ * Directories given as arguments are verified as a batch, several targets at
+ * a time (see {@link BatchVerifyCommand}).<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.headless.targets - .jpf files to run if none are given as
+ *       arguments. If neither is set, the application of the config is run</li>
+ *   <li>shell.headless.output_dir - where the results go (default jpf-results)</li>
+ *   <li>shell.headless.verify - run the VerifyCommand (default true)</li>
+ *   <li>shell.headless.test - run the TestCommand (default false)</li>
+ *   <li>shell.headless.test_timeout - seconds after which the tested
+ *       application is killed (default 0, no timeout)</li>
+ *   <li>shell.headless.searchgraph - capture the search graph (default false)</li>
+ * </ul>
+ *
+ * The JVM exits with 1 if any verification found errors or failed, or if any
+ * tested application exited with a non zero value, otherwise with 0.
+ */
+public class HeadlessShell implements JPFShell {
+
+  private final Config config;
+
+  public HeadlessShell(Config config){
+    System.setProperty("java.awt.headless", "true");
+    this.config = config;
+    ShellManager.createHeadlessShellManager(config);
+  }
+
+  public void start(String[] args){
+    int failures = 0;
+    try {
+      failures = run(args);
+    } finally {
+      ShellManager.destroy();
+    }
+    System.exit(failures > 0 ? 1 : 0);
+  }
+
+  /**
+   * Runs all targets one after the other.
+   * @return the number of targets that failed
+   */
+  public int run(String[] args){
+    ShellManager manager = ShellManager.getManager();
+
+    //the targets are passed on one by one, the rest of the args is shared
+    List<String> targets = new ArrayList<String>();
+    List<File> batchDirs = new ArrayList<File>();
+    List<String> baseArgs = new ArrayList<String>();
+    if (args != null){
+      for (String a : args){
+        if (a.endsWith(".jpf")){
+          targets.add(a);
+        } else if (!a.startsWith("+") && new File(a).isDirectory()){
+          batchDirs.add(new File(a));
+        } else {
+          baseArgs.add(a);
+        }
+      }
+    }
+    manager.setStartingArgs(baseArgs.toArray(new String[baseArgs.size()]));
+
+    if (targets.isEmpty() && batchDirs.isEmpty()){
+      String[] configured = config.getStringArray("shell.headless.targets");
+      if (configured != null){
+        for (String t : configured){
+          targets.add(t);
+        }
+      } else {
+        targets.add(null); // the application of the config
+      }
+    }
+
+    File outputDir = new File(config.getString("shell.headless.output_dir", "jpf-results"));
+    boolean verify = config.getBoolean("shell.headless.verify", true);
+    boolean test = config.getBoolean("shell.headless.test", false);
+    boolean graph = config.getBoolean("shell.headless.searchgraph", false);
+    long testTimeout = config.getInt("shell.headless.test_timeout", 0);
+
+    List<String> summary = new ArrayList<String>();
+    Set<String> names = new HashSet<String>();
+    int failures = 0;
+
+    for (String target : targets){
+      Config c;
+      try {
+        c = (target != null) ? manager.createConfig(target) : config;
+      } catch (JPFConfigException cx){
+        ShellManager.getLogger().log(Level.SEVERE, "failed to load " + target, cx);
+        summary.add(target + ": CONFIG ERROR");
+        failures++;
+        continue;
+      }
+
+      String name = getRunName(target, c);
+      for (int i = 2; !names.add(name); i++){
+        name = getRunName(target, c) + "-" + i;
+      }
+      File dir = new File(outputDir, name);
+      dir.mkdirs();
+
+      StringBuilder line = new StringBuilder(name).append(':');
+      boolean failed = false;
+
+      if (verify){
+        String result = runVerify(new VerifyCommand(name, c), dir, graph);
+        failed |= !"OK".equals(result);
+        line.append(" verify ").append(result);
+      }
+      if (test){
+        int exit = runTest(new TestCommand(c), dir, testTimeout);
+        failed |= (exit != 0);
+        line.append(" test exit=").append(exit);
+      }
+
+      if (failed){
+        failures++;
+      }
+      summary.add(line.toString());
+      System.out.println(line);
+    }
+
+    for (File dir : batchDirs){
+      failures += runBatch(dir, summary);
+    }
+
+    writeSummary(new File(outputDir, "summary.txt"), summary);
+    return failures;
+  }
+
+  /**
+   * Verifies all .jpf files below dir in parallel, see {@link BatchVerifyCommand}.
+   * @return the number of targets that failed
+   */
+  private int runBatch(File dir, List<String> summary){
+    BatchVerifyCommand batch = new BatchVerifyCommand(dir);
+    try {
+      ShellManager.getManager().fireCommand(batch).get();
+    } catch (InterruptedException ix){
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "batch failed", ex.getCause());
+    } catch (CancellationException cx){
+      summary.add(dir + ": NOT A DIRECTORY");
+      return 1;
+    }
+
+    int failures = 0;
+    for (BatchVerifyCommand.Job job : batch.getJobs()){
+      String line = job.getTarget().getPath() + ": verify " + job.getResult();
+      summary.add(line);
+      System.out.println(line);
+      if (!job.isOk()){
+        failures++;
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * @return OK, ERRORS(n), PARTIAL or FAILED
+   */
+  private String runVerify(VerifyCommand run, File dir, boolean graph){
+    ShellManager manager = ShellManager.getManager();
+    VerifyResultWriter writer = new VerifyResultWriter(run, dir, graph);
+    manager.addCommandListener(VerifyCommand.class, writer);
+    try {
+      CommandHandle handle = manager.fireCommand(run);
+      handle.get();
+    } catch (InterruptedException ix){
+      Thread.currentThread().interrupt();
+      return "FAILED";
+    } catch (ExecutionException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "verification failed", ex.getCause());
+      return "FAILED";
+    } catch (CancellationException cx){
+      return "FAILED";
+    } finally {
+      manager.removeCommandListener(writer);
+    }
+
+    if (run.errorOccured() || !writer.isFinished()){
+      return "FAILED";
+    }
+    int errors = writer.getErrorCount();
+    if (errors == 0 && run.isPartial()){
+      return "PARTIAL";
+    }
+    return (errors == 0) ? "OK" : "ERRORS(" + errors + ")";
+  }
+
+  /**
+   * @return the exit value of the application, -1 if it did not run
+   */
+  private int runTest(TestCommand run, File dir, long timeout){
+    ShellManager manager = ShellManager.getManager();
+    TestResultWriter writer = new TestResultWriter(run, dir);
+    manager.addCommandListener(TestCommand.class, writer);
+    try {
+      CommandHandle handle = manager.fireCommand(run);
+      handle.get();
+      writer.awaitEnd(timeout);
+      return writer.getExitValue();
+    } catch (InterruptedException ix){
+      Thread.currentThread().interrupt();
+      return -1;
+    } catch (ExecutionException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "test failed", ex.getCause());
+      return -1;
+    } catch (CancellationException cx){
+      return -1; // declined, TestCommand logged why
+    } finally {
+      manager.removeCommandListener(writer);
+    }
+  }
+
+  private static String getRunName(String target, Config c){
+    String name = target;
+    if (name == null){
+      name = c.getProperty("jpf.app");
+    }
+    if (name == null){
+      name = c.getTarget();
+    }
+    if (name == null){
+      return "jpf";
+    }
+    name = new File(name).getName();
+    if (name.endsWith(".jpf")){
+      name = name.substring(0, name.length() - 4);
+    }
+    return name;
+  }
+
+  private static void writeSummary(File file, List<String> summary){
+    file.getParentFile().mkdirs();
+    try {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+        for (String line : summary){
+          out.println(line);
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot write " + file, ex);
+    }
+  }
+
+  public static void main(String[] args){
+    Config config = JPF.createConfig(args);
+    new HeadlessShell(config).start(args);
+  }
+}
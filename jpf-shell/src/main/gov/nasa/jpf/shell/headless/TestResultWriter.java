@@ -0,0 +1,145 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.headless;
+
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.commands.TestCommand;
+import gov.nasa.jpf.shell.listeners.TestCommandListener;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * The headless counterpart of the TestConsolePanel. Copies the output of the
+ * application started by one TestCommand into test-out.txt and test-err.txt
+ * of the run's output directory and records its exit value.
+ */
+public class TestResultWriter implements TestCommandListener {
+
+  private final TestCommand run;
+  private final File dir;
+
+  private final CountDownLatch ended = new CountDownLatch(1);
+  private final List<Future<?>> copiers = new ArrayList<Future<?>>();
+  private volatile int exitValue = -1;
+
+  public TestResultWriter(TestCommand run, File dir){
+    this.run = run;
+    this.dir = dir;
+  }
+
+  public void preCommand(ShellCommand command) {}
+  public void postCommand(ShellCommand command) {}
+
+  public void applicationStarted(TestCommand command) {
+    if (command != run)
+      return;
+
+    Process p = command.getApplication();
+    if (p == null){ // could not be started, TestCommand logged why
+      ended.countDown();
+      return;
+    }
+
+    try {
+      p.getOutputStream().close(); // there is nobody to type into STDIN
+    } catch (IOException ex){
+      // we don't care
+    }
+    copiers.add(copy(p.getInputStream(), new File(dir, "test-out.txt")));
+    copiers.add(copy(p.getErrorStream(), new File(dir, "test-err.txt")));
+  }
+
+  public void applicationEnded(TestCommand command) {
+    if (command != run)
+      return;
+
+    Process p = command.getApplication();
+    if (p != null){
+      try {
+        exitValue = p.exitValue();
+      } catch (IllegalThreadStateException x){
+        // destroyed but not gone yet, keep -1
+      }
+    }
+    ended.countDown();
+  }
+
+  /**
+   * Waits until the application ended and its output was written. If it
+   * does not end within the timeout it is killed.
+   * @param timeout in seconds, or 0 to wait forever
+   */
+  public void awaitEnd(long timeout) throws InterruptedException {
+    if (timeout > 0){
+      if (!ended.await(timeout, TimeUnit.SECONDS)){
+        ShellManager.getLogger().log(Level.WARNING, "application did not end within "
+                + timeout + "s, killing it");
+        run.cancel();
+      }
+    }
+    ended.await();
+
+    for (Future<?> f : copiers){
+      try {
+        f.get();
+      } catch (Exception x){
+        // already logged by the copier
+      }
+    }
+  }
+
+  /**
+   * @return the exit value of the application, -1 if it could not be
+   *         started or was killed
+   */
+  public int getExitValue(){
+    return exitValue;
+  }
+
+  private Future<?> copy(final InputStream in, final File file){
+    return ShellManager.getManager().getExecutor().execute(new Runnable(){
+      public void run(){
+        byte[] buf = new byte[8192];
+        try {
+          OutputStream out = new FileOutputStream(file);
+          try {
+            int n;
+            while ((n = in.read(buf)) >= 0){
+              out.write(buf, 0, n);
+            }
+          } finally {
+            out.close();
+            in.close();
+          }
+        } catch (IOException ex){
+          ShellManager.getLogger().log(Level.SEVERE, "cannot write " + file, ex);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,257 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.headless;
+
+import edu.uci.ics.jung.graph.Graph;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.report.Reporter;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.commands.VerifyCommand;
+import gov.nasa.jpf.shell.listeners.VerifyCommandListener;
+import gov.nasa.jpf.shell.panels.TopicPublisher;
+import gov.nasa.jpf.shell.panels.searchgraph.EdgeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.NodeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.SearchGraphTracker;
+import gov.nasa.jpf.shell.worker.VerifyProcess;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * The headless counterpart of the ReportPanel, the statistics display and the
+ * SearchGraphPanel. It attaches the same listeners to the JPF instance of one
+ * run (or gets the same from the worker of a forked run) and writes what they
+ * collected into the run's output directory:
+ * <ul>
+ *   <li>report.txt - all topics of the {@link TopicPublisher}</li>
+ *   <li>statistics.csv - the search statistics, sampled every
+ *       shell.update_interval milliseconds and once more at the end</li>
+ *   <li>searchgraph.dot - the search graph in Graphviz format, only if
+ *       graph capturing is turned on</li>
+ * </ul>
+ */
+public class VerifyResultWriter implements VerifyCommandListener {
+
+  private final VerifyCommand run;
+  private final File dir;
+  private final boolean captureGraph;
+
+  private TopicPublisher topicPublisher;
+  private SearchGraphTracker tracker;
+  private StatisticsSampler sampler;
+  private Future<?> samplerTask;
+
+  private int errorCount = 0;
+  private boolean finished = false;
+
+  public VerifyResultWriter(VerifyCommand run, File dir, boolean captureGraph){
+    this.run = run;
+    this.dir = dir;
+    this.captureGraph = captureGraph;
+  }
+
+  public void preCommand(VerifyCommand command) {}
+
+  public void afterJPFInit(VerifyCommand command) {
+    if (command != run)
+      return;
+
+    Config config = command.getConfig();
+
+    if (command.isForked()){
+      //the worker captures the same, we get it when it is done
+      if (captureGraph){
+        command.getWorker().captureSearchGraph();
+      }
+    } else {
+      JPF jpf = command.getJPF();
+      Reporter reporter = jpf.getReporter();
+      topicPublisher = new TopicPublisher(config, reporter);
+      reporter.addPublisher(topicPublisher);
+
+      if (captureGraph){
+        tracker = new SearchGraphTracker(config);
+        jpf.addSearchListener(tracker);
+        jpf.addVMListener(tracker);
+      }
+    }
+
+    try {
+      sampler = new StatisticsSampler(command, new File(dir, "statistics.csv"),
+                                      config.getInt("shell.update_interval", 1000));
+      samplerTask = ShellManager.getManager().getExecutor().execute(sampler);
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot write statistics of " + run.getName(), ex);
+    }
+  }
+
+  public void postCommand(VerifyCommand command) {
+    if (command != run)
+      return;
+
+    if (samplerTask != null){
+      samplerTask.cancel(true);
+      sampler.close();
+    }
+
+    errorCount = command.getErrorDescriptions().size();
+
+    if (command.isForked()){
+      VerifyProcess worker = command.getWorker();
+      writeReport(new File(dir, "report.txt"), worker.getTopics());
+      if (worker.getSearchGraph() != null){
+        writeSearchGraph(new File(dir, "searchgraph.dot"), worker.getSearchGraph());
+      }
+    } else {
+      if (topicPublisher != null){
+        writeReport(new File(dir, "report.txt"), topicPublisher.getResults());
+      }
+      if (tracker != null){
+        tracker.stop();
+        writeSearchGraph(new File(dir, "searchgraph.dot"), tracker.getGraph());
+        tracker.dispose();
+      }
+    }
+    finished = true;
+  }
+
+  public void exceptionDuringVerify(Exception ex) {
+    //VerifyCommand already logged it, and errorOccured() tells us if it was ours
+  }
+
+  /**
+   * @return true if the run finished, whether it found errors or not
+   */
+  public boolean isFinished(){
+    return finished;
+  }
+
+  /**
+   * @return the number of property violations JPF found
+   */
+  public int getErrorCount(){
+    return errorCount;
+  }
+
+  private void writeReport(File file, Map<String, String> topics){
+    try {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+        if (run.isPartial()){
+          out.println("PARTIAL RESULTS: the search exceeded its " + run.getBudgetBreach());
+          out.println();
+        }
+        for (String topic : run.getReportTopics().values()){
+          out.println(topic);
+        }
+        for (String topic : topics.values()){
+          out.println(topic);
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot write " + file, ex);
+    }
+  }
+
+  private void writeSearchGraph(File file, Graph<NodeInfo, EdgeInfo> graph){
+    Map<NodeInfo, Integer> ids = new HashMap<NodeInfo, Integer>();
+
+    try {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+        out.println("digraph \"" + escape(run.getRunName()) + "\" {");
+        for (NodeInfo n : graph.getVertices()){
+          int id = ids.size();
+          ids.put(n, id);
+          out.println("  n" + id + " [label=\"" + escape(n.getNodeText()) + "\"];");
+        }
+        for (EdgeInfo e : graph.getEdges()){
+          out.println("  n" + ids.get(graph.getSource(e)) + " -> n" + ids.get(graph.getDest(e))
+                  + " [label=\"" + escape(e.getEdgeText()) + "\"];");
+        }
+        out.println("}");
+      } finally {
+        out.close();
+      }
+    } catch (IOException ex){
+      ShellManager.getLogger().log(Level.SEVERE, "cannot write " + file, ex);
+    }
+  }
+
+  private static String escape(String s){
+    if (s == null)
+      return "";
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Appends a line of statistics to a CSV file every interval milliseconds
+   * until it is cancelled, and a final one when it is closed.
+   */
+  static class StatisticsSampler implements Runnable {
+    private final VerifyCommand command;
+    private final int interval;
+    private final PrintWriter out;
+
+    StatisticsSampler(VerifyCommand command, File file, int interval) throws IOException {
+      this.command = command;
+      this.interval = interval;
+      out = new PrintWriter(new FileWriter(file));
+      out.println("elapsed_ms,new_states,visited_states,backtracked,end_states,max_depth,instructions,max_memory");
+    }
+
+    public void run(){
+      while (!command.isSearchDone()){
+        try {
+          Thread.sleep(interval);
+        } catch (InterruptedException ix){
+          return;
+        }
+        sample();
+      }
+    }
+
+    synchronized void sample(){
+      long[] values = command.getStatistics();
+      if (values != null){
+        StringBuilder sb = new StringBuilder();
+        for (long v : values){
+          if (sb.length() > 0){
+            sb.append(',');
+          }
+          sb.append(v);
+        }
+        out.println(sb);
+        out.flush();
+      }
+    }
+
+    synchronized void close(){
+      sample();
+      out.close();
+    }
+  }
+}
@@ -34,7 +34,9 @@ public interface VerifyCommandListener extends
 
   /**
    * Called after the JPF instance is created but, before it is run. This is
-   * when publishers and listeners can be added to JPF.
+   * when publishers and listeners can be added to JPF. If the command is
+   * forked there is no JPF instance in the shell, the results have to be
+   * taken from {@link VerifyCommand#getWorker()} instead.
    * @param jpf
    */
   public void afterJPFInit(VerifyCommand command);
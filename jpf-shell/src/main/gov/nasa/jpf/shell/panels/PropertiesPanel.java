@@ -22,6 +22,9 @@ import gov.nasa.jpf.shell.util.EditorPanel;
 import gov.nasa.jpf.shell.ShellManager;
 
 import java.io.File;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.swing.Icon;
 import javax.swing.JLabel;
@@ -83,6 +86,38 @@ public class PropertiesPanel extends EditorPanel {
 		}
 	}
 
+	/**
+	 * Sets the given properties in the edited file, replacing the entries that
+	 * already set them, and saves it so that the shell's config picks them up.
+	 * @return false if there is no file to save them in
+	 */
+	public boolean adoptProperties(Map<String, String> properties) {
+		if (loadedFile == null) {
+			warning("There is no application properties file to adopt the settings into");
+			return false;
+		}
+
+		String text = editor.getText();
+		for (Map.Entry<String, String> e : properties.entrySet()) {
+			String entry = e.getKey() + " = " + e.getValue();
+			// an entry can go on over several lines that end with a backslash
+			Pattern p = Pattern.compile("^[ \\t]*" + Pattern.quote(e.getKey()) + "[ \\t]*[=:](?:[^\\n]*\\\\\\n)*[^\\n]*$",
+			                            Pattern.MULTILINE);
+			Matcher m = p.matcher(text);
+			if (m.find()) {
+				text = text.substring(0, m.start()) + entry + text.substring(m.end());
+			} else {
+				if (text.length() > 0 && !text.endsWith("\n")) {
+					text += "\n";
+				}
+				text += entry + "\n";
+			}
+		}
+		editor.setText(text);
+		save();
+		return true;
+	}
+
 	@Override
 	protected FileNameExtensionFilter getFileFilter() {
 		return new FileNameExtensionFilter("JPF application properties", "jpf");
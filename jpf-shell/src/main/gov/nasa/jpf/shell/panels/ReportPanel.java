@@ -30,6 +30,8 @@ import gov.nasa.jpf.report.Publisher;
 import gov.nasa.jpf.report.PublisherExtension;
 import gov.nasa.jpf.report.Reporter;
 import gov.nasa.jpf.shell.util.ProgressTrackerUI;
+import gov.nasa.jpf.shell.worker.ResultCache;
+import gov.nasa.jpf.shell.worker.VerifyProcess;
 import gov.nasa.jpf.shell.util.HyperlinkEditorPane;
 import gov.nasa.jpf.shell.util.hyperlinks.BasicHyperLinkDecorator;
 import gov.nasa.jpf.shell.util.hyperlinks.JavaSourceFileHyperlinkPattern;
@@ -49,7 +51,9 @@ import java.util.Map.Entry;
 /**
  * Basic output panel that divides JPF's results into browseable topics. This
  * panel uses a {@link gov.nasa.jpf.shell.listeners.VerifyCommandListener} to
- * keep track of when the VerifyCommand is executed.
+ * keep track of when the VerifyCommand is executed. A ReportPanel can also be
+ * bound to a single independent run, in which case it ignores all other
+ * VerifyCommands.
  */
 public final class ReportPanel extends ShellPanel implements VerifyCommandListener{
 
@@ -58,6 +62,7 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
 
 	//Topics Panel
 	private JLabel statusLabel = new JLabel();
+  private JButton rerunButton = new JButton("Re-run anyway");
 	private JSplitPane splitPane;
   private HyperlinkEditorPane outputArea;
   private TopicListModel topicListModel = new TopicListModel();
@@ -66,8 +71,19 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
 
   private boolean isSaveable = false;
 
+  //the command whose cached results are shown, for the re-run button
+  private VerifyCommand cachedCommand;
+
+  //the run this panel is bound to, null if it shows the shell's VerifyCommand
+  private final VerifyCommand run;
+
   public ReportPanel(){
+    this(null);
+  }
+
+  public ReportPanel(VerifyCommand run){
     super("Report", null, "View JPF's Output");
+    this.run = run;
     
     ShellManager.getManager().addCommandListener( VerifyCommand.class, this );
 
@@ -110,8 +126,26 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
     JScrollPane listScroll = new JScrollPane(topicList);
     listScroll.setMinimumSize(new Dimension(100,50));
 
+    rerunButton.setToolTipText("Run JPF even though the code and config did not change");
+    rerunButton.setVisible(false);
+    rerunButton.addActionListener(new ActionListener(){
+      public void actionPerformed(ActionEvent e) {
+        VerifyCommand command = cachedCommand;
+        if (command != null){
+          rerunButton.setVisible(false);
+          command.ignoreCacheOnce();
+          ShellManager.getManager().fireCommand(command);
+        }
+      }
+    });
+
 		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
-		add(statusLabel);
+    Box statusBox = Box.createHorizontalBox();
+    statusBox.add(statusLabel);
+    statusBox.add(Box.createHorizontalStrut(8));
+    statusBox.add(rerunButton);
+    statusBox.add(Box.createHorizontalGlue());
+		add(statusBox);
 
     splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, listScroll, textScroll);
     splitPane.setOneTouchExpandable(true);
@@ -171,7 +205,7 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
             }
           }
         };
-        new Thread(saveFile).start();
+        ShellManager.getManager().getExecutor().execute(saveFile);
         }
       });
       popup.add(item);
@@ -206,6 +240,8 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
    * @param command
    */
   public void preCommand(final VerifyCommand command) {
+    if (!command.isShownBy(run))
+      return;
     requestShellFocus();
   }
 
@@ -214,10 +250,16 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
    * initialization by the tracker.
    * @param command
    */
-  public void afterJPFInit(VerifyCommand command) {
+  public void afterJPFInit(final VerifyCommand command) {
+    if (!command.isShownBy(run))
+      return;
+    if (command.isForked()){
+      afterWorkerInit(command);
+      return;
+    }
     JPF jpf = command.getJPF();
     Reporter reporter = jpf.getReporter();
-    Config config = ShellManager.getManager().getConfig();
+    Config config = command.getConfig();
 
     topicPublisher = new TopicPublisher(config, reporter);
     reporter.addPublisher(topicPublisher);
@@ -239,8 +281,33 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
     statUpdater.run(); // to initialize the content
     
     int interval = config.getInt("shell.update_interval", 1000);
-    JPFMonitor monitor = new JPFMonitor(jpf, statUpdater, interval);
-    monitor.start();
+    JPFMonitor monitor = new JPFMonitor(command, statUpdater, interval);
+    ShellManager.getManager().getExecutor().execute(monitor);
+  }
+
+  /**
+   * A forked run has no JPF instance in the shell, the statistics and topics
+   * come from the worker instead.
+   */
+  private void afterWorkerInit(VerifyCommand command){
+    final VerifyProcess worker = command.getWorker();
+    topicPublisher = null;
+
+    Runnable statUpdater = new Runnable(){
+      public void run(){
+        String stats = worker.getStatisticsText();
+        outputArea.setText((stats != null) ? stats : "");
+      }
+    };
+
+    reset();
+    statusLabel.setText(command.isCached() ? "Reading the results from the cache..."
+                                           : "JPF is running in a worker process...");
+    statUpdater.run();
+
+    int interval = command.getConfig().getInt("shell.update_interval", 1000);
+    JPFMonitor monitor = new JPFMonitor(command, statUpdater, interval);
+    ShellManager.getManager().getExecutor().execute(monitor);
   }
 
   /**
@@ -248,29 +315,53 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
    * @param command
    */
   public void postCommand(VerifyCommand command) {
+    if (!command.isShownBy(run))
+      return;
 
 		if (command.errorOccured()) {
 			statusLabel.setText("An Error occured during the verify, check the Logger Panel for more details");
 			statusLabel.setForeground(Color.RED);
+		}else if (command.isPartial()){
+			statusLabel.setText("Partial results, the search was stopped at its " + command.getBudgetBreach());
+			statusLabel.setForeground(Color.RED);
+		}else if (command.isCached()){
+			Date created = ((ResultCache.Entry) command.getWorker()).getCreated();
+			statusLabel.setText("Results of " + new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(created)
+			                    + " from the cache, the code and config did not change");
+			statusLabel.setForeground(Color.BLACK);
 		}else{
 			statusLabel.setText("The JPF run completed successfully");
 			statusLabel.setForeground(Color.BLACK);
 		}
-
-    showResults( topicPublisher.getResults());
+		cachedCommand = command.isCached() ? command : null;
+		rerunButton.setVisible(cachedCommand != null);
+
+    Map<String, String> topics = new LinkedHashMap<String, String>();
+    if (command.isPartial()){
+      topics.put(VerifyCommand.PARTIAL_TOPIC, "The search was stopped because it exceeded its "
+                 + command.getBudgetBreach() + ".\nThe results only cover the part of the state space"
+                 + " that was explored until then.\n");
+    }
+    topics.putAll(command.getReportTopics());
+    if (command.isForked()){
+      topics.putAll(command.getWorker().getTopics());
+    } else {
+      topics.putAll(topicPublisher.getResults());
+    }
+    showResults(topics);
   }
   
 	public void exceptionDuringVerify(Exception ex) {
   }
   
   
-  class JPFMonitor extends Thread {
-    JPF jpf;
+  class JPFMonitor implements Runnable {
+    VerifyCommand command;
     Runnable statsUpdater;
     int interval;
     
-    JPFMonitor (JPF jpf, Runnable statsUpdater, int interval){
-      this.jpf = jpf;
+    JPFMonitor (VerifyCommand command, Runnable statsUpdater, int interval){
+      this.command = command;
       this.statsUpdater = statsUpdater;
       this.interval = interval;
     }
@@ -280,7 +371,7 @@ public final class ReportPanel extends ShellPanel implements VerifyCommandListen
     public void run() {
       tLast = System.currentTimeMillis();
 
-      while (jpf.getStatus() != JPF.Status.DONE){
+      while (!command.isSearchDone()){
         long t = System.currentTimeMillis();
         long td = t - tLast;
         if (td > interval){
@@ -0,0 +1,123 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.panels;
+
+import gov.nasa.jpf.shell.Shell;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.ShellPanel;
+import gov.nasa.jpf.shell.commands.SweepCommand;
+import gov.nasa.jpf.shell.commands.SweepCommand.Combination;
+import gov.nasa.jpf.shell.util.AnnotationTableModel;
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Shows the results of a {@link SweepCommand} as a table that can be sorted
+ * by any of its columns. The settings of the selected combination can be
+ * adopted into the application properties that are edited in the
+ * {@link PropertiesPanel} of the main shell.
+ */
+public class SweepPanel extends ShellPanel {
+
+  private static final String TITLE = "Sweep";
+
+  static class SweepModel extends AnnotationTableModel<Combination> {
+    SweepModel(List<Combination> combinations){
+      setData(new ArrayList<Combination>(combinations));
+    }
+  }
+
+  private final SweepModel model;
+  private final JTable table;
+  private final JButton adoptButton = new JButton("Adopt settings");
+  private final JLabel statusLabel = new JLabel(" ");
+
+  public SweepPanel(List<Combination> combinations){
+    super(TITLE, null, "The results of every combination of the sweep");
+    setLayout(new BorderLayout());
+
+    model = new SweepModel(combinations);
+    table = new JTable(model);
+    table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    table.setAutoCreateRowSorter(true);
+    table.getSelectionModel().addListSelectionListener(new ListSelectionListener(){
+      public void valueChanged(ListSelectionEvent e){
+        adoptButton.setEnabled(table.getSelectedRow() >= 0);
+      }
+    });
+    add(new JScrollPane(table), BorderLayout.CENTER);
+
+    adoptButton.setEnabled(false);
+    adoptButton.setToolTipText("Write the settings of the selected combination into the application properties");
+    adoptButton.addActionListener(new ActionListener(){
+      public void actionPerformed(ActionEvent e){
+        adoptSelected();
+      }
+    });
+    Box box = Box.createHorizontalBox();
+    box.add(statusLabel);
+    box.add(Box.createHorizontalGlue());
+    box.add(adoptButton);
+    add(box, BorderLayout.SOUTH);
+  }
+
+  private void adoptSelected(){
+    int row = table.getSelectedRow();
+    if (row < 0){
+      return;
+    }
+    Combination c = model.getData().get(table.convertRowIndexToModel(row));
+
+    PropertiesPanel properties = findPropertiesPanel();
+    if (properties == null){
+      warning("There is no Properties panel to adopt the settings into");
+      return;
+    }
+    if (properties.adoptProperties(c.getSettings())){
+      statusLabel.setText("Adopted " + c.getLabel());
+      ShellManager.getLogger().log(Level.INFO, "adopted the sweep settings " + c.getLabel()
+              + " into " + properties.getLoadedFile());
+    }
+  }
+
+  private static PropertiesPanel findPropertiesPanel(){
+    Shell shell = ShellManager.getManager().getShell();
+    if (shell == null){
+      return null;
+    }
+    for (ShellPanel p : shell.getPanels()){
+      //the SitePanel is a PropertiesPanel too, but of site.properties
+      if (p instanceof PropertiesPanel && !(p instanceof SitePanel)){
+        return (PropertiesPanel) p;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,62 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.panels;
+
+import gov.nasa.jpf.shell.ShellPanel;
+import gov.nasa.jpf.shell.commands.TestMatrixCommand;
+import gov.nasa.jpf.shell.commands.TestMatrixCommand.Run;
+import gov.nasa.jpf.shell.util.AnnotationTableModel;
+import java.awt.BorderLayout;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+
+/**
+ * The exit codes and durations of the runs of a {@link TestMatrixCommand},
+ * the output of every run is in a console tab of its own.
+ */
+public class TestMatrixPanel extends ShellPanel {
+
+  private static final String TITLE = "Test Matrix";
+
+  static class MatrixModel extends AnnotationTableModel<Run> {
+    MatrixModel(List<Run> runs){
+      setData(new ArrayList<Run>(runs));
+    }
+  }
+
+  private final MatrixModel model;
+
+  public TestMatrixPanel(List<Run> runs){
+    super(TITLE, null, "The exit codes and durations of the runs of the matrix");
+    setLayout(new BorderLayout());
+
+    model = new MatrixModel(runs);
+    JTable table = new JTable(model);
+    table.setAutoCreateRowSorter(true);
+    add(new JScrollPane(table), BorderLayout.CENTER);
+  }
+
+  /**
+   * Shows the current status of the runs, call from the event dispatch thread
+   */
+  public void refresh(){
+    model.fireTableRowsUpdated(0, model.getRowCount() - 1);
+  }
+}
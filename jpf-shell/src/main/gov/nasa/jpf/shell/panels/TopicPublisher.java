@@ -30,13 +30,14 @@ import java.util.Map;
 
 /**
  * Does everything that the ConsolePublisher does but stores it all into a 
- * HashMap with topic names as keys. This is used by ReportPanel to retrieve results
- * from JPF.
+ * HashMap with topic names as keys. This is used by the headless shell to
+ * retrieve results from JPF.
  * 
  * <2do> this should be a replacement for the ConsolePublisher, not an additional publisher.
  * If not, chances are we miss PublisherExtensions, and we do a lot of redundant output. Fix it!!
  * 
  * @see ReportPanel
+ * @see gov.nasa.jpf.shell.headless.HeadlessShell
  */
 public class TopicPublisher extends ConsolePublisher{
 
@@ -50,6 +51,7 @@ public class TopicPublisher extends ConsolePublisher{
   public TopicPublisher(Config config, Reporter reporter){
     super(config, reporter);
     topics = new LinkedHashMap<String, String>();
+    openChannel();
     
     // <2do> temp fix to copy existing ConsolePublisher extensions - this does not catch dynamic ones!
     for (Publisher p : reporter.getPublishers()){
@@ -78,8 +80,10 @@ public class TopicPublisher extends ConsolePublisher{
 
   @Override
   protected void openChannel(){
+    if (output == null){
       output = new StringWriter();
       out = new PrintWriter(output);
+    }
   }
 
   @Override
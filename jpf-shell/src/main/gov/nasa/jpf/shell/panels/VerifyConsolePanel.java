@@ -25,17 +25,19 @@ import gov.nasa.jpf.shell.ShellManager;
 import gov.nasa.jpf.shell.commands.VerifyCommand;
 import gov.nasa.jpf.shell.util.ConsolePanel;
 import gov.nasa.jpf.shell.util.RunCommandPanel;
+import gov.nasa.jpf.shell.util.StreamRouter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.io.PrintStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Display's JPF's STDOUT output after verification in a JavaOutputPane.
- * (A simple example of how to use ConsolePanel)
+ * (A simple example of how to use ConsolePanel)<br>
+ * Only the system streams of the thread that runs the verification are
+ * captured, so that the panels of concurrent independent runs each get the
+ * output of their own run.
  */
 public class VerifyConsolePanel extends ConsolePanel implements
 					  ShellCommandListener<VerifyCommand>{
@@ -46,14 +48,20 @@ public class VerifyConsolePanel extends ConsolePanel implements
   private static final String PRECOMMAND_TEXT = "Verify the program to see its output.";
 
   private boolean captureStreams;
-  private PrintStream sys_out,sys_err;
-  private InputStream sys_in;
+
+  //the run this panel is bound to, null if it shows the shell's VerifyCommand
+  private final VerifyCommand run;
 
   public VerifyConsolePanel(){
+    this(null);
+  }
+
+  public VerifyConsolePanel(VerifyCommand run){
     super(TITLE, null, TIP);
+    this.run = run;
     
     // we mostly make this configurable to support debugging
-    Config config = ShellManager.getManager().getConfig();
+    Config config = (run != null) ? run.getConfig() : ShellManager.getManager().getConfig();
     captureStreams = config.getBoolean("shell.capture_streams", true);
   }
 
@@ -72,25 +80,25 @@ public class VerifyConsolePanel extends ConsolePanel implements
     ShellManager.getManager().removeCommandListener(this);
   }
 
+  /**
+   * Executed in the command thread, which is the thread that gets routed to
+   * this console.
+   */
   public void preCommand(VerifyCommand command) {
+    if (!command.isShownBy(run))
+      return;
     if (captureStreams){
-      sys_out = System.out;
-      sys_err = System.err;
-      sys_in = System.in;
-
       try {
         PipedInputStream out = new PipedInputStream();
         PipedOutputStream pipe_out = new PipedOutputStream(out);
-        System.setOut(new PrintStream(pipe_out, true));
 
         PipedInputStream err = new PipedInputStream();
         PipedOutputStream pipe_err = new PipedOutputStream(err);
-        System.setErr(new PrintStream(pipe_err, true));
 
         PipedOutputStream in = new PipedOutputStream();
         PipedInputStream pipe_in = new PipedInputStream(in);
-        System.setIn(pipe_in);
 
+        StreamRouter.route(pipe_out, pipe_err, pipe_in);
         hookSystemStreams(out, err, in);
 
       } catch (IOException ex) {
@@ -102,12 +110,11 @@ public class VerifyConsolePanel extends ConsolePanel implements
   }
 
   public void postCommand(VerifyCommand command) {
+    if (!command.isShownBy(run))
+      return;
     if (captureStreams){
+      StreamRouter.unroute();
       unhookSystemStreams();
-      
-      System.setOut(sys_out);
-      System.setErr(sys_err);
-      System.setIn(sys_in);
     }
   }
 }
@@ -20,6 +20,14 @@ public class CGNode extends NodeInfo{
   private String pathtxt = "";
   private int thread = -1;
 
+  //the id of the node in the SearchTree it was captured in
+  int treeId = SearchTree.NONE;
+
+  //where the choice was made, sourceFile is null if it is unknown
+  private String sourceLine;
+  private String sourceFile;
+  private int lineNumber;
+
   BasicHyperLinkDecorator decorator = new BasicHyperLinkDecorator();
   HashMap<HyperlinkPattern, HyperlinkDecorator> links
                         = new HashMap<HyperlinkPattern, HyperlinkDecorator>();
@@ -50,35 +58,75 @@ public class CGNode extends NodeInfo{
     thread = vm.getCurrentThread().getId();
 
     if (insn.getMethodInfo().getClassInfo() != null) {
-      links.put(new StringMatcherHyperlinkPattern(insn.getSourceLine(), insn) {
-        @Override
-        public void onClick(Object result) {
-          Instruction i = (Instruction)result;
-          String f = i.getMethodInfo().getClassInfo().getSourceFileName();
-          f = HyperlinkFileCache.getSourcePath(f);
-          int line = i.getLineNumber();
-          ShellManager.getManager()
-                  .printLinkCommand(new LinkDestination(f, line));
-        }
-
-        @Override
-        public int getModifiers(){
-          return InputEvent.CTRL_MASK;
-        }
-
-        @Override
-        public String getTooltip(Object result){
-          Instruction i = (Instruction)result;
-          String f = i.getMethodInfo().getClassInfo().getSourceFileName();
-          f = HyperlinkFileCache.getSourcePath(f);
-          int line = i.getLineNumber();
-          LinkDestination d =  new LinkDestination(f, line);
-          return "open a link to " + d;
-        }
-      }, decorator);
+      sourceLine = insn.getSourceLine();
+      sourceFile = insn.getMethodInfo().getClassInfo().getSourceFileName();
+      lineNumber = insn.getLineNumber();
+      addSourceLink();
     }
   }
 
+  /**
+   * Recreates a node that was captured somewhere else, e.g. by a
+   * {@link gov.nasa.jpf.shell.worker.VerifyWorker} process.
+   */
+  public CGNode(String nodeLabel, String tip, String pathtxt, int thread,
+                String sourceLine, String sourceFile, int lineNumber){
+    super();
+    this.nodeLabel = nodeLabel;
+    this.tip = tip;
+    this.pathtxt = pathtxt;
+    this.thread = thread;
+    this.sourceLine = sourceLine;
+    this.sourceFile = sourceFile;
+    this.lineNumber = lineNumber;
+    if (sourceLine != null) {
+      addSourceLink();
+    }
+  }
+
+  private void addSourceLink(){
+    links.put(new StringMatcherHyperlinkPattern(sourceLine) {
+      @Override
+      public void onClick(Object result) {
+        String f = HyperlinkFileCache.getSourcePath(sourceFile);
+        ShellManager.getManager()
+                .printLinkCommand(new LinkDestination(f, lineNumber));
+      }
+
+      @Override
+      public int getModifiers(){
+        return InputEvent.CTRL_MASK;
+      }
+
+      @Override
+      public String getTooltip(Object result){
+        String f = HyperlinkFileCache.getSourcePath(sourceFile);
+        LinkDestination d =  new LinkDestination(f, lineNumber);
+        return "open a link to " + d;
+      }
+    }, decorator);
+  }
+
+  /**
+   * @return the source line of the instruction that made the choice, or null
+   *         if it is unknown
+   */
+  public String getSourceLine(){
+    return sourceLine;
+  }
+
+  /**
+   * @return the source file name (relative to the sourcepath) of the
+   *         instruction that made the choice
+   */
+  public String getSourceFileName(){
+    return sourceFile;
+  }
+
+  public int getLineNumber(){
+    return lineNumber;
+  }
+
   @Override
   public String getNodeText(){
     return nodeLabel;
@@ -1,6 +1,7 @@
 package gov.nasa.jpf.shell.panels.searchgraph;
 
 import gov.nasa.jpf.shell.util.FilterableText;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -10,6 +11,10 @@ public class EdgeInfo{
   private String pathText = "";
   private LinkedList<FilterableText> instructions
           = new LinkedList<FilterableText>();
+  // what the SearchGraphTracker recorded, null for edges read from a worker
+  private InstructionTrace trace;
+  // the size of the trace if the flight recorder dropped it
+  private int droppedTrace = 0;
 
   public EdgeInfo(String pathText){
     this.pathText = pathText;
@@ -19,6 +24,21 @@ public class EdgeInfo{
     instructions.add(new FilterableText(owner, string));
   }
 
+  InstructionTrace startTrace(InstructionTrace.Symbols symbols, int thread) {
+    trace = new InstructionTrace(symbols, thread);
+    return trace;
+  }
+
+  /**
+   * Forgets the recorded instructions, only their number is kept.
+   */
+  void dropTrace() {
+    if (trace != null) {
+      droppedTrace = trace.size();
+      trace = null;
+    }
+  }
+
 	public class PathInfo{
 		public StringBuffer getInfo(){
 			StringBuffer buff = new StringBuffer();
@@ -49,8 +69,24 @@ public class EdgeInfo{
     return "";
   }
 
+  /**
+   * @return the text of the instructions, which is created anew on every
+   *         call for edges that were recorded by a SearchGraphTracker
+   */
   public List<FilterableText> getInstructionContent(){
-    return instructions;
+    if (trace == null){
+      if (droppedTrace > 0){
+        List<FilterableText> content = new ArrayList<FilterableText>(instructions);
+        content.add(0, new FilterableText(SearchGraphTracker.INSTRUCTION,
+                                          "[" + droppedTrace + " insn not kept, see shell.searchgraph.capture]\n"));
+        return content;
+      }
+      return instructions;
+    }
+    List<FilterableText> content = new ArrayList<FilterableText>(trace.size() * 4 + instructions.size());
+    trace.render(content);
+    content.addAll(instructions);
+    return content;
   }
 
 }
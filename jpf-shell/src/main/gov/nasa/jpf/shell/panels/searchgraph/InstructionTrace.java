@@ -0,0 +1,226 @@
+package gov.nasa.jpf.shell.panels.searchgraph;
+
+import gov.nasa.jpf.shell.util.FilterableText;
+import gov.nasa.jpf.util.Left;
+import gov.nasa.jpf.vm.ClassInfo;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.bytecode.FieldInstruction;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The instructions executed in one transition, recorded by the
+ * {@link SearchGraphTracker} as a few ints per instruction instead of text.
+ * A record is
+ * <pre>
+ *   flags, method, instruction index [, source line] [, object ref, class]
+ * </pre>
+ * where method, source line and class are indices into the {@link Symbols}
+ * of the tracker. The source line only follows the flag {@link #SOURCE}, it
+ * is looked up while the run's sourcepath is in effect. Object ref and class
+ * only follow the flags {@link #FIELD} and {@link #LOCK}. These are the things
+ * that cannot be looked up later. The text
+ * that is shown for an edge is only created by {@link #render(List)} when the
+ * edge is shown (or sent by a worker), from the MethodInfos and Instructions
+ * that the symbols keep.<br>
+ *
+ * Once the tracker is over its heap budget, a finished trace is moved to a
+ * {@link TraceSpill} and only its offset stays in the heap.
+ */
+final class InstructionTrace {
+
+  //the source line of the instruction starts a new source location, followed by the line
+  static final int SOURCE = 1;
+  //the instruction is in another method than the one before
+  static final int METHOD = 2;
+  //the instruction calls a native (MJI) method
+  static final int NATIVE = 4;
+  //an instance field instruction, followed by the object ref and class
+  static final int FIELD = 8;
+  //a static field instruction
+  static final int STATIC_FIELD = 16;
+  //a lock instruction, followed by the lock ref and class
+  static final int LOCK = 32;
+  //the instruction was executed before main
+  static final int INIT = 64;
+  //not an instruction but the number of them that were not recorded
+  static final int DROPPED = 128;
+
+  /**
+   * The objects the records refer to, shared by all traces of a tracker.
+   * Looking up an object that is already known does not allocate.
+   */
+  static final class Symbols {
+    private final List<Object> objects = new ArrayList<Object>();
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+    private final HashMap<String, Integer> lineIds = new HashMap<String, Integer>();
+
+    synchronized int idOf(Object o){
+      Integer id = ids.get(o);
+      if (id == null){
+        id = objects.size();
+        objects.add(o);
+        ids.put(o, id);
+      }
+      return id;
+    }
+
+    /**
+     * The same as idOf for source lines, which are compared by their text.
+     */
+    synchronized int idOfLine(String line){
+      Integer id = lineIds.get(line);
+      if (id == null){
+        id = objects.size();
+        objects.add(line);
+        lineIds.put(line, id);
+      }
+      return id;
+    }
+
+    synchronized Object get(int id){
+      return (id >= 0) ? objects.get(id) : null;
+    }
+  }
+
+  private final Symbols symbols;
+  private final int thread;
+  private int[] data = new int[48];
+  private int size = 0;
+  private int count = 0;
+  //where the ints are once data is spilled
+  private TraceSpill spill;
+  private long offset;
+
+  InstructionTrace(Symbols symbols, int thread){
+    this.symbols = symbols;
+    this.thread = thread;
+  }
+
+  /**
+   * @param line the id of the source line, only recorded with {@link #SOURCE}
+   */
+  void add(int flags, int method, int index, int line){
+    ensure(4);
+    data[size++] = flags;
+    data[size++] = method;
+    data[size++] = index;
+    if ((flags & SOURCE) != 0){
+      data[size++] = line;
+    }
+    count++;
+  }
+
+  void add(int flags, int method, int index, int line, int ref, int cls){
+    add(flags, method, index, line);
+    ensure(2);
+    data[size++] = ref;
+    data[size++] = cls;
+  }
+
+  void addDropped(int n){
+    add(DROPPED, n, 0, -1);
+  }
+
+  private void ensure(int n){
+    if (size + n > data.length){
+      data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+    }
+  }
+
+  /**
+   * @return the bytes of the heap that the records take
+   */
+  long getHeapBytes(){
+    return (data != null) ? data.length * 4L : 0;
+  }
+
+  /**
+   * Moves the records to spill, nothing can be added afterwards.
+   */
+  void spillTo(TraceSpill spill) throws IOException {
+    offset = spill.append(data, size);
+    this.spill = spill;
+    data = null;
+  }
+
+  /**
+   * @return the number of recorded instructions
+   */
+  int size(){
+    return count;
+  }
+
+  /**
+   * Appends the text of the recorded instructions to content, the same
+   * the tracker used to append for every instruction.
+   */
+  void render(List<FilterableText> content){
+    String linePrefix = thread + " : ";
+    IntBuffer records = (data != null) ? IntBuffer.wrap(data, 0, size) : spill.read(offset, size);
+    if (records == null){
+      content.add(new FilterableText(SearchGraphTracker.INSTRUCTION, "[" + count + " insn not kept, the spill file is closed]\n"));
+      return;
+    }
+    for (int i = 0; i < size; ){
+      int flags = records.get(i++);
+      if ((flags & DROPPED) != 0){
+        content.add(new FilterableText(SearchGraphTracker.INSTRUCTION, "[" + records.get(i) + " insn not recorded]\n"));
+        i += 2;
+        continue;
+      }
+      MethodInfo mi = (MethodInfo) symbols.get(records.get(i++));
+      Instruction insn = mi.getInstruction(records.get(i++));
+      boolean init = (flags & INIT) != 0;
+      Object srcOwner = init ? SearchGraphTracker.INIT_SOURCE : SearchGraphTracker.SOURCE;
+      Object mthOwner = init ? SearchGraphTracker.INIT_METHOD : SearchGraphTracker.METHOD;
+      Object insnOwner = init ? SearchGraphTracker.INIT_INSTRUCTION : SearchGraphTracker.INSTRUCTION;
+
+      if ((flags & SOURCE) != 0){
+        String line = (String) symbols.get(records.get(i++));
+        if (line != null){
+          content.add(new FilterableText(srcOwner, Left.format(mi.getSourceFileName() + ':' + insn.getLineNumber(), 30)
+                                                   + " : " + line.trim() + '\n'));
+        }
+      }
+
+      if ((flags & METHOD) != 0){
+        ClassInfo mci = mi.getClassInfo();
+        content.add(new FilterableText(mthOwner, "      " + ((mci != null) ? mci.getName() + '.' : "")
+                                                 + mi.getUniqueName() + '\n'));
+      }
+
+      content.add(new FilterableText(insnOwner, linePrefix + '[' + insn.getInstructionIndex() + "] " + insn));
+
+      if ((flags & NATIVE) != 0){
+        content.add(new FilterableText(srcOwner, " [native] "));
+      } else if ((flags & FIELD) != 0){
+        int ref = records.get(i++);
+        ClassInfo ci = (ClassInfo) symbols.get(records.get(i++));
+        String fname = ((FieldInstruction) insn).getFieldName();
+        content.add(new FilterableText(srcOwner, " " + ((ref >= 0) ? getObjectText(ci, ref) : "?") + '.' + fname));
+      } else if ((flags & STATIC_FIELD) != 0){
+        content.add(new FilterableText(srcOwner, " " + ((FieldInstruction) insn).getVariableId()));
+      } else if ((flags & LOCK) != 0){
+        int ref = records.get(i++);
+        ClassInfo ci = (ClassInfo) symbols.get(records.get(i++));
+        content.add(new FilterableText(srcOwner, linePrefix + getObjectText(ci, ref)));
+      }
+
+      content.add(new FilterableText(insnOwner, "\n"));
+    }
+  }
+
+  /**
+   * the same as ElementInfo.toString()
+   */
+  private static String getObjectText(ClassInfo ci, int ref){
+    return ((ci != null) ? ci.getName() : "ElementInfo") + '@' + Integer.toHexString(ref);
+  }
+}
@@ -6,6 +6,8 @@ import edu.uci.ics.jung.visualization.control.*;
 import java.awt.*;
 
 import edu.uci.ics.jung.graph.DelegateForest;
+import edu.uci.ics.jung.graph.DirectedGraph;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
 import edu.uci.ics.jung.visualization.GraphZoomScrollPane;
 import edu.uci.ics.jung.visualization.VisualizationViewer;
 import edu.uci.ics.jung.visualization.decorators.EdgeShape;
@@ -15,6 +17,7 @@ import gov.nasa.jpf.shell.ShellManager;
 import gov.nasa.jpf.shell.commands.VerifyCommand;
 import gov.nasa.jpf.shell.listeners.VerifyCommandListener;
 import gov.nasa.jpf.shell.util.DistinctColorPool;
+import gov.nasa.jpf.shell.worker.VerifyProcess;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
@@ -37,14 +40,25 @@ public class SearchGraphDisplay extends JPanel
   private static final Stroke PLAIN_STROKE = new BasicStroke();
 
 
-	private SearchGraphTracker tl = new SearchGraphTracker();
+	//the tracker of the last run, every run gets a new one
+	private SearchGraphTracker tl;
+	//the tracker whose graph is shown, disposed once another graph replaces it
+	private SearchGraphTracker shown;
 	private VisualizationViewer<NodeInfo, EdgeInfo> graphview;
 	private HashSet<NodeInfo> nodePath = new HashSet<NodeInfo>();
 	private HashSet<EdgeInfo> edgePath = new HashSet<EdgeInfo>();
 
 	private ArrayList<GraphMouseListener<NodeInfo>> listeners = new ArrayList();
 
+	//the run this display is bound to, null if it shows the shell's VerifyCommand
+	private final VerifyCommand run;
+
 	public SearchGraphDisplay(){
+		this(null);
+	}
+
+	public SearchGraphDisplay(VerifyCommand run){
+		this.run = run;
 
 		setLayout(new GridLayout());
 		add(new JButton("Click here to run JPF to generate a Search Graph"){{
@@ -62,14 +76,40 @@ public class SearchGraphDisplay extends JPanel
 	public void preCommand(VerifyCommand command) {}
 
 	public void afterJPFInit(VerifyCommand command) {
+		if (!command.isShownBy(run))
+			return;
+		if (command.isForked()){
+			command.getWorker().captureSearchGraph();
+			return;
+		}
+		tl = new SearchGraphTracker(command.getConfig());
 		command.getJPF().addSearchListener(tl);
 		command.getJPF().addVMListener(tl);
 	}
 
 
 	public void postCommand(VerifyCommand command) {
-		//Make the graph
-		Layout<NodeInfo, EdgeInfo> layout = new TreeLayout<NodeInfo, EdgeInfo>(new DelegateForest<NodeInfo, EdgeInfo>(tl.getGraph()));
+		if (!command.isShownBy(run))
+			return;
+		//Make the graph, forked runs send theirs when they are done
+		DirectedGraph<NodeInfo, EdgeInfo> graph;
+		int threadCount;
+		if (command.isForked()){
+			VerifyProcess worker = command.getWorker();
+			graph = worker.getSearchGraph();
+			threadCount = worker.getThreadCount();
+			if (graph == null){
+				graph = new DirectedSparseGraph<NodeInfo, EdgeInfo>();
+			}
+		} else if (tl != null){
+			tl.stop();
+			graph = tl.getGraph();
+			threadCount = tl.getThreadCount();
+		} else {
+			graph = new DirectedSparseGraph<NodeInfo, EdgeInfo>();
+			threadCount = 0;
+		}
+		Layout<NodeInfo, EdgeInfo> layout = new TreeLayout<NodeInfo, EdgeInfo>(new DelegateForest<NodeInfo, EdgeInfo>(graph));
 		graphview =  new VisualizationViewer(layout, new Dimension(300,300));
 		//Add the listeners
 		for (GraphMouseListener<NodeInfo> graphMouseListener : listeners) {
@@ -80,7 +120,7 @@ public class SearchGraphDisplay extends JPanel
 		graphview.addGraphMouseListener(this);
 
 		//Customize how it displays verticies and edges
-    DistinctColorPool colorPool = new DistinctColorPool(tl.getThreadCount());
+    DistinctColorPool colorPool = new DistinctColorPool(threadCount);
 
     //Verticies
 		graphview.getRenderer().getVertexLabelRenderer().setPosition(Renderer.VertexLabel.Position.CNTR);
@@ -110,6 +150,12 @@ public class SearchGraphDisplay extends JPanel
 
 		removeAll();
 		add(new GraphZoomScrollPane(graphview));
+
+		SearchGraphTracker now = command.isForked() ? null : tl;
+		if (shown != null && shown != now){
+			shown.dispose();
+		}
+		shown = now;
 	}
 
 	public VisualizationViewer<NodeInfo, EdgeInfo> getGraphViewer(){
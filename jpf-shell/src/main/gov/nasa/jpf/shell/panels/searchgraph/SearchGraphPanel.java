@@ -35,18 +35,32 @@ public class SearchGraphPanel extends ShellPanel implements GraphMouseListener<N
   private PathList pathview = new PathList(path);
 	private SearchGraphDisplay graphview;
 
+  //the run this panel is bound to, null if it shows the shell's VerifyCommand
+  private final VerifyCommand run;
+
   //Default settings, these get overriden by the JPF config
-	private Config config = ShellManager.getManager().getConfig();
-  private boolean printInsn = config.getBoolean("et.print_insn", true);
-  private boolean printSrc  = config.getBoolean("et.print_src",  true);
-	private boolean printMth  = config.getBoolean("et.print_mth",  false);
-  private boolean skipInit  = config.getBoolean("et.skip_init",  true);
+  private boolean printInsn;
+  private boolean printSrc;
+	private boolean printMth;
+  private boolean skipInit;
 
 
 	public SearchGraphPanel(){
+		this(null);
+	}
+
+	public SearchGraphPanel(VerifyCommand run){
 		super("Search Graph", null, "View the paths taken by jpf.");
+		this.run = run;
+
+		Config config = (run != null) ? run.getConfig() : ShellManager.getManager().getConfig();
+		printInsn = config.getBoolean("et.print_insn", true);
+		printSrc  = config.getBoolean("et.print_src",  true);
+		printMth  = config.getBoolean("et.print_mth",  false);
+		skipInit  = config.getBoolean("et.skip_init",  true);
+
 		ShellManager.getManager().addCommandListener(VerifyCommand.class, this);
-    graphview = new SearchGraphDisplay();
+    graphview = new SearchGraphDisplay(run);
 
 		selectedEdgesPanel.setPreferredSize(new Dimension(300,150));
 
@@ -161,6 +175,8 @@ public class SearchGraphPanel extends ShellPanel implements GraphMouseListener<N
 
 
 	public void postCommand(VerifyCommand command) {
+		if (!command.isShownBy(run))
+			return;
 		resetDividerPositions();
     repaint();
 	}
@@ -1,10 +1,11 @@
 package gov.nasa.jpf.shell.panels.searchgraph;
 
 import edu.uci.ics.jung.graph.DirectedSparseGraph;
-import edu.uci.ics.jung.graph.util.EdgeType;
+import gov.nasa.jpf.Config;
 import gov.nasa.jpf.ListenerAdapter;
 import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.ClassInfo;
+import gov.nasa.jpf.vm.ElementInfo;
 import gov.nasa.jpf.vm.VM;
 import gov.nasa.jpf.vm.MethodInfo;
 import gov.nasa.jpf.vm.Step;
@@ -16,10 +17,43 @@ import gov.nasa.jpf.vm.bytecode.InvokeInstruction;
 import gov.nasa.jpf.jvm.bytecode.LockInstruction;
 import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.shell.ShellManager;
-import gov.nasa.jpf.util.Left;
 import gov.nasa.jpf.vm.ApplicationContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 
+/**
+ * Builds the search graph of a verification. The listener methods run in the
+ * JPF thread and only collect what has to be taken from the VM right away,
+ * the graph and the instruction traces of its edges are built from that by
+ * a background thread, which gets it through a {@link TraceRing}. While the
+ * search runs, the graph is a {@link SearchTree}, the JUNG graph for the
+ * display is only made by {@link #getGraph()}. The following properties are
+ * used:
+ * <ul>
+ *   <li>shell.searchgraph.async - build the graph in the background (default
+ *       true), otherwise everything is done in the JPF thread</li>
+ *   <li>shell.searchgraph.ring_size - the number of events that can wait for
+ *       the background thread (default 65536)</li>
+ *   <li>shell.searchgraph.full - what to do with instructions when the ring
+ *       is full: block (default), drop or sample (see {@link TraceRing.Policy})</li>
+ *   <li>shell.searchgraph.sample - every how many instructions are kept when
+ *       sampling (default 16)</li>
+ *   <li>shell.searchgraph.capture - full (default) keeps the instructions of
+ *       every edge, flight only those of the current path and of the last
+ *       shell.searchgraph.flight.transitions (default 1000) edges the search
+ *       backtracked from, so that memory stays bounded and the path to an
+ *       error is still complete. The other edges only keep their place in
+ *       the graph and the number of their instructions.</li>
+ *   <li>shell.searchgraph.heap_budget_mb - if set, the instructions of the
+ *       edges that do not fit into that many MB of the heap are written to a
+ *       memory mapped file in shell.searchgraph.spill_dir (default: the temp
+ *       dir) and read back from there when an edge is shown</li>
+ * </ul>
+ */
 public class SearchGraphTracker extends ListenerAdapter{
 
   public static final Object INIT_INSTRUCTION = new Object();
@@ -30,31 +64,119 @@ public class SearchGraphTracker extends ListenerAdapter{
   public static final Object SOURCE = new Object();
   public static final Object METHOD = new Object();
 
-	private DirectedSparseGraph<NodeInfo, EdgeInfo> graph = new DirectedSparseGraph<NodeInfo, EdgeInfo>();
-  private NodeInfo root = new NodeInfo("Init");
-	private NodeInfo currentNode = root;
+  //the events of the ring
+  private static final int CG_SET = 1;
+  private static final int CG_ADVANCED = 2;
+  private static final int BACKTRACKED = 3;
+  private static final int FINISHED = 4;
+  private static final int INSN = 5;
+
+  //only touched by the thread that builds the graph
+  private final SearchTree tree = new SearchTree(new NodeInfo("Init"));
+  private int currentNode = 0;
   private EdgeInfo currentEdge = new EdgeInfo("Init");
+  //if currentEdge leads to a node already
+  private boolean edgePlaced = false;
+  private InstructionTrace currentTrace;
+  private int currentThread;
+  private volatile boolean finished = false;
+  //the edges that left the path last, oldest first, null if all are kept
+  private final ArrayDeque<EdgeInfo> recent;
+  private final int maxRecent;
+  //where the traces go once they take heapBudget bytes, null if they stay
+  private final long heapBudget;
+  private final File spillDir;
+  private volatile TraceSpill spill;
+  private boolean spillFailed = false;
+  private long heapBytes = 0;
 
+  //only touched by the JPF thread
   private HashMap<ChoiceGenerator<?>, CGNode> cg2node
                                   = new HashMap<ChoiceGenerator<?>, CGNode>();
 
+  // the methods and classes the traces of all edges refer to
+  private final InstructionTrace.Symbols symbols = new InstructionTrace.Symbols();
+
   private Step lastStep;
   private MethodInfo lastMi;
-  private String linePrefix;
+  private int lastMethod;
 
   private MethodInfo miMain; // just to make init skipping more efficient
-  private boolean stillInInit = !ShellManager.getManager().getConfig().getBoolean("et.skip_init", true);
-  private Object srcOwner = !stillInInit ? SOURCE : INIT_SOURCE;
-  private Object mthOwner = !stillInInit ? METHOD: INIT_METHOD;
-  private Object insnOwner = !stillInInit ? INSTRUCTION: INIT_INSTRUCTION;
+  private boolean stillInInit;
 
   private int highestThread = 0;
 
-	public SearchGraphTracker(){
-    //Start putting our graph together
-		graph.addVertex(root);
+  //the JUNG graph of the tree, made when it is asked for
+  private DirectedSparseGraph<NodeInfo, EdgeInfo> graph;
+  private int graphSize = 0;
+
+  //null if the graph is built in the JPF thread
+  private final TraceRing ring;
+  private volatile Thread builder;
+
+  private final TraceRing.Handler handler = new TraceRing.Handler(){
+    public void handle(int[] event, int o, Object ref){
+      int dropped = event[o + TraceRing.DROPPED];
+      if (dropped > 0){
+        getTrace().addDropped(dropped);
+      }
+      int a = o + TraceRing.A;
+      switch (event[o + TraceRing.TYPE]){
+        case INSN:
+          addInstruction(event[a], event[a + 1], event[a + 2], event[a + 3], event[a + 4], event[a + 5], (String) ref);
+          break;
+        case CG_SET:
+          setNode((CGNode) ref, event[a] != 0);
+          break;
+        case CG_ADVANCED:
+          startEdge((EdgeInfo) ref);
+          break;
+        case BACKTRACKED:
+          backtrack(event[a] != 0);
+          break;
+        case FINISHED:
+          finish(event[a] != 0);
+          break;
+      }
+    }
+  };
+
+  /**
+   * @param config the config of the run whose graph is tracked
+   */
+	public SearchGraphTracker(Config config){
+    stillInInit = !config.getBoolean("et.skip_init", true);
+    if (config.getBoolean("shell.searchgraph.async", true)){
+      ring = new TraceRing(config.getInt("shell.searchgraph.ring_size", 65536), getPolicy(config),
+                           config.getInt("shell.searchgraph.sample", 16));
+    } else {
+      ring = null;
+    }
+
+    String capture = config.getString("shell.searchgraph.capture", "full");
+    if ("flight".equalsIgnoreCase(capture.trim())){
+      maxRecent = Math.max(0, config.getInt("shell.searchgraph.flight.transitions", 1000));
+      recent = new ArrayDeque<EdgeInfo>(Math.min(maxRecent, 4096) + 1);
+    } else {
+      maxRecent = 0;
+      recent = null;
+    }
+
+    heapBudget = config.getLong("shell.searchgraph.heap_budget_mb", 0) << 20;
+    String dir = config.getString("shell.searchgraph.spill_dir");
+    spillDir = (dir != null) ? new File(dir) : null;
 	}
 
+  private static TraceRing.Policy getPolicy(Config config){
+    String policy = config.getString("shell.searchgraph.full", "block");
+    try {
+      return TraceRing.Policy.valueOf(policy.trim().toUpperCase());
+    } catch (IllegalArgumentException x){
+      ShellManager.getLogger().log(Level.WARNING, "unknown shell.searchgraph.full \"" + policy + "\", blocking");
+      return TraceRing.Policy.BLOCK;
+    }
+  }
+
 	@Override
 	public void searchStarted(Search s){
     // <2do> - this doesn't work for MultiProcessVM
@@ -63,151 +185,313 @@ public class SearchGraphTracker extends ListenerAdapter{
     ClassInfo ci = appCtx.getSystemClassLoader().getResolvedClassInfo(mainCls);
     
     miMain = ci.getMethod("main([Ljava/lang/String;)V", false);
+
+    if (ring != null && builder == null){
+      builder = new Thread("search graph builder"){
+        @Override
+        public void run(){
+          build();
+        }
+      };
+      builder.setDaemon(true);
+      builder.start();
+    }
 	}
 
 	@Override
 	public void choiceGeneratorSet(VM vm, ChoiceGenerator<?> choiceGenerator){
-    if (cg2node.containsKey(choiceGenerator) == false) {//This is new CG
-      CGNode cgNode = new CGNode(vm);
-      graph.addVertex(cgNode);
-      graph.addEdge(currentEdge, currentNode, cgNode, EdgeType.DIRECTED);
+    CGNode cgNode = cg2node.get(choiceGenerator);
+    boolean isNew = (cgNode == null);
+    if (isNew) {//This is new CG
+      cgNode = new CGNode(vm);
       cg2node.put(choiceGenerator, cgNode);
-      currentNode = cgNode;
-    }else{
-      currentNode = cg2node.get(choiceGenerator);
     }
+    post(CG_SET, isNew ? 1 : 0, 0, 0, cgNode);
 	}
 
 	@Override
 	public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> choideGenerator){
-    currentEdge = new TransitionEdgeInfo(vm);
+    post(CG_ADVANCED, 0, 0, 0, new TransitionEdgeInfo(vm));
     lastStep = null; // in case we report by source line
     lastMi = null;
-    linePrefix = null;
     highestThread = Math.max(highestThread, vm.getCurrentThread().getId());
 	}
 	
   @Override
 	public void stateBacktracked(Search s){
-    if (!graph.containsEdge(currentEdge)) { //This is the first backtrack
-      NodeInfo backtrackNode = new NodeInfo(s.isVisitedState() ? "Visited" : "Ignored");
-      graph.addVertex(backtrackNode);
-      graph.addEdge(currentEdge, currentNode, backtrackNode, EdgeType.DIRECTED);
-    }else{
-      //Ok we're backing up multiple times up the path now, go up 1
-      //With this kind of graph there should only be 1 parent
-      for (NodeInfo parent : graph.getPredecessors(currentNode)) {
-        currentNode = parent;
-      }
-    }
-    
+    post(BACKTRACKED, s.isVisitedState() ? 1 : 0, 0, 0, null);
 		lastStep = null;
 		lastMi = null;
 	}
 
 	@Override
 	public void searchFinished(Search s){
-    if (!graph.containsVertex(currentNode)) {
-      String txt = s.getErrors().isEmpty() ? "End" : "Error";
-      NodeInfo finalNode = new NodeInfo(txt);
-      graph.addVertex(finalNode);
-      graph.addEdge(currentEdge, currentNode, finalNode, EdgeType.DIRECTED);
+    post(FINISHED, s.getErrors().isEmpty() ? 0 : 1, 0, 0, null);
+    if (ring != null){
+      awaitGraph();
+      if (ring.getDropped() > 0){
+        ShellManager.getLogger().log(Level.INFO, "the search graph left out " + ring.getDropped()
+                + " instructions, see shell.searchgraph.full");
+      }
     }
 	}
 
-
-
+  /**
+   * Only records a few ints per instruction, the text is created by the
+   * {@link InstructionTrace} when the edge is shown.
+   */
 	@Override
 	public void instructionExecuted(VM jvm, ThreadInfo ti, Instruction nextInsn, Instruction insn){
     MethodInfo mi = insn.getMethodInfo();
 
     if (stillInInit && mi == miMain) {
       stillInInit = false;
-      srcOwner = SOURCE;
-      mthOwner = METHOD;
-      insnOwner = INSTRUCTION;
     }
 
-    int nNoSrc = 0;
-
-    if (linePrefix == null) {
-      linePrefix = Integer.toString( ti.getId()) + " : ";
-    }
+    int flags = stillInInit ? InstructionTrace.INIT : 0;
 
+    // the line text is taken now, while the sourcepath is that of this run
+    String line = null;
     Step s = jvm.getLastStep(); // might have been skipped
     if ((s != null) && !s.equals(lastStep)) {
-      String line = s.getLineString();
-      if (line != null) {
-        if (nNoSrc > 0){
-          currentEdge.appendInstructionText(srcOwner,
-                  "[" + nNoSrc + " insn w/o sources]\n");
-        }
-
-        if (!s.sameSourceLocation(lastStep)){
-          currentEdge.appendInstructionText(srcOwner,
-                  Left.format(s.getLocationString(),30));
-          currentEdge.appendInstructionText(srcOwner, " : ");
-          currentEdge.appendInstructionText(srcOwner, line.trim());
-          currentEdge.appendInstructionText(srcOwner, "\n");
+      // a new step is recorded for the instruction that starts a new line
+      if (!s.sameSourceLocation(lastStep)){
+        line = s.getLineString();
+        if (line != null){
+          flags |= InstructionTrace.SOURCE;
         }
-        nNoSrc = 0;
-
-      } else { // no source
-        nNoSrc++;
       }
     }
 
     lastStep = s;
 
     if (mi != lastMi){
-      ClassInfo mci = mi.getClassInfo();
-      currentEdge.appendInstructionText(mthOwner, "      ");
-      if (mci != null) {
-        currentEdge.appendInstructionText(mthOwner, mci.getName());
-        currentEdge.appendInstructionText(mthOwner, ".");
-      }
-      currentEdge.appendInstructionText(mthOwner, mi.getUniqueName());
-      currentEdge.appendInstructionText(mthOwner, "\n");
+      flags |= InstructionTrace.METHOD;
+      lastMethod = symbols.idOf(mi);
       lastMi = mi;
     }
 
-    currentEdge.appendInstructionText(insnOwner,linePrefix);
-    currentEdge.appendInstructionText(insnOwner,"[");
-    currentEdge.appendInstructionText(insnOwner,String.valueOf(insn.getInstructionIndex()));
-    currentEdge.appendInstructionText(insnOwner,"] ");
-    currentEdge.appendInstructionText(insnOwner,insn.toString());
+    int ref = -1;
+    int cls = -1;
 
     // annotate (some of) the bytecode insns with their arguments
     if (insn instanceof InvokeInstruction) {
       MethodInfo callee = ((InvokeInstruction)insn).getInvokedMethod();
       if ((callee != null) && callee.isMJI()) { // Huhh? why do we have to check this?
-        currentEdge.appendInstructionText(srcOwner, " [native] ");
+        flags |= InstructionTrace.NATIVE;
       }
-    } else if (insn instanceof FieldInstruction) {
-      currentEdge.appendInstructionText(srcOwner, " ");
-      if (insn instanceof InstanceFieldInstruction){
-        InstanceFieldInstruction iinsn = (InstanceFieldInstruction)insn;
-        currentEdge.appendInstructionText(srcOwner, iinsn.getId(iinsn.getLastElementInfo()));
-      } else {
-        currentEdge.appendInstructionText(srcOwner, ((FieldInstruction)insn).getVariableId());
+    } else if (insn instanceof InstanceFieldInstruction) {
+      // the object is gone by the time the edge is shown
+      flags |= InstructionTrace.FIELD;
+      ElementInfo ei = ((InstanceFieldInstruction)insn).getLastElementInfo();
+      if (ei != null) {
+        ref = ei.getObjectRef();
+        cls = symbols.idOf(ei.getClassInfo());
       }
+    } else if (insn instanceof FieldInstruction) {
+      flags |= InstructionTrace.STATIC_FIELD;
     } else if (insn instanceof LockInstruction) {
-      LockInstruction lockInsn = (LockInstruction)insn;
-      int lockRef = lockInsn.getLastLockRef();
-      String lockObjectDescr = jvm.getElementInfo(lockRef).toString();
+      flags |= InstructionTrace.LOCK;
+      ref = ((LockInstruction)insn).getLastLockRef();
+      ElementInfo ei = jvm.getElementInfo(ref);
+      if (ei != null) {
+        cls = symbols.idOf(ei.getClassInfo());
+      }
+    }
+
+    if (ring != null) {
+      ring.publishDetail(INSN, ti.getId(), flags, lastMethod, insn.getInstructionIndex(), ref, cls, line);
+    } else {
+      addInstruction(ti.getId(), flags, lastMethod, insn.getInstructionIndex(), ref, cls, line);
+    }
+  }
+
+  private void post(int type, int a, int b, int c, Object ref){
+    if (ring != null) {
+      ring.publish(type, a, b, c, ref);
+    } else {
+      switch (type) {
+        case CG_SET: setNode((CGNode) ref, a != 0); break;
+        case CG_ADVANCED: startEdge((EdgeInfo) ref); break;
+        case BACKTRACKED: backtrack(a != 0); break;
+        case FINISHED: finish(a != 0); break;
+      }
+    }
+  }
+
+  //--- the graph building, in the builder thread if there is a ring
 
-      currentEdge.appendInstructionText(srcOwner, linePrefix);
-      currentEdge.appendInstructionText(srcOwner, lockObjectDescr);
+  private void build(){
+    try {
+      while (!finished) {
+        if (ring.consume(handler) == 0) {
+          if (ring.isClosed()) {
+            break; // the run is over without a searchFinished
+          }
+          ring.await();
+        }
+      }
+    } catch (RuntimeException x) {
+      ShellManager.getLogger().log(Level.SEVERE, "building the search graph failed", x);
+    } finally {
+      ring.close();
+    }
+  }
+
+  /**
+   * Ends the graph building of the run, has to be called once JPF returned
+   * (or threw), since the builder thread only ends by itself if the search
+   * finished. The events that were published so far still go into the graph.
+   */
+  public void stop(){
+    if (ring != null) {
+      ring.close();
+    }
+  }
+
+  /**
+   * Stops the tracker and deletes its spill file, once its graph is not
+   * needed anymore. The instructions of spilled edges can't be shown after
+   * that.
+   */
+  public void dispose(){
+    stop();
+    Thread b = builder;
+    if (b != null) {
+      try {
+        b.join(); // it might still be spilling
+      } catch (InterruptedException x) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    TraceSpill s = spill;
+    if (s != null) {
+      s.close();
+    }
+  }
+
+  /**
+   * Waits until the builder has handled every event so far.
+   */
+  private void awaitGraph(){
+    Thread b = builder;
+    while (b != null && b.isAlive() && !ring.isDrained()) {
+      LockSupport.parkNanos(100000);
+    }
+  }
+
+  private InstructionTrace getTrace(){
+    if (currentTrace == null) {
+      currentTrace = currentEdge.startTrace(symbols, currentThread);
+    }
+    return currentTrace;
+  }
+
+  private void addInstruction(int thread, int flags, int method, int index, int ref, int cls, String line){
+    if (currentTrace == null) {
+      currentThread = thread;
+    }
+    int lineId = (line != null) ? symbols.idOfLine(line) : -1;
+    if ((flags & (InstructionTrace.FIELD | InstructionTrace.LOCK)) != 0) {
+      getTrace().add(flags, method, index, lineId, ref, cls);
+    } else {
+      getTrace().add(flags, method, index, lineId);
+    }
+  }
+
+  private void setNode(CGNode cgNode, boolean isNew){
+    if (isNew) {
+      cgNode.treeId = tree.add(currentNode, SearchTree.CHOICE, cgNode, currentEdge);
+      edgePlaced = true;
     }
+    currentNode = cgNode.treeId;
+  }
+
+  private void startEdge(EdgeInfo edge){
+    if (currentTrace != null && heapBudget > 0) {
+      keepOrSpill(currentTrace);
+    }
+    currentEdge = edge;
+    currentTrace = null;
+    edgePlaced = false;
+  }
 
-    currentEdge.appendInstructionText(insnOwner, "\n");
+  /**
+   * Moves a finished trace to the spill file if it does not fit into the
+   * heap budget anymore.
+   */
+  private void keepOrSpill(InstructionTrace trace){
+    long bytes = trace.getHeapBytes();
+    if (heapBytes + bytes <= heapBudget || spillFailed) {
+      heapBytes += bytes;
+      return;
+    }
+    try {
+      if (spill == null) {
+        spill = new TraceSpill(spillDir);
+        ShellManager.getLogger().log(Level.INFO, "the search graph is over shell.searchgraph.heap_budget_mb,"
+                + " spilling instruction traces");
+      }
+      trace.spillTo(spill);
+    } catch (IOException x) {
+      //keep them all then
+      heapBytes += bytes;
+      spillFailed = true;
+      ShellManager.getLogger().log(Level.WARNING, "cannot spill the search graph traces", x);
+    }
+  }
+
+  private void backtrack(boolean visited){
+    if (!edgePlaced) { //This is the first backtrack
+      tree.add(currentNode, visited ? SearchTree.VISITED : SearchTree.IGNORED, null, currentEdge);
+      edgePlaced = true;
+      leftPath(currentEdge);
+    }else{
+      //Ok we're backing up multiple times up the path now, go up 1
+      int parent = tree.getParent(currentNode);
+      if (parent != SearchTree.NONE) {
+        leftPath(tree.getInEdge(currentNode));
+        currentNode = parent;
+      }
+    }
+  }
+
+  /**
+   * In flight recorder mode, keeps the trace of an edge the search
+   * backtracked from only as long as it is one of the last maxRecent ones.
+   * DFS never comes back to an edge once it left it.
+   */
+  private void leftPath(EdgeInfo edge){
+    if (recent != null) {
+      recent.addLast(edge);
+      if (recent.size() > maxRecent) {
+        recent.removeFirst().dropTrace();
+      }
+    }
+  }
+
+  private void finish(boolean error){
+    if (!tree.contains(currentNode)) {
+      tree.add(currentNode, error ? SearchTree.ERROR : SearchTree.END, null, currentEdge);
+    }
+    finished = true;
   }
 
   public int getThreadCount() {
     return highestThread + 1;
   }
 
-	public DirectedSparseGraph<NodeInfo, EdgeInfo> getGraph() {
+  /**
+   * @return the graph, once the builder has caught up with the search
+   */
+	public synchronized DirectedSparseGraph<NodeInfo, EdgeInfo> getGraph() {
+    if (ring != null) {
+      awaitGraph();
+    }
+    if (graph == null || graphSize != tree.size()) {
+      graph = tree.toGraph();
+      graphSize = tree.size();
+    }
 		return graph;
 	}
-}
\ No newline at end of file
+}
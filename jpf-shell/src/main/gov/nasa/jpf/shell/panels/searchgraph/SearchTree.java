@@ -0,0 +1,99 @@
+package gov.nasa.jpf.shell.panels.searchgraph;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import java.util.Arrays;
+
+/**
+ * The search graph while it is captured. Every node but the root is added
+ * with the one edge that leads to it, so the graph is a tree and a node and
+ * the edge into it share an int id. The tree is kept in parallel arrays:
+ * the parent and kind of each node, and only the objects that cannot be made
+ * up again, the CGNodes and EdgeInfos. The
+ * Visited, Ignored, End and Error leaves, about half of all nodes, have no
+ * object until {@link #toGraph()} makes the JUNG graph for the display.
+ */
+final class SearchTree {
+
+  static final int NONE = -1;
+
+  //the kinds of nodes
+  static final byte ROOT = 0;
+  static final byte CHOICE = 1;
+  static final byte VISITED = 2;
+  static final byte IGNORED = 3;
+  static final byte END = 4;
+  static final byte ERROR = 5;
+
+  private static final String[] LEAF_TEXT = { null, null, "Visited", "Ignored", "End", "Error" };
+
+  private int size = 0;
+  private int[] parent;
+  private byte[] kind;
+  private NodeInfo[] nodes;
+  private EdgeInfo[] inEdges;
+
+  SearchTree(NodeInfo root){
+    int n = 1024;
+    parent = new int[n];
+    kind = new byte[n];
+    nodes = new NodeInfo[n];
+    inEdges = new EdgeInfo[n];
+    add(NONE, ROOT, root, null);
+  }
+
+  /**
+   * Adds a node below parentId, with the edge that leads to it.
+   * @return the id of the node and the edge
+   */
+  int add(int parentId, byte k, NodeInfo node, EdgeInfo edge){
+    if (size == parent.length){
+      grow();
+    }
+    int id = size++;
+    parent[id] = parentId;
+    kind[id] = k;
+    nodes[id] = node;
+    inEdges[id] = edge;
+    return id;
+  }
+
+  private void grow(){
+    int n = parent.length * 2;
+    parent = Arrays.copyOf(parent, n);
+    kind = Arrays.copyOf(kind, n);
+    nodes = Arrays.copyOf(nodes, n);
+    inEdges = Arrays.copyOf(inEdges, n);
+  }
+
+  int size(){ return size; }
+  boolean contains(int id){ return id >= 0 && id < size; }
+  int getParent(int id){ return parent[id]; }
+
+  /**
+   * @return the edge into the node, null for the root
+   */
+  EdgeInfo getInEdge(int id){
+    return inEdges[id];
+  }
+
+  /**
+   * @return the JUNG graph of the tree, with a new NodeInfo for every leaf
+   */
+  DirectedSparseGraph<NodeInfo, EdgeInfo> toGraph(){
+    DirectedSparseGraph<NodeInfo, EdgeInfo> graph = new DirectedSparseGraph<NodeInfo, EdgeInfo>();
+    NodeInfo[] all = new NodeInfo[size];
+    for (int id = 0; id < size; id++){
+      NodeInfo n = nodes[id];
+      if (n == null){
+        n = new NodeInfo(LEAF_TEXT[kind[id]]);
+      }
+      all[id] = n;
+      graph.addVertex(n);
+      if (parent[id] != NONE){
+        graph.addEdge(inEdges[id], all[parent[id]], n, EdgeType.DIRECTED);
+      }
+    }
+    return graph;
+  }
+}
@@ -0,0 +1,225 @@
+package gov.nasa.jpf.shell.panels.searchgraph;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the events of the {@link SearchGraphTracker} from the JPF thread to
+ * the thread that builds the graph. There is exactly one thread that
+ * publishes and one that consumes, so the ring needs no locks: an event is
+ * a fixed slot of {@link #STRIDE} ints (and one object), the publisher only
+ * writes the slot and moves its position, the consumer only moves its own.
+ * <br>
+ * The slot of an event is
+ * <pre>
+ *   type, dropped, a, b, c, d, e, f
+ * </pre>
+ * where dropped is the number of detail events that were dropped right
+ * before this one and a..f depend on the type.<br>
+ *
+ * What happens when the ring is full depends on the {@link Policy}. Only
+ * detail events (the instructions) can be dropped, all others always wait
+ * for room. A consumer that has nothing to do parks in {@link #await()} until
+ * the publisher wakes it up.
+ */
+final class TraceRing {
+
+  static final int STRIDE = 8;
+
+  static final int TYPE = 0;
+  static final int DROPPED = 1;
+  static final int A = 2;
+
+  static final long MAX_PARK_NANOS = 1000000;
+
+  enum Policy {
+    /** wait until the consumer makes room */
+    BLOCK,
+    /** drop the detail events that do not fit */
+    DROP,
+    /** once the ring is 3/4 full only publish every n-th detail event, drop the ones that do not fit */
+    SAMPLE
+  }
+
+  interface Handler {
+    /**
+     * Called in the consumer thread for every event, with the slot of the
+     * event starting at event[offset]
+     */
+    void handle(int[] event, int offset, Object ref);
+  }
+
+  private final int[] ints;
+  private final Object[] refs;
+  private final int capacity;
+  private final int mask;
+  private final Policy policy;
+  private final int sample;
+
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong consumed = new AtomicLong();
+  private volatile boolean closed = false;
+  //the consumer while it is parked in await()
+  private volatile Thread sleeper;
+
+  //only used by the publisher
+  private long tail = 0;
+  private long cachedHead = 0;
+  private int dropped = 0;
+  private int sampled = 0;
+  private long totalDropped = 0;
+
+  /**
+   * @param size the number of events, rounded up to a power of 2
+   * @param sample every how many detail events are kept by {@link Policy#SAMPLE}
+   */
+  TraceRing(int size, Policy policy, int sample){
+    int c = Integer.highestOneBit(Math.max(16, size - 1)) << 1;
+    capacity = c;
+    mask = c - 1;
+    ints = new int[c * STRIDE];
+    refs = new Object[c];
+    this.policy = policy;
+    this.sample = Math.max(1, sample);
+  }
+
+  /**
+   * Publishes a detail event, which might be dropped.
+   */
+  void publishDetail(int type, int a, int b, int c, int d, int e, int f, Object ref){
+    if (!claim(true)){
+      return;
+    }
+    int i = (int) (tail & mask);
+    refs[i] = ref;
+    int o = i * STRIDE;
+    ints[o] = type;
+    ints[o + 1] = dropped;
+    ints[o + 2] = a;
+    ints[o + 3] = b;
+    ints[o + 4] = c;
+    ints[o + 5] = d;
+    ints[o + 6] = e;
+    ints[o + 7] = f;
+    dropped = 0;
+    published.lazySet(++tail);
+    wakeUp();
+  }
+
+  /**
+   * Publishes an event that is never dropped.
+   */
+  void publish(int type, int a, int b, int c, Object ref){
+    if (!claim(false)){
+      return; // the consumer is gone
+    }
+    int i = (int) (tail & mask);
+    int o = i * STRIDE;
+    ints[o] = type;
+    ints[o + 1] = dropped;
+    ints[o + 2] = a;
+    ints[o + 3] = b;
+    ints[o + 4] = c;
+    refs[i] = ref;
+    dropped = 0;
+    published.lazySet(++tail);
+    wakeUp();
+  }
+
+  private void wakeUp(){
+    Thread s = sleeper;
+    if (s != null){
+      LockSupport.unpark(s);
+    }
+  }
+
+  /**
+   * @return true if there is room for one more event at tail
+   */
+  private boolean claim(boolean detail){
+    if (detail && policy == Policy.SAMPLE && tail - cachedHead >= capacity - capacity / 4){
+      cachedHead = consumed.get();
+      if (tail - cachedHead >= capacity - capacity / 4 && (++sampled % sample) != 0){
+        drop();
+        return false;
+      }
+    }
+    if (tail - cachedHead < capacity){
+      return true;
+    }
+    cachedHead = consumed.get();
+    while (tail - cachedHead >= capacity){
+      if (closed || (detail && policy != Policy.BLOCK)){
+        drop();
+        return false;
+      }
+      LockSupport.parkNanos(10000);
+      cachedHead = consumed.get();
+    }
+    return true;
+  }
+
+  private void drop(){
+    dropped++;
+    totalDropped++;
+  }
+
+  /**
+   * @return the number of detail events that were dropped so far, only
+   *         exact in the publisher thread
+   */
+  long getDropped(){
+    return totalDropped;
+  }
+
+  /**
+   * Hands all published events to handler, in the consumer thread.
+   * @return the number of events
+   */
+  int consume(Handler handler){
+    long head = consumed.get();
+    long end = published.get();
+    for (long h = head; h < end; h++){
+      int i = (int) (h & mask);
+      Object ref = refs[i];
+      refs[i] = null;
+      handler.handle(ints, i * STRIDE, ref);
+      consumed.lazySet(h + 1);
+    }
+    return (int) (end - head);
+  }
+
+  /**
+   * Parks the consumer until something is published or the ring is closed.
+   * The publisher does not fence between publishing and looking for a
+   * sleeper, so in the rare case that it misses one the consumer wakes up
+   * on its own after {@link #MAX_PARK_NANOS}.
+   */
+  void await(){
+    sleeper = Thread.currentThread();
+    if (isDrained() && !closed){
+      LockSupport.parkNanos(this, MAX_PARK_NANOS);
+    }
+    sleeper = null;
+  }
+
+  /**
+   * @return true if the consumer has handled every published event
+   */
+  boolean isDrained(){
+    return consumed.get() == published.get();
+  }
+
+  /**
+   * Tells the publisher that nobody consumes anymore, so that it never waits
+   * for room again, and the consumer that nothing more is published.
+   */
+  void close(){
+    closed = true;
+    wakeUp();
+  }
+
+  boolean isClosed(){
+    return closed;
+  }
+}
@@ -0,0 +1,96 @@
+package gov.nasa.jpf.shell.panels.searchgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file for the {@link InstructionTrace}s that do not fit into
+ * the heap budget of the {@link SearchGraphTracker}. The file is mapped in
+ * segments of {@link #SEGMENT_BYTES} (or more for a bigger trace), a trace
+ * never spans two of them. Reading a trace back gives a view of the mapped
+ * segment, nothing is copied, the OS page cache decides what is in memory.
+ * <br>
+ * The file is deleted by {@link #close()} once the graph of its traces is
+ * not shown anymore, or when the JVM exits. The mappings are not unmapped
+ * by force, since a trace might just be rendered from one, they go away
+ * with the last trace that refers to them.
+ */
+final class TraceSpill {
+
+  static final int SEGMENT_BYTES = 64 << 20;
+
+  private final File path;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final List<IntBuffer> segments = new ArrayList<IntBuffer>();
+  private IntBuffer current;
+  private long length = 0;
+
+  TraceSpill(File dir) throws IOException {
+    path = File.createTempFile("jpf-searchgraph", ".spill", dir);
+    path.deleteOnExit();
+    file = new RandomAccessFile(path, "rw");
+    channel = file.getChannel();
+  }
+
+  /**
+   * @return where the ints are, the segment in the upper and the position in
+   *         the lower 32 bits
+   */
+  synchronized long append(int[] data, int n) throws IOException {
+    if (!channel.isOpen()){
+      throw new IOException("the spill file is closed");
+    }
+    if (current == null || current.remaining() < n){
+      map(Math.max(SEGMENT_BYTES / 4, n));
+    }
+    long offset = ((long) (segments.size() - 1) << 32) | current.position();
+    current.put(data, 0, n);
+    return offset;
+  }
+
+  private void map(int ints) throws IOException {
+    long bytes = ints * 4L;
+    IntBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, length, bytes)
+                               .order(ByteOrder.nativeOrder()).asIntBuffer();
+    length += bytes;
+    segments.add(segment);
+    current = segment;
+  }
+
+  /**
+   * @return the n ints at offset, as a view of the mapped file, or null if
+   *         the file is closed
+   */
+  synchronized IntBuffer read(long offset, int n){
+    if (segments.isEmpty()){
+      return null;
+    }
+    IntBuffer b = segments.get((int) (offset >>> 32)).duplicate();
+    int pos = (int) offset;
+    b.limit(pos + n);
+    b.position(pos);
+    return b.slice();
+  }
+
+  /**
+   * Closes and deletes the file, the traces in it can't be read anymore.
+   */
+  synchronized void close(){
+    segments.clear();
+    current = null;
+    try {
+      file.close();
+    } catch (IOException x){
+      // we don't care, it is deleted anyway
+    }
+    //fails on systems that don't delete mapped files, deleteOnExit is still there
+    path.delete();
+  }
+}
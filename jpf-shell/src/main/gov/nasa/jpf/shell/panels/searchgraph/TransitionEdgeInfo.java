@@ -19,6 +19,15 @@ public class TransitionEdgeInfo extends EdgeInfo {
     }
   }
 
+  /**
+   * Recreates an edge that was captured somewhere else, e.g. by a
+   * {@link gov.nasa.jpf.shell.worker.VerifyWorker} process.
+   */
+  public TransitionEdgeInfo(String pathText, String edgeText){
+    super(pathText);
+    this.edgeText = edgeText;
+  }
+
   @Override
   public String getEdgeText(){
     return edgeText;
@@ -0,0 +1,484 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.server;
+
+import gov.nasa.jpf.shell.ShellCommand;
+import gov.nasa.jpf.shell.ShellCommandListener;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.commands.VerifyCommand;
+import gov.nasa.jpf.shell.listeners.VerifyCommandListener;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The server behind "shell.port". It accepts any number of IDE or monitoring
+ * clients and is run by a single selector thread, so neither accepting nor
+ * writing ever blocks the thread that publishes an event (which usually is
+ * a command thread running JPF). Every client has a bounded send queue, if a
+ * client does not keep up its frames are dropped and it is told so later.
+ * <br>
+ *
+ * Clients start out in text mode, in which they only get the
+ * <code>[LINK]path:line</code> lines and commands that the shell always sent
+ * to its single IDE connection. A client that sends {@link #HELLO} switches
+ * to the framed protocol and receives all events. Every frame is
+ * <pre>
+ *   int  length   (of the rest of the frame)
+ *   byte type     (one of the constants below)
+ *   int  runId    (0 if not related to a command run)
+ *   ...  payload
+ * </pre>
+ * in network byte order. The payload of {@link #STATISTICS} is eight longs:
+ * elapsed ms, new states, visited states, backtracked, end states, max depth,
+ * instructions and max memory. The payload of {@link #DROPPED} is an int
+ * holding the number of frames that were dropped. All other payloads are
+ * UTF-8 text.
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.port - the port to listen on</li>
+ *   <li>shell.port.queue_size - max number of frames waiting for a client</li>
+ *   <li>shell.update_interval - how often statistics are sent (ms)</li>
+ * </ul>
+ */
+public class ShellEventServer implements Runnable {
+
+  /** sent by a client to switch to the framed protocol */
+  public static final byte[] HELLO = { 'J', 'P', 'F', 'E' };
+
+  public static final byte LINK = 1;
+  public static final byte COMMAND = 2;
+  public static final byte RUN_STARTED = 3;
+  public static final byte RUN_FINISHED = 4;
+  public static final byte STATISTICS = 5;
+  public static final byte ERROR = 6;
+  public static final byte DROPPED = 7;
+
+  static final int HEADER_SIZE = 9;
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final int queueSize;
+  private final int statisticsInterval;
+  private volatile boolean running = true;
+
+  private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+  //clients that got new frames, their write interest is set by the selector thread
+  private final ConcurrentLinkedQueue<Client> writeRequests = new ConcurrentLinkedQueue<Client>();
+
+  private ShellManager manager;
+
+  private final AtomicInteger nextRunId = new AtomicInteger(1);
+  private final Map<ShellCommand, Integer> runIds = new IdentityHashMap<ShellCommand, Integer>();
+
+  public ShellEventServer(int port, int queueSize, int statisticsInterval) throws IOException {
+    this.queueSize = queueSize;
+    this.statisticsInterval = statisticsInterval;
+
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(port));
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * Registers the listeners that turn command runs into events.
+   */
+  public void addListeners(ShellManager manager){
+    this.manager = manager;
+    manager.addCommandListener(ShellCommand.class, new CommandEvents());
+    manager.addCommandListener(VerifyCommand.class, new VerifyEvents());
+  }
+
+  /**
+   * @return the port the server is listening on
+   */
+  public int getPort(){
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * @return true if at least one client is connected
+   */
+  public boolean hasClients(){
+    return !clients.isEmpty();
+  }
+
+  /**
+   * The selector loop, runs until {@link #close()} is called.
+   */
+  public void run(){
+    try {
+      while (running){
+        selector.select();
+
+        Client c;
+        while ((c = writeRequests.poll()) != null){
+          if (c.key.isValid()){
+            c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+          }
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()){
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()){
+            continue;
+          }
+          if (key.isAcceptable()){
+            accept();
+          } else {
+            Client client = (Client) key.attachment();
+            try {
+              if (key.isReadable()){
+                client.read();
+              }
+              if (key.isValid() && key.isWritable()){
+                client.flush();
+              }
+            } catch (IOException x){
+              client.close();
+            }
+          }
+        }
+      }
+    } catch (ClosedSelectorException x){
+      // closed while selecting
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.SEVERE, "shell port failed", x);
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel ch = serverChannel.accept();
+    if (ch != null){
+      ch.configureBlocking(false);
+      ch.socket().setTcpNoDelay(true);
+      Client client = new Client(ch);
+      client.key = ch.register(selector, SelectionKey.OP_READ, client);
+      clients.add(client);
+    }
+  }
+
+  /**
+   * Stops the selector thread and disconnects all clients.
+   */
+  public void close(){
+    running = false;
+    for (Client c : clients){
+      c.close();
+    }
+    try {
+      serverChannel.close();
+      selector.close();
+    } catch (IOException x){
+      // we don't care
+    }
+  }
+
+  //---------------------------------------------------------- publishing
+
+  /**
+   * Sends a link to all clients, text clients get it as
+   * <code>[LINK]destination</code> line.
+   */
+  public void publishLink(String destination){
+    publish(frame(LINK, 0, destination), ("[LINK]" + destination + "\n").getBytes(UTF8));
+  }
+
+  /**
+   * Sends a raw command to all clients.
+   */
+  public void publishCommand(String command){
+    publish(frame(COMMAND, 0, command), command.getBytes(UTF8));
+  }
+
+  /**
+   * Sends an event to all framed clients.
+   */
+  public void publish(byte type, int runId, String text){
+    if (hasFramedClients()){
+      publish(frame(type, runId, text), null);
+    }
+  }
+
+  private boolean hasFramedClients(){
+    for (Client c : clients){
+      if (c.framed){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues the frame for all framed clients and the text for all others
+   * (if not null). Never blocks.
+   */
+  private void publish(ByteBuffer frame, byte[] text){
+    ByteBuffer textBuffer = (text != null) ? ByteBuffer.wrap(text) : null;
+    boolean wakeup = false;
+    for (Client c : clients){
+      ByteBuffer b = c.framed ? frame : textBuffer;
+      if (b != null && c.offer(b.duplicate())){
+        writeRequests.add(c);
+        wakeup = true;
+      }
+    }
+    if (wakeup){
+      selector.wakeup();
+    }
+  }
+
+  static ByteBuffer frame(byte type, int runId, String text){
+    byte[] payload = text.getBytes(UTF8);
+    ByteBuffer b = allocateFrame(type, runId, payload.length);
+    b.put(payload);
+    b.flip();
+    return b;
+  }
+
+  static ByteBuffer allocateFrame(byte type, int runId, int payloadSize){
+    ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+    b.putInt(HEADER_SIZE - 4 + payloadSize);
+    b.put(type);
+    b.putInt(runId);
+    return b;
+  }
+
+  private int startRun(ShellCommand command){
+    int id = nextRunId.getAndIncrement();
+    synchronized (runIds){
+      runIds.put(command, id);
+    }
+    return id;
+  }
+
+  private int getRunId(ShellCommand command){
+    synchronized (runIds){
+      Integer id = runIds.get(command);
+      return (id != null) ? id : 0;
+    }
+  }
+
+  private int endRun(ShellCommand command){
+    synchronized (runIds){
+      Integer id = runIds.remove(command);
+      return (id != null) ? id : 0;
+    }
+  }
+
+  //---------------------------------------------------------- clients
+
+  class Client {
+    final SocketChannel channel;
+    SelectionKey key;
+    volatile boolean framed = false;
+
+    private final ArrayBlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<ByteBuffer>(queueSize);
+    private final AtomicInteger dropped = new AtomicInteger();
+    private ByteBuffer current;
+    private final ByteBuffer in = ByteBuffer.allocate(64);
+    private int helloMatched = 0;
+
+    Client(SocketChannel channel){
+      this.channel = channel;
+    }
+
+    boolean offer(ByteBuffer b){
+      if (queue.offer(b)){
+        return true;
+      }
+      dropped.incrementAndGet();
+      return false;
+    }
+
+    /**
+     * Looks for the HELLO, everything else a client sends is ignored.
+     */
+    void read() throws IOException {
+      in.clear();
+      int n = channel.read(in);
+      if (n < 0){
+        close();
+        return;
+      }
+      for (int i = 0; i < n && !framed; i++){
+        if (in.get(i) == HELLO[helloMatched]){
+          if (++helloMatched == HELLO.length){
+            framed = true;
+          }
+        } else {
+          helloMatched = (in.get(i) == HELLO[0]) ? 1 : 0;
+        }
+      }
+    }
+
+    /**
+     * Writes as much as the socket takes without blocking. Only called by
+     * the selector thread.
+     */
+    void flush() throws IOException {
+      while (true){
+        if (current == null){
+          current = queue.poll();
+          if (current == null){
+            int n = dropped.getAndSet(0);
+            if (n > 0 && framed){
+              current = allocateFrame(DROPPED, 0, 4);
+              current.putInt(n);
+              current.flip();
+            } else {
+              key.interestOps(SelectionKey.OP_READ);
+              return;
+            }
+          }
+        }
+        channel.write(current);
+        if (current.hasRemaining()){
+          return; // socket is full, wait for the next OP_WRITE
+        }
+        current = null;
+      }
+    }
+
+    void close(){
+      clients.remove(this);
+      if (key != null){
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException x){
+        // we don't care
+      }
+    }
+  }
+
+  //---------------------------------------------------------- event sources
+
+  /**
+   * Sends RUN_STARTED and RUN_FINISHED for every command, for VerifyCommands
+   * also one ERROR per property violation JPF found.
+   */
+  class CommandEvents implements ShellCommandListener {
+    public void preCommand(ShellCommand command){
+      int id = startRun(command);
+      publish(RUN_STARTED, id, command.getName());
+    }
+
+    public void postCommand(ShellCommand command){
+      int id = endRun(command);
+      String status = "done";
+
+      if (command instanceof VerifyCommand){
+        VerifyCommand verify = (VerifyCommand) command;
+        if (verify.errorOccured()){
+          status = "failed";
+          publish(ERROR, id, "exception during verification, see the shell log");
+        } else {
+          List<String> errors = verify.getErrorDescriptions();
+          if (!errors.isEmpty()){
+            status = "errors=" + errors.size();
+            for (String e : errors){
+              publish(ERROR, id, e);
+            }
+          }
+        }
+      }
+      publish(RUN_FINISHED, id, status);
+    }
+  }
+
+  /**
+   * Sends a STATISTICS frame every shell.update_interval ms while JPF runs.
+   * The sampler of a run is stopped when its command is done.
+   */
+  class VerifyEvents implements VerifyCommandListener {
+    private final Map<VerifyCommand, Future<?>> samplers = new IdentityHashMap<VerifyCommand, Future<?>>();
+
+    public void preCommand(VerifyCommand command){}
+    public void exceptionDuringVerify(Exception ex){}
+
+    public void postCommand(VerifyCommand command){
+      Future<?> sampler;
+      synchronized (samplers){
+        sampler = samplers.remove(command);
+      }
+      if (sampler != null){
+        sampler.cancel(true);
+      }
+    }
+
+    public void afterJPFInit(final VerifyCommand command){
+      final int id = getRunId(command);
+
+      Future<?> sampler = manager.getExecutor().execute(new Runnable(){
+        public void run(){
+          while (running && !command.isSearchDone()){
+            try {
+              Thread.sleep(statisticsInterval);
+            } catch (InterruptedException ix){
+              return;
+            }
+            long[] values = command.getStatistics();
+            if (values != null && hasFramedClients()){
+              publish(statistics(id, values), null);
+            }
+          }
+        }
+      });
+      synchronized (samplers){
+        Future<?> last = samplers.put(command, sampler);
+        if (last != null){
+          last.cancel(true);
+        }
+      }
+    }
+  }
+
+  static ByteBuffer statistics(int runId, long[] values){
+    ByteBuffer b = allocateFrame(STATISTICS, runId, 8 * values.length);
+    for (long v : values){
+      b.putLong(v);
+    }
+    b.flip();
+    return b;
+  }
+}
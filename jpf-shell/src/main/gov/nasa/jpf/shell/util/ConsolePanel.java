@@ -235,6 +235,14 @@ public class ConsolePanel extends ShellPanel{
 		showSTDIN.setEnabled(true);
   }
 
+  /**
+   * @return true if the panel shows the streams it was last hooked to, false
+   *         if it was never hooked or does not capture streams
+   */
+  public boolean isHooked(){
+    return hooked;
+  }
+
   /**
    * Stops listening to all of the streams that this panel is hooked to.
    */
@@ -56,12 +56,7 @@ public class RunCommandPanel extends JPanel {
     JButton commandButton = new JButton(cmd.getName(), cmd.getIcon());
     commandButton.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent ae) {
-        new Thread(){
-          @Override
-          public void run(){
-            ShellManager.getManager().fireCommand(cmd);
-          }
-        }.start();
+        ShellManager.getManager().fireCommand(cmd);
       }
     });
     add(commandButton);
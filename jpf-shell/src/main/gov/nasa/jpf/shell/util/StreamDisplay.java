@@ -35,7 +35,7 @@ public class StreamDisplay extends FilterableTextComponent{
     setVisible(is, isVisible);
     StreamReader or = new StreamReader(is);
 		streams.put(is, or);
-    or.start();
+    ShellManager.getManager().getExecutor().execute(or);
 	}
 
 
@@ -53,13 +53,12 @@ public class StreamDisplay extends FilterableTextComponent{
 	//Arggg three inner classes coming up!!
 	//----------------------------------------------------------------------------
 
-	private class StreamReader extends Thread{
+	private class StreamReader implements Runnable{
 
     private InputStream is;
-		private boolean run = true;
+		private volatile boolean run = true;
 
     public StreamReader(InputStream sd){
-      super("OutputReader - " + streams.size());
       this.is = sd;
     }
 
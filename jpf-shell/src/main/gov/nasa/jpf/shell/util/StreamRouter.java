@@ -0,0 +1,151 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Replaces System.out/err/in with streams that forward to a per-thread
+ * target. This is what allows several verifications to run at the same time,
+ * each one with its own console: JPF (and the system under test it executes)
+ * runs entirely in the command thread, so routing by thread separates the
+ * output of concurrent runs. Threads that are not routed use the original
+ * system streams.
+ */
+public class StreamRouter {
+
+  private static final ThreadLocal<OutputStream> outTarget = new ThreadLocal<OutputStream>();
+  private static final ThreadLocal<OutputStream> errTarget = new ThreadLocal<OutputStream>();
+  private static final ThreadLocal<InputStream> inTarget = new ThreadLocal<InputStream>();
+
+  private static boolean installed = false;
+
+  private StreamRouter(){}
+
+  /**
+   * Installs the routing system streams. Only the first call has an effect.
+   */
+  public static synchronized void install(){
+    if (!installed){
+      System.setOut(new PrintStream(new RoutedOutputStream(System.out, outTarget), true));
+      System.setErr(new PrintStream(new RoutedOutputStream(System.err, errTarget), true));
+      System.setIn(new RoutedInputStream(System.in, inTarget));
+      installed = true;
+    }
+  }
+
+  /**
+   * Routes the system streams of the calling thread to the given streams
+   * until {@link #unroute()} is called.
+   */
+  public static void route(OutputStream out, OutputStream err, InputStream in){
+    install();
+    outTarget.set(out);
+    errTarget.set(err);
+    inTarget.set(in);
+  }
+
+  /**
+   * Sends the system streams of the calling thread back to the originals.
+   */
+  public static void unroute(){
+    outTarget.remove();
+    errTarget.remove();
+    inTarget.remove();
+  }
+
+  /**
+   * @return the stream System.out of the calling thread writes to. Other
+   *         threads can use it to write into the same console.
+   */
+  public static OutputStream getOut(){
+    OutputStream os = outTarget.get();
+    return (os != null) ? os : System.out;
+  }
+
+  /**
+   * @return the stream System.err of the calling thread writes to
+   */
+  public static OutputStream getErr(){
+    OutputStream os = errTarget.get();
+    return (os != null) ? os : System.err;
+  }
+
+  static class RoutedOutputStream extends OutputStream {
+    private final OutputStream original;
+    private final ThreadLocal<OutputStream> target;
+
+    RoutedOutputStream(OutputStream original, ThreadLocal<OutputStream> target){
+      this.original = original;
+      this.target = target;
+    }
+
+    private OutputStream get(){
+      OutputStream os = target.get();
+      return (os != null) ? os : original;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      get().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      get().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      get().flush();
+    }
+  }
+
+  static class RoutedInputStream extends InputStream {
+    private final InputStream original;
+    private final ThreadLocal<InputStream> target;
+
+    RoutedInputStream(InputStream original, ThreadLocal<InputStream> target){
+      this.original = original;
+      this.target = target;
+    }
+
+    private InputStream get(){
+      InputStream is = target.get();
+      return (is != null) ? is : original;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return get().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return get().read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return get().available();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The main class of the JVMs that the TestCommand keeps warm (see
+ * shell.test.pool). It loads, but does not initialize, all classes of the
+ * classpath it is given, then waits for the request line
+ * <pre>
+ *   run TAB main-class TAB arg1 TAB arg2 ...
+ * </pre>
+ * on stdin (all fields URL encoded) and runs the main method of that class
+ * in its main thread, as if the JVM had been started for it. Everything
+ * after the request line on stdin is left to the application.<br>
+ *
+ * If the system property {@link #STATS_PROPERTY} names a file, the CPU time
+ * and peak resident set size of the JVM are written to it when the JVM exits,
+ * as "cpu-ns rss-bytes" (-1 where the platform does not tell).<br>
+ *
+ * Only uses java.*, so that it can be put at the end of the application's
+ * classpath without bringing anything else along.
+ */
+public class WarmLauncher {
+
+  public static final String RUN = "run";
+  public static final String STATS_PROPERTY = "jpf.shell.stats";
+
+  public static void main(String[] args) throws Throwable {
+    String stats = System.getProperty(STATS_PROPERTY);
+    if (stats != null){
+      writeStatsOnExit(new File(stats));
+    }
+    if (args.length > 0){
+      preload(args[0]);
+    }
+
+    String line = readLine(System.in);
+    if (line == null){
+      return; // the shell dropped us
+    }
+    String[] fields = line.split("\t", -1);
+    if (fields.length < 2 || !RUN.equals(fields[0])){
+      System.err.println("WarmLauncher: bad request \"" + line + '"');
+      System.exit(2);
+    }
+    String[] appArgs = new String[fields.length - 2];
+    for (int i = 0; i < appArgs.length; i++){
+      appArgs[i] = URLDecoder.decode(fields[i + 2], "UTF-8");
+    }
+
+    Class<?> cls = Class.forName(URLDecoder.decode(fields[1], "UTF-8"), true, ClassLoader.getSystemClassLoader());
+    Method main = cls.getMethod("main", String[].class);
+    if (!Modifier.isStatic(main.getModifiers())){
+      System.err.println("Error: main method is not static in class " + cls.getName());
+      System.exit(1);
+    }
+    main.setAccessible(true);
+    try {
+      main.invoke(null, (Object) appArgs);
+    } catch (InvocationTargetException x){
+      throw x.getCause(); // reported like an exception of a plain JVM's main
+    }
+  }
+
+  /**
+   * @return the request line for running main of target with args
+   */
+  public static String createRequest(String target, String[] args) throws IOException {
+    StringBuilder sb = new StringBuilder(RUN);
+    sb.append('\t').append(URLEncoder.encode(target, "UTF-8"));
+    if (args != null){
+      for (String a : args){
+        sb.append('\t').append(URLEncoder.encode(a, "UTF-8"));
+      }
+    }
+    return sb.append('\n').toString();
+  }
+
+  /**
+   * Reads up to the end of the line and not a byte further, the rest of the
+   * stream belongs to the application.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    int b;
+    while ((b = in.read()) != '\n'){
+      if (b < 0){
+        return null;
+      }
+      if (b != '\r'){
+        line.write(b);
+      }
+    }
+    return line.toString("UTF-8");
+  }
+
+  private static void writeStatsOnExit(final File file){
+    Runtime.getRuntime().addShutdownHook(new Thread(){
+      @Override
+      public void run(){
+        try {
+          FileWriter w = new FileWriter(file);
+          try {
+            w.write(getCpuTime() + " " + getPeakRss() + "\n");
+          } finally {
+            w.close();
+          }
+        } catch (IOException x){
+          // no stats then
+        }
+      }
+    });
+  }
+
+  private static long getCpuTime(){
+    Object os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean){
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  /**
+   * Linux only, from VmHWM of /proc/self/status
+   */
+  private static long getPeakRss(){
+    try {
+      BufferedReader r = new BufferedReader(new FileReader("/proc/self/status"));
+      try {
+        String line;
+        while ((line = r.readLine()) != null){
+          if (line.startsWith("VmHWM:")){
+            String[] f = line.substring(6).trim().split("\\s+");
+            return Long.parseLong(f[0]) * 1024; // kB
+          }
+        }
+      } finally {
+        r.close();
+      }
+    } catch (Exception x){
+      // not Linux
+    }
+    return -1;
+  }
+
+  private static void preload(String classpath){
+    ClassLoader loader = ClassLoader.getSystemClassLoader();
+    for (String entry : classpath.split(File.pathSeparator)){
+      File f = new File(entry);
+      if (f.isDirectory()){
+        preloadDir(loader, f, "");
+      } else if (f.isFile()){
+        preloadJar(loader, f);
+      }
+    }
+  }
+
+  private static void preloadDir(ClassLoader loader, File dir, String pkg){
+    File[] files = dir.listFiles();
+    if (files == null){
+      return;
+    }
+    for (File f : files){
+      String name = f.getName();
+      if (f.isDirectory()){
+        preloadDir(loader, f, pkg + name + '.');
+      } else if (name.endsWith(".class")){
+        load(loader, pkg + name.substring(0, name.length() - 6));
+      }
+    }
+  }
+
+  private static void preloadJar(ClassLoader loader, File file){
+    try {
+      JarFile jar = new JarFile(file);
+      try {
+        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ){
+          String name = e.nextElement().getName();
+          if (name.endsWith(".class")){
+            load(loader, name.substring(0, name.length() - 6).replace('/', '.'));
+          }
+        }
+      } finally {
+        jar.close();
+      }
+    } catch (IOException x){
+      // then the application loads it the slow way
+    }
+  }
+
+  private static void load(ClassLoader loader, String name){
+    try {
+      Class.forName(name, false, loader);
+    } catch (Throwable t){
+      // package-info, classes with missing dependencies and the like
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The unexplored part of a depth first search, as the choice index prefixes
+ * of the subtrees that are left (see {@link PrefixSelector} for what a
+ * prefix is), together with the statistics of the search so far.<br>
+ *
+ * Checkpoints are appended to their file as blocks of lines, so that writing
+ * one never destroys the previous one:
+ * <pre>
+ *   checkpoint time elapsed new visited backtracked end maxDepth insns maxMemory
+ *   0,1,2
+ *   0,2
+ *   end 2
+ * </pre>
+ * A block that is cut off because the JVM died while writing it has no end
+ * line and is ignored. A block without prefixes means the search is
+ * complete.
+ */
+public class Checkpoint {
+
+  private final long time;
+  private final long[] statistics;
+  private final List<int[]> prefixes;
+
+  public Checkpoint(long time, long[] statistics, List<int[]> prefixes){
+    this.time = time;
+    this.statistics = statistics;
+    this.prefixes = prefixes;
+  }
+
+  /**
+   * @return when the checkpoint was written
+   */
+  public long getTime(){
+    return time;
+  }
+
+  /**
+   * @return the statistics of all searches up to this checkpoint, in the
+   *         layout of {@link gov.nasa.jpf.shell.commands.VerifyCommand#getStatistics()}
+   */
+  public long[] getStatistics(){
+    return statistics;
+  }
+
+  /**
+   * @return the prefixes of the subtrees that were not explored yet
+   */
+  public List<int[]> getPrefixes(){
+    return prefixes;
+  }
+
+  /**
+   * @return true if there is nothing left to explore
+   */
+  public boolean isComplete(){
+    return prefixes.isEmpty();
+  }
+
+  /**
+   * Appends this checkpoint to file.
+   */
+  public void append(File file) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(file, true));
+    try {
+      StringBuilder sb = new StringBuilder("checkpoint ");
+      sb.append(time);
+      for (long s : statistics){
+        sb.append(' ').append(s);
+      }
+      out.println(sb);
+      for (int[] p : prefixes){
+        out.println(PrefixSelector.toString(p));
+      }
+      out.println("end " + prefixes.size());
+    } finally {
+      out.close();
+    }
+    if (out.checkError()){
+      throw new IOException("cannot write " + file);
+    }
+  }
+
+  /**
+   * @return the last complete checkpoint in file, or null if it has none
+   */
+  public static Checkpoint readLast(File file) throws IOException {
+    if (!file.isFile()){
+      return null;
+    }
+    Checkpoint last = null;
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      long time = 0;
+      long[] stats = null;
+      List<int[]> prefixes = null;
+      String line;
+      while ((line = in.readLine()) != null){
+        //a block after a cut off line starts in the middle of that line
+        int c = line.indexOf("checkpoint ");
+        if (c > 0){
+          line = line.substring(c);
+        }
+        try {
+          if (line.startsWith("checkpoint ")){
+            String[] f = line.split(" ");
+            time = Long.parseLong(f[1]);
+            stats = new long[f.length - 2];
+            for (int i = 0; i < stats.length; i++){
+              stats[i] = Long.parseLong(f[i + 2]);
+            }
+            prefixes = new ArrayList<int[]>();
+          } else if (prefixes == null){
+            continue; // the rest of a broken block
+          } else if (line.startsWith("end ")){
+            if (Integer.parseInt(line.substring(4).trim()) == prefixes.size()){
+              last = new Checkpoint(time, stats, prefixes);
+            }
+            prefixes = null;
+          } else if (line.length() > 0){
+            prefixes.add(PrefixSelector.parse(line));
+          }
+        } catch (NumberFormatException x){
+          prefixes = null; // a cut off line, skip its block
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return last;
+  }
+}
@@ -0,0 +1,304 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.report.Reporter;
+import gov.nasa.jpf.report.Statistics;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.VM;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Writes {@link Checkpoint}s of a depth first search to shell.checkpoint.file
+ * every shell.checkpoint.interval seconds and once more when the search
+ * finishes, and restricts a resumed search to the prefixes of a checkpoint.
+ * <br>
+ *
+ * The unexplored part of the search is read off the current path: for every
+ * choice generator on it that is not done, the choices after the current one
+ * are left, and so is the subtree below the current state if it is new.
+ * That only describes what is left if the search is a DFSearch and the
+ * choices are not randomized.<br>
+ *
+ * A resumed search skips every choice that is not on the way to or below
+ * one of the prefixes of the checkpoint. It starts with an empty set of
+ * visited states, so it can explore states again that the search before
+ * already explored - which costs time but does not miss anything.
+ */
+public class CheckpointListener extends ListenerAdapter {
+
+  //the stateAdvanced notifications between two looks at the clock
+  private static final int CHECK_MASK = 0xff;
+
+  private final File file;
+  private final long interval;
+  private final Node resume;
+  private final long[] base;
+
+  private long lastCheckpoint = System.currentTimeMillis();
+  private int advanced = 0;
+
+  private CheckpointListener(File file, long interval, Checkpoint resumed){
+    this.file = file;
+    this.interval = interval;
+    if (resumed != null){
+      resume = new Node();
+      for (int[] p : resumed.getPrefixes()){
+        resume.add(p);
+      }
+      base = resumed.getStatistics();
+    } else {
+      resume = null;
+      base = null;
+    }
+  }
+
+  /**
+   * @param resumePath the checkpoint file to resume from, or null
+   * @return the listener for the checkpoint settings in config, or null if
+   *         the run neither writes nor resumes from checkpoints
+   */
+  public static CheckpointListener create(Config config, String resumePath){
+    String path = config.getString("shell.checkpoint.file");
+    if (path == null && resumePath == null){
+      return null;
+    }
+
+    String search = config.getString("search.class", "gov.nasa.jpf.search.DFSearch");
+    if (!search.endsWith("DFSearch")){
+      ShellManager.getLogger().log(Level.WARNING, "checkpoints need a DFSearch, not " + search);
+    }
+    String randomize = config.getString("cg.randomize_choices", "NONE");
+    if (!"NONE".equalsIgnoreCase(randomize)){
+      ShellManager.getLogger().log(Level.WARNING, "checkpoints need cg.randomize_choices=NONE, not " + randomize);
+    }
+
+    Checkpoint resumed = null;
+    if (resumePath != null){
+      try {
+        resumed = Checkpoint.readLast(new File(resumePath));
+      } catch (IOException x){
+        ShellManager.getLogger().log(Level.SEVERE, "cannot read checkpoint " + resumePath, x);
+      }
+      if (resumed == null){
+        ShellManager.getLogger().log(Level.WARNING, "no checkpoint in " + resumePath + ", searching everything");
+      }
+    }
+
+    File file = (path != null) ? new File(path) : null;
+    long interval = config.getLong("shell.checkpoint.interval", 300) * 1000;
+    return new CheckpointListener(file, interval, resumed);
+  }
+
+  @Override
+  public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> cg){
+    if (resume != null && !resume.allows(getPath(cg))){
+      vm.getSearch().setIgnoredState(true);
+    }
+  }
+
+  @Override
+  public void stateAdvanced(Search search){
+    if (file == null || (++advanced & CHECK_MASK) != 0){
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastCheckpoint >= interval){
+      lastCheckpoint = now;
+      write(search, getFrontier(search, true));
+    }
+  }
+
+  @Override
+  public void searchFinished(Search search){
+    if (file == null){
+      return;
+    }
+    //a search that ran to its end backtracked all the way up
+    List<int[]> left = (search.getDepth() <= 0) ? new ArrayList<int[]>()
+                                                : getFrontier(search, !search.hasErrors());
+    write(search, left);
+  }
+
+  private void write(Search search, List<int[]> prefixes){
+    Checkpoint c = new Checkpoint(System.currentTimeMillis(), getStatistics(search), prefixes);
+    try {
+      c.append(file);
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.WARNING, "cannot write checkpoint", x);
+    }
+  }
+
+  /**
+   * @param withCurrent true if the subtree below the current state is left
+   *        as well, which it is unless it is known already
+   * @return the prefixes of the subtrees the search did not explore yet
+   */
+  private List<int[]> getFrontier(Search search, boolean withCurrent){
+    List<int[]> frontier = new ArrayList<int[]>();
+    ChoiceGenerator<?> top = search.getVM().getChoiceGenerator();
+    if (top == null){
+      return frontier;
+    }
+
+    int[] path = getPath(top);
+    ChoiceGenerator<?> cg = top;
+    for (int d = path.length - 1; d >= 0; d--, cg = cg.getPreviousChoiceGenerator()){
+      if (!cg.isDone()){
+        for (int j = cg.getTotalNumberOfChoices() - 1; j > path[d]; j--){
+          int[] p = new int[d + 1];
+          System.arraycopy(path, 0, p, 0, d);
+          p[d] = j;
+          addLeft(frontier, p);
+        }
+      }
+    }
+    if (withCurrent && search.isNewState() && !search.isEndState()){
+      addLeft(frontier, path);
+    }
+    return frontier;
+  }
+
+  /**
+   * A resumed search only had to explore the subtrees of its checkpoint, so
+   * only what is left of those is left.
+   */
+  private void addLeft(List<int[]> frontier, int[] prefix){
+    if (resume == null){
+      frontier.add(prefix);
+      return;
+    }
+    Node n = resume;
+    for (int i : prefix){
+      if (n.isLeaf()){
+        frontier.add(prefix);
+        return;
+      }
+      n = n.children.get(i);
+      if (n == null){
+        return;
+      }
+    }
+    n.collect(prefix, frontier);
+  }
+
+  private long[] getStatistics(Search search){
+    Reporter reporter = search.getVM().getJPF().getReporter();
+    Statistics stat = reporter.getStatistics();
+    long[] s = new long[WorkerProtocol.STATISTICS_SIZE];
+    if (stat != null){
+      s[0] = reporter.getElapsedTime();
+      s[1] = stat.newStates;
+      s[2] = stat.visitedStates;
+      s[3] = stat.backtracked;
+      s[4] = stat.endStates;
+      s[5] = stat.maxDepth;
+      s[6] = stat.insns;
+      s[7] = stat.maxUsed;
+    }
+    if (base != null){
+      for (int i = 0; i < s.length && i < base.length; i++){
+        if (i == 5 || i == 7){ // max depth, max memory
+          s[i] = Math.max(s[i], base[i]);
+        } else {
+          s[i] += base[i];
+        }
+      }
+    }
+    return s;
+  }
+
+  /**
+   * @return the choice indices of cg and all choice generators before it
+   */
+  private static int[] getPath(ChoiceGenerator<?> cg){
+    int depth = 0;
+    for (ChoiceGenerator<?> c = cg; c != null; c = c.getPreviousChoiceGenerator()){
+      depth++;
+    }
+    int[] path = new int[depth];
+    for (ChoiceGenerator<?> c = cg; c != null; c = c.getPreviousChoiceGenerator()){
+      path[--depth] = c.getProcessedNumberOfChoices() - 1;
+    }
+    return path;
+  }
+
+  /**
+   * The prefixes of a checkpoint as a tree of choice indices, the leaves
+   * are the ends of the prefixes.
+   */
+  private static class Node {
+    final Map<Integer, Node> children = new HashMap<Integer, Node>();
+
+    void add(int[] prefix){
+      Node n = this;
+      for (int i : prefix){
+        Node c = n.children.get(i);
+        if (c == null){
+          c = new Node();
+          n.children.put(i, c);
+        }
+        n = c;
+      }
+    }
+
+    boolean isLeaf(){
+      return children.isEmpty();
+    }
+
+    /**
+     * @return true if path leads to or lies below one of the prefixes
+     */
+    boolean allows(int[] path){
+      Node n = this;
+      for (int i : path){
+        if (n.isLeaf()){
+          return true;
+        }
+        n = n.children.get(i);
+        if (n == null){
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void collect(int[] path, List<int[]> prefixes){
+      if (isLeaf()){
+        prefixes.add(path);
+        return;
+      }
+      for (Map.Entry<Integer, Node> e : children.entrySet()){
+        int[] p = new int[path.length + 1];
+        System.arraycopy(path, 0, p, 0, path.length);
+        p[path.length] = e.getKey();
+        e.getValue().collect(p, prefixes);
+      }
+    }
+  }
+}
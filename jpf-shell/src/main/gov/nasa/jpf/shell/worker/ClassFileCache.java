@@ -0,0 +1,195 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of the {@link ResultCache} that builds the class file digests of
+ * its key. It remembers the contents of the classpath between consecutive
+ * keys, so that a key only has to look at what changed since the one before:
+ * <ul>
+ *   <li>the class files and subdirectories of a directory, which are listed
+ *       again only if the modification time of the directory changed</li>
+ *   <li>the SHA-256 digest of a class file or jar, which is read again only
+ *       if its modification time or length changed</li>
+ * </ul>
+ * There is one cache per JVM. The entries of files and directories that are
+ * removed are dropped once the directory they were in is listed again.
+ */
+final class ClassFileCache {
+
+  private static final ClassFileCache instance = new ClassFileCache();
+
+  private static class FileEntry {
+    final long modified;
+    final long length;
+    final byte[] digest;
+
+    FileEntry(long modified, long length, byte[] digest){
+      this.modified = modified;
+      this.length = length;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * The class files and subdirectories of a directory, sorted by name.
+   */
+  static class Listing {
+    final long modified;
+    final String[] classFiles;
+    final String[] dirs;
+
+    Listing(long modified, String[] classFiles, String[] dirs){
+      this.modified = modified;
+      this.classFiles = classFiles;
+      this.dirs = dirs;
+    }
+  }
+
+  private final Map<String, FileEntry> files = new HashMap<String, FileEntry>();
+  private final Map<String, Listing> listings = new HashMap<String, Listing>();
+  private int hits;
+  private int misses;
+
+  private ClassFileCache(){}
+
+  static ClassFileCache getInstance(){
+    return instance;
+  }
+
+  /**
+   * @return the SHA-256 digest of the contents of file
+   */
+  byte[] getDigest(File file) throws IOException {
+    String path = file.getAbsolutePath();
+    long modified = file.lastModified();
+    long length = file.length();
+    synchronized (this){
+      FileEntry e = files.get(path);
+      if (e != null && e.modified == modified && e.length == length && modified != 0){
+        hits++;
+        return e.digest;
+      }
+      misses++;
+    }
+
+    byte[] digest = digest(file);
+    synchronized (this){
+      files.put(path, new FileEntry(modified, length, digest));
+    }
+    return digest;
+  }
+
+  /**
+   * @return the class files and subdirectories of dir, or null if it is not
+   *         a directory (anymore)
+   */
+  Listing list(File dir){
+    String path = dir.getAbsolutePath();
+    long modified = dir.lastModified();
+    synchronized (this){
+      Listing l = listings.get(path);
+      if (l != null && l.modified == modified && modified != 0){
+        return l;
+      }
+    }
+
+    File[] entries = dir.listFiles();
+    if (entries == null){
+      synchronized (this){
+        listings.remove(path);
+      }
+      return null;
+    }
+    List<String> classFiles = new ArrayList<String>();
+    List<String> dirs = new ArrayList<String>();
+    for (File f : entries){
+      if (f.isDirectory()){
+        dirs.add(f.getName());
+      } else if (f.getName().endsWith(".class")){
+        classFiles.add(f.getName());
+      }
+    }
+    String[] c = classFiles.toArray(new String[classFiles.size()]);
+    String[] d = dirs.toArray(new String[dirs.size()]);
+    Arrays.sort(c);
+    Arrays.sort(d);
+    Listing l = new Listing(modified, c, d);
+    synchronized (this){
+      Listing old = listings.put(path, l);
+      if (old != null){
+        forgetRemoved(path, old.classFiles, c, files);
+        forgetRemoved(path, old.dirs, d, listings);
+      }
+    }
+    return l;
+  }
+
+  /**
+   * Drops the entries of what is no longer in a directory, so that the cache
+   * does not keep growing with deleted classes.
+   */
+  private static void forgetRemoved(String dir, String[] before, String[] now, Map<String, ?> entries){
+    for (String name : before){
+      if (Arrays.binarySearch(now, name) < 0){
+        entries.remove(dir + File.separator + name);
+      }
+    }
+  }
+
+  /**
+   * @return "hits/lookups" of the file digests since the last call
+   */
+  synchronized String takeStatistics(){
+    String s = hits + "/" + (hits + misses);
+    hits = misses = 0;
+    return s;
+  }
+
+  private static byte[] digest(File file) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException x){
+      throw new IOException("no SHA-256", x);
+    }
+    byte[] buf = new byte[8192];
+    InputStream in = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = in.read(buf)) >= 0){
+        md.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return md.digest();
+  }
+}
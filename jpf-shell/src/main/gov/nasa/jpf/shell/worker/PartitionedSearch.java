@@ -0,0 +1,375 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.report.Publisher;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.panels.searchgraph.EdgeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.NodeInfo;
+import gov.nasa.jpf.shell.util.StreamRouter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Spreads the search of one verification over several worker JVMs. A first
+ * worker explores the first shell.verify.partition.depth choice levels and
+ * reports every prefix of choices that reaches that depth (see
+ * {@link PrefixSelector}). The prefixes go into a queue, from which
+ * shell.verify.partition.workers workers take one after the other and search
+ * the subtree below it exhaustively. A worker JVM stays up for all the
+ * prefixes it takes (see {@link VerifyProcess#serve()}), only JPF is set up
+ * again for every subtree. Since the subtrees differ a lot in size,
+ * the depth should give many more prefixes than there are workers, so that
+ * a worker that is done with a small subtree just takes the next one while
+ * another one is still busy with a big one.<br>
+ *
+ * To the panels this looks like a single forked run: the statistics of all
+ * workers are added up, the errors of all of them are collected and the
+ * report topics are those of the first worker that found an error (or of the
+ * first worker, if none did). Unless search.multiple_errors is set, the
+ * first error cancels all workers. Each worker has its own set of visited
+ * states, so states that can be reached with several prefixes are explored
+ * more than once, and the search graph is not available.
+ */
+public class PartitionedSearch extends VerifyProcess {
+
+  //tells the partition threads that there are no more prefixes
+  private static final int[] NO_MORE = new int[0];
+
+  private final Config config;
+  private final int workers;
+  private final int depth;
+  private final boolean multipleErrors;
+
+  private OutputStream out;
+  private OutputStream err;
+  private VerifyProcess enumerator;
+  private final BlockingQueue<int[]> prefixes = new LinkedBlockingQueue<int[]>();
+  private final List<VerifyProcess> processes = Collections.synchronizedList(new ArrayList<VerifyProcess>());
+  //the processes whose statistics are not in done yet
+  private final Set<VerifyProcess> searching = new HashSet<VerifyProcess>();
+  //the statistics of all searches that are over
+  private long[] totals;
+
+  private volatile boolean cancelled = false;
+  private volatile boolean done = false;
+  private volatile long startTime;
+  private volatile long endTime = -1;
+  private final AtomicInteger found = new AtomicInteger();
+  private final AtomicInteger searched = new AtomicInteger();
+  private volatile String failure;
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+  private volatile Map<String, String> errorTopics;
+
+  public PartitionedSearch(Config config){
+    super(config);
+    this.config = config;
+    workers = Math.max(1, config.getInt("shell.verify.partition.workers", Runtime.getRuntime().availableProcessors()));
+    depth = Math.max(1, config.getInt("shell.verify.partition.depth", 3));
+    multipleErrors = config.getBoolean("search.multiple_errors", false);
+  }
+
+  /**
+   * The workers of a partitioned search don't capture the search graph.
+   */
+  @Override
+  public void captureSearchGraph(){
+    ShellManager.getLogger().log(Level.INFO, "no search graph for a partitioned search");
+  }
+
+  /**
+   * Starts the worker that enumerates the prefixes.
+   */
+  @Override
+  public void start() throws IOException {
+    out = StreamRouter.getOut();
+    err = StreamRouter.getErr();
+    startTime = System.currentTimeMillis();
+
+    enumerator = createProcess();
+    enumerator.override("shell.verify.partition.enumerate", String.valueOf(depth));
+    synchronized (this){
+      searching.add(enumerator);
+    }
+    enumerator.setPrefixListener(new PrefixListener(){
+      public void prefixFound(int[] prefix){
+        found.incrementAndGet();
+        prefixes.add(prefix);
+      }
+    });
+    try {
+      enumerator.start();
+    } catch (IOException x){
+      done = true;
+      throw x;
+    }
+  }
+
+  /**
+   * Searches all prefixes and waits until all workers are done.
+   */
+  @Override
+  public void run() throws InterruptedException {
+    List<Future<?>> threads = new ArrayList<Future<?>>();
+    try {
+      threads.add(ShellManager.getManager().getExecutor().execute(new Runnable(){
+        public void run(){
+          try {
+            enumerator.run();
+            collect(enumerator, "enumeration");
+          } catch (InterruptedException ix){
+            enumerator.cancel();
+          } finally {
+            for (int i = 0; i < workers; i++){
+              prefixes.add(NO_MORE);
+            }
+          }
+        }
+      }));
+
+      for (int i = 0; i < workers; i++){
+        threads.add(ShellManager.getManager().getExecutor().execute(new Runnable(){
+          public void run(){
+            VerifyProcess worker = null;
+            try {
+              int[] prefix;
+              while ((prefix = prefixes.take()) != NO_MORE){
+                if (cancelled){
+                  continue;
+                }
+                if (worker == null){
+                  worker = startWorker();
+                }
+                if (worker != null && !searchSubtree(worker, prefix)){
+                  worker = null; // it died, the next prefix gets a new one
+                }
+              }
+              if (worker != null){
+                worker.quit();
+              }
+            } catch (InterruptedException ix){
+              // the search was given up
+              if (worker != null){
+                worker.destroy();
+              }
+            }
+          }
+        }));
+      }
+
+      for (Future<?> f : threads){
+        try {
+          f.get();
+        } catch (ExecutionException x){
+          ShellManager.getLogger().log(Level.SEVERE, "partition failed", x.getCause());
+        }
+      }
+    } catch (InterruptedException ix){
+      cancel();
+      for (Future<?> f : threads){
+        f.cancel(true);
+      }
+      throw ix;
+    } finally {
+      endTime = System.currentTimeMillis();
+      done = true;
+    }
+  }
+
+  /**
+   * @return a worker JVM that searches prefixes until it is told to quit, or
+   *         null if it could not be started
+   */
+  private VerifyProcess startWorker(){
+    VerifyProcess worker = createProcess();
+    worker.serve();
+    try {
+      worker.start();
+      return worker;
+    } catch (IOException x){
+      if (failure == null){
+        failure = "cannot start a partition worker: " + x.getMessage();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * @return false if the worker died
+   */
+  private boolean searchSubtree(VerifyProcess worker, int[] prefix) throws InterruptedException {
+    synchronized (this){
+      searching.add(worker);
+    }
+    boolean alive = worker.search(prefix);
+    searched.incrementAndGet();
+    collect(worker, "prefix " + PrefixSelector.toString(prefix));
+    return alive;
+  }
+
+  private VerifyProcess createProcess(){
+    VerifyProcess p = new VerifyProcess(config);
+    p.override("cg.randomize_choices", "NONE");
+    p.setOutput(out, err);
+    processes.add(p);
+    return p;
+  }
+
+  /**
+   * Takes over the results of the last search of worker, which it forgets
+   * with its next one.
+   */
+  private synchronized void collect(VerifyProcess worker, String what){
+    searching.remove(worker);
+    totals = add(totals, worker.getStatistics());
+    if (worker.getFailure() != null && failure == null){
+      failure = what + ": " + worker.getFailure();
+    }
+    if (!worker.getErrors().isEmpty()){
+      errors.addAll(worker.getErrors());
+      if (errorTopics == null){
+        errorTopics = new LinkedHashMap<String, String>(worker.getTopics());
+      }
+      if (!multipleErrors){
+        cancel();
+      }
+    }
+  }
+
+  /**
+   * Cancels all workers, prefixes that were not searched yet are dropped.
+   */
+  @Override
+  public void cancel(){
+    cancelled = true;
+    synchronized (processes){
+      for (VerifyProcess p : processes){
+        p.cancel();
+      }
+    }
+  }
+
+  @Override
+  public boolean isDone(){
+    return done;
+  }
+
+  /**
+   * @return the statistics of all workers added up, the elapsed time is the
+   *         wall clock time of the whole search and max depth and memory are
+   *         the maximum of all workers
+   */
+  @Override
+  public synchronized long[] getStatistics(){
+    long[] sum = add(null, totals);
+    for (VerifyProcess p : searching){
+      sum = add(sum, p.getStatistics());
+    }
+    if (sum != null){
+      sum[0] = ((endTime < 0) ? System.currentTimeMillis() : endTime) - startTime;
+    }
+    return sum;
+  }
+
+  /**
+   * @return sum with s added, a new array if sum is null
+   */
+  private static long[] add(long[] sum, long[] s){
+    if (s == null){
+      return sum;
+    }
+    if (sum == null){
+      sum = new long[s.length];
+    }
+    for (int i = 1; i < s.length; i++){
+      if (i == 5 || i == 7){ // max depth, max memory
+        sum[i] = Math.max(sum[i], s[i]);
+      } else {
+        sum[i] += s[i];
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public String getStatisticsText(){
+    long[] s = getStatistics();
+    if (s == null){
+      return null;
+    }
+    long secs = s[0] / 1000;
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("elapsed time:       %d:%02d:%02d%n", secs / 3600, (secs / 60) % 60, secs % 60));
+    sb.append(String.format("states:             new=%d,visited=%d,backtracked=%d,end=%d%n", s[1], s[2], s[3], s[4]));
+    sb.append(String.format("search:             maxDepth=%d%n", s[5]));
+    sb.append(String.format("instructions:       %d%n", s[6]));
+    sb.append(String.format("max memory:         %dMB%n", s[7] >> 20));
+    sb.append(String.format("partitions:         %d of %d searched (depth %d, %d workers)%n",
+                            searched.get(), found.get(), depth, workers));
+    return sb.toString();
+  }
+
+  /**
+   * @return the topics of the first worker that found an error, or those of
+   *         the enumeration. The statistics topic is replaced by the sum of
+   *         all workers.
+   */
+  @Override
+  public Map<String, String> getTopics(){
+    Map<String, String> t = errorTopics;
+    if (t == null){
+      t = (enumerator != null) ? enumerator.getTopics() : Collections.<String, String>emptyMap();
+    }
+    Map<String, String> topics = new LinkedHashMap<String, String>(t);
+    String stats = getStatisticsText();
+    if (stats != null && topics.containsKey(Publisher.STATISTICS_TOPIC)){
+      topics.put(Publisher.STATISTICS_TOPIC, stats);
+    }
+    return topics;
+  }
+
+  @Override
+  public List<String> getErrors(){
+    return errors;
+  }
+
+  @Override
+  public DirectedSparseGraph<NodeInfo, EdgeInfo> getSearchGraph(){
+    return null;
+  }
+
+  @Override
+  public String getFailure(){
+    return failure;
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * Splits the state space of a {@link PartitionedSearch} at the choice
+ * generators of depth k. A prefix is the list of choice indices of the first
+ * k choice generators of a path. The selector works in one of two modes:
+ * <ul>
+ *   <li>shell.verify.partition.enumerate=k - the search stops at every
+ *       choice generator of depth k and sends the prefix that led to it to
+ *       the shell instead of going on</li>
+ *   <li>shell.verify.partition.prefix=i0,i1,.. - the first choice generators
+ *       only take the given choices, so the search explores exactly the
+ *       subtree below that prefix</li>
+ * </ul>
+ * Choice indices only mean the same thing in two runs if the choices are
+ * not randomized, which is why the PartitionedSearch sets
+ * cg.randomize_choices=NONE for all of its workers.
+ */
+class PrefixSelector extends ListenerAdapter {
+
+  private final VerifyWorker worker;
+  private final int enumerateDepth;
+  private final int[] prefix;
+
+  private PrefixSelector(VerifyWorker worker, int enumerateDepth, int[] prefix){
+    this.worker = worker;
+    this.enumerateDepth = enumerateDepth;
+    this.prefix = prefix;
+  }
+
+  /**
+   * @return the selector for the partition settings in config, or null if
+   *         the run is not part of a PartitionedSearch
+   */
+  static PrefixSelector create(Config config, VerifyWorker worker){
+    int depth = config.getInt("shell.verify.partition.enumerate", -1);
+    if (depth > 0){
+      return new PrefixSelector(worker, depth, null);
+    }
+    String p = config.getString("shell.verify.partition.prefix");
+    if (p != null){
+      return new PrefixSelector(worker, -1, parse(p));
+    }
+    return null;
+  }
+
+  static int[] parse(String s){
+    String[] parts = s.trim().split("\\s*,\\s*");
+    int[] prefix = new int[parts.length];
+    for (int i = 0; i < parts.length; i++){
+      prefix[i] = Integer.parseInt(parts[i]);
+    }
+    return prefix;
+  }
+
+  static String toString(int[] prefix){
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < prefix.length; i++){
+      if (i > 0){
+        sb.append(',');
+      }
+      sb.append(prefix[i]);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> cg){
+    int depth = getDepth(cg);
+
+    if (prefix != null){
+      if (depth < prefix.length){
+        if (prefix[depth] < cg.getTotalNumberOfChoices()){
+          cg.select(prefix[depth]);
+        } else {
+          //the program does not behave like it did for the enumeration
+          cg.setDone();
+          vm.getSearch().setIgnoredState(true);
+        }
+      }
+
+    } else if (depth == enumerateDepth){
+      int[] p = new int[depth];
+      for (ChoiceGenerator<?> c = cg.getPreviousChoiceGenerator(); c != null; c = c.getPreviousChoiceGenerator()){
+        p[--depth] = c.getProcessedNumberOfChoices() - 1;
+      }
+      worker.sendPrefix(p);
+      cg.setDone();
+      vm.getSearch().setIgnoredState(true);
+    }
+  }
+
+  private static int getDepth(ChoiceGenerator<?> cg){
+    int depth = 0;
+    for (ChoiceGenerator<?> c = cg.getPreviousChoiceGenerator(); c != null; c = c.getPreviousChoiceGenerator()){
+      depth++;
+    }
+    return depth;
+  }
+}
@@ -0,0 +1,346 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.panels.searchgraph.EdgeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.NodeInfo;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+/**
+ * Keeps the results of verifications on disk, so that verifying an
+ * application whose code and config did not change does not need to run JPF
+ * again. The key of a result is a SHA-256 digest of
+ * <ul>
+ *   <li>all config entries except the shell.* ones, which don't change what
+ *       JPF finds</li>
+ *   <li>the bytes of every class file and jar of classpath and
+ *       native_classpath, so that a change to the application as well as to
+ *       JPF or its extensions means a new key</li>
+ * </ul>
+ * A result is the report topics, statistics and errors of a run, stored as
+ * <i>key</i>.properties in shell.verify.cache.dir. Only the
+ * shell.verify.cache.max_entries most recently stored results are kept.<br>
+ * The digests of the class files and jars are kept in the
+ * {@link ClassFileCache} of the shell, so that only the files that changed
+ * since the last run are read again.
+ */
+public class ResultCache {
+
+  //part of every key, so that a change of the stored format invalidates all entries
+  private static final String FORMAT = "2";
+
+  private final Config config;
+  private final File dir;
+
+  public ResultCache(Config config){
+    this.config = config;
+    dir = new File(config.getString("shell.verify.cache.dir",
+                   System.getProperty("user.home") + File.separator + ".jpf-shell" + File.separator + "cache"));
+  }
+
+  public static boolean isEnabled(Config config){
+    return config.getBoolean("shell.verify.cache", false);
+  }
+
+  /**
+   * @return the key of the config's results, or null if it cannot be computed
+   */
+  public String computeKey(){
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      update(md, FORMAT);
+
+      Map<String, String> entries = new TreeMap<String, String>();
+      for (Map.Entry<Object, Object> e : config.entrySet()){
+        String k = String.valueOf(e.getKey());
+        if (!k.startsWith("shell.")){
+          entries.put(k, String.valueOf(e.getValue()));
+        }
+      }
+      for (Map.Entry<String, String> e : entries.entrySet()){
+        update(md, e.getKey());
+        update(md, e.getValue());
+      }
+
+      ClassFileCache files = ClassFileCache.getInstance();
+      digestPath(md, files, config.getString("classpath"));
+      digestPath(md, files, config.getString("native_classpath"));
+      ShellManager.getLogger().log(Level.FINE, "class file digests from the cache: " + files.takeStatistics());
+
+      StringBuilder sb = new StringBuilder(64);
+      for (byte b : md.digest()){
+        sb.append(String.format("%02x", b & 0xff));
+      }
+      return sb.toString();
+
+    } catch (NoSuchAlgorithmException x){
+      ShellManager.getLogger().log(Level.WARNING, "no SHA-256, cannot use the result cache", x);
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.WARNING, "cannot compute the result cache key", x);
+    }
+    return null;
+  }
+
+  /**
+   * @return the stored results for key, or null if there are none
+   */
+  public Entry load(String key){
+    File file = getFile(key);
+    if (!file.isFile()){
+      return null;
+    }
+    Properties p = new Properties();
+    try {
+      Reader r = new FileReader(file);
+      try {
+        p.load(r);
+      } finally {
+        r.close();
+      }
+      return new Entry(config, p);
+    } catch (Exception x){ // IOException as well as broken entries
+      ShellManager.getLogger().log(Level.WARNING, "ignoring broken cache entry " + file, x);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the results of a run under key.
+   */
+  public void store(String key, Map<String, String> topics, long[] statistics,
+                    String statisticsText, List<String> errors){
+    Properties p = new Properties();
+    p.setProperty("created", String.valueOf(System.currentTimeMillis()));
+    p.setProperty("topics", String.valueOf(topics.size()));
+    int i = 0;
+    for (Map.Entry<String, String> e : topics.entrySet()){
+      p.setProperty("topic." + i + ".name", String.valueOf(e.getKey()));
+      p.setProperty("topic." + i + ".text", String.valueOf(e.getValue()));
+      i++;
+    }
+    if (statistics != null){
+      for (i = 0; i < statistics.length; i++){
+        p.setProperty("statistics." + i, String.valueOf(statistics[i]));
+      }
+    }
+    if (statisticsText != null){
+      p.setProperty("statistics.text", statisticsText);
+    }
+    p.setProperty("errors", String.valueOf(errors.size()));
+    for (i = 0; i < errors.size(); i++){
+      p.setProperty("error." + i, errors.get(i));
+    }
+
+    dir.mkdirs();
+    File file = getFile(key);
+    try {
+      Writer w = new FileWriter(file);
+      try {
+        p.store(w, "JPF verification results");
+      } finally {
+        w.close();
+      }
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.WARNING, "cannot write cache entry " + file, x);
+      file.delete();
+    }
+    evict();
+  }
+
+  private File getFile(String key){
+    return new File(dir, key + ".properties");
+  }
+
+  private void evict(){
+    int max = config.getInt("shell.verify.cache.max_entries", 100);
+    File[] files = dir.listFiles();
+    if (files == null || files.length <= max){
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>(){
+      public int compare(File a, File b){
+        long ta = a.lastModified();
+        long tb = b.lastModified();
+        return (ta < tb) ? -1 : (ta > tb) ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < files.length - max; i++){
+      files[i].delete();
+    }
+  }
+
+  private static void digestPath(MessageDigest md, ClassFileCache files, String path) throws IOException {
+    if (path == null){
+      return;
+    }
+    for (String entry : path.split("[,;" + File.pathSeparator + "]")){
+      entry = entry.trim();
+      if (entry.length() == 0){
+        continue;
+      }
+      update(md, entry);
+      File f = new File(entry);
+      if (f.isDirectory()){
+        digestClassFiles(md, files, f, "");
+      } else if (f.isFile()){
+        md.update(files.getDigest(f));
+      }
+    }
+  }
+
+  private static void digestClassFiles(MessageDigest md, ClassFileCache files, File dir, String prefix)
+          throws IOException {
+    ClassFileCache.Listing listing = files.list(dir);
+    if (listing == null){
+      return;
+    }
+    //classes first, then the subdirectories, both by name
+    for (String name : listing.classFiles){
+      update(md, prefix + name);
+      md.update(files.getDigest(new File(dir, name)));
+    }
+    for (String name : listing.dirs){
+      digestClassFiles(md, files, new File(dir, name), prefix + name + '/');
+    }
+  }
+
+  private static void update(MessageDigest md, String s) throws IOException {
+    byte[] b = s.getBytes("UTF-8");
+    md.update((byte) (b.length >>> 24));
+    md.update((byte) (b.length >>> 16));
+    md.update((byte) (b.length >>> 8));
+    md.update((byte) b.length);
+    md.update(b);
+  }
+
+  /**
+   * The results of a verification that were read from the cache. To the
+   * panels this looks like a forked run that is already done.
+   */
+  public static class Entry extends VerifyProcess {
+    private final Date created;
+    private final Map<String, String> topics = new LinkedHashMap<String, String>();
+    private final long[] statistics;
+    private final String statisticsText;
+    private final List<String> errors = new ArrayList<String>();
+
+    Entry(Config config, Properties p){
+      super(config);
+      created = new Date(Long.parseLong(p.getProperty("created")));
+      int n = Integer.parseInt(p.getProperty("topics"));
+      for (int i = 0; i < n; i++){
+        topics.put(p.getProperty("topic." + i + ".name"), p.getProperty("topic." + i + ".text"));
+      }
+      if (p.getProperty("statistics.0") != null){
+        statistics = new long[WorkerProtocol.STATISTICS_SIZE];
+        for (int i = 0; i < statistics.length; i++){
+          statistics[i] = Long.parseLong(p.getProperty("statistics." + i));
+        }
+      } else {
+        statistics = null;
+      }
+      statisticsText = p.getProperty("statistics.text");
+      n = Integer.parseInt(p.getProperty("errors"));
+      for (int i = 0; i < n; i++){
+        errors.add(p.getProperty("error." + i));
+      }
+    }
+
+    /**
+     * @return when the results were stored
+     */
+    public Date getCreated(){
+      return created;
+    }
+
+    @Override
+    public void captureSearchGraph(){
+      // the search graph is not cached
+    }
+
+    @Override
+    public void start(){
+      // nothing to start
+    }
+
+    @Override
+    public void run(){
+      // nothing to run
+    }
+
+    @Override
+    public void cancel(){
+      // nothing to cancel
+    }
+
+    @Override
+    public boolean isDone(){
+      return true;
+    }
+
+    @Override
+    public long[] getStatistics(){
+      return statistics;
+    }
+
+    @Override
+    public String getStatisticsText(){
+      return statisticsText;
+    }
+
+    @Override
+    public Map<String, String> getTopics(){
+      return topics;
+    }
+
+    @Override
+    public List<String> getErrors(){
+      return errors;
+    }
+
+    @Override
+    public DirectedSparseGraph<NodeInfo, EdgeInfo> getSearchGraph(){
+      return null;
+    }
+
+    @Override
+    public String getFailure(){
+      return null;
+    }
+  }
+}
@@ -0,0 +1,517 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.panels.searchgraph.EdgeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.NodeInfo;
+import gov.nasa.jpf.shell.util.StreamRouter;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * The shell side of a verification that runs in its own JVM (see
+ * {@link VerifyWorker}). It launches the worker, copies the worker's output
+ * into the console of the thread that started it and collects the events the
+ * worker sends. Panels read the results from here instead of from a JPF
+ * instance, which does not exist in the shell for such a run.<br>
+ *
+ * The following properties are used:
+ * <ul>
+ *   <li>shell.verify.fork.jvm_args - arguments for the worker JVM, e.g. -Xmx4g</li>
+ *   <li>shell.verify.fork.classpath - classpath of the worker JVM, needs
+ *       jpf-core, jpf-shell and the JUNG libraries. Defaults to native_classpath</li>
+ *   <li>shell.verify.fork.connect_timeout - seconds to wait for the worker to
+ *       connect (default 60)</li>
+ * </ul>
+ */
+public class VerifyProcess {
+
+  //ms between checks whether the worker is still alive while waiting for it
+  private static final int ACCEPT_POLL = 200;
+  //ms a connection gets to send the token
+  private static final int TOKEN_TIMEOUT = 5000;
+
+  private final Config config;
+  private final Properties overrides = new Properties();
+  private boolean captureGraph = false;
+  private OutputStream out;
+  private OutputStream err;
+  private PrefixListener prefixListener;
+
+  private Process process;
+  private Socket socket;
+  private DataInputStream in;
+  private final List<Future<?>> copiers = new ArrayList<Future<?>>();
+
+  private volatile boolean done = false;
+  private volatile long[] statistics;
+  private volatile String statisticsText;
+  private final Map<String, String> topics = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+  private volatile DirectedSparseGraph<NodeInfo, EdgeInfo> graph;
+  private volatile int threadCount;
+  private volatile String failure;
+
+  public VerifyProcess(Config config){
+    this.config = config;
+  }
+
+  /**
+   * Gets the prefixes a worker in enumeration mode sends, see {@link PrefixSelector}.
+   */
+  interface PrefixListener {
+    void prefixFound(int[] prefix);
+  }
+
+  /**
+   * Sets a property of the worker's config only, has to be called before
+   * {@link #start()}.
+   */
+  void override(String key, String value){
+    overrides.setProperty(key, value);
+  }
+
+  /**
+   * Makes the worker resume the search of the last checkpoint in file
+   * instead of searching everything, see {@link CheckpointListener}. Has to
+   * be called before {@link #start()}.
+   */
+  public void resumeFrom(File checkpoint){
+    override("shell.checkpoint.resume", checkpoint.getPath());
+  }
+
+  /**
+   * Sets where the worker's output goes instead of System.out/err of the
+   * thread that calls {@link #start()}.
+   */
+  void setOutput(OutputStream out, OutputStream err){
+    this.out = out;
+    this.err = err;
+  }
+
+  void setPrefixListener(PrefixListener l){
+    prefixListener = l;
+  }
+
+  /**
+   * Keeps the worker JVM for several subtrees of a {@link PartitionedSearch},
+   * which are then searched with {@link #search(int[])} instead of
+   * {@link #run()}. Has to be called before {@link #start()}.
+   */
+  void serve(){
+    override("shell.verify.partition.serve", "true");
+  }
+
+  /**
+   * Makes the worker capture the search graph, has to be called before
+   * {@link #start()}.
+   */
+  public void captureSearchGraph(){
+    captureGraph = true;
+  }
+
+  /**
+   * Launches the worker JVM and waits until it connected. Its output is
+   * copied to System.out/err of the calling thread.
+   */
+  public void start() throws IOException {
+    try {
+      launch();
+    } catch (IOException x){
+      done = true;
+      throw x;
+    }
+  }
+
+  private void launch() throws IOException {
+    ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName(null));
+    File configFile = File.createTempFile("jpf-worker", ".properties");
+    try {
+      //anybody on this host can connect, only the worker knows the token
+      String token = WorkerProtocol.createToken();
+      overrides.setProperty(WorkerProtocol.TOKEN_PROPERTY, token);
+      configFile.setReadable(false, false);
+      configFile.setReadable(true, true);
+      writeConfig(configFile);
+
+      List<String> cmd = new ArrayList<String>();
+      cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      String[] jvmArgs = config.getStringArray("shell.verify.fork.jvm_args");
+      if (jvmArgs != null){
+        for (String a : jvmArgs){
+          cmd.add(a);
+        }
+      }
+      cmd.add("-cp");
+      cmd.add(getClasspath());
+      cmd.add(VerifyWorker.class.getName());
+      cmd.add(String.valueOf(server.getLocalPort()));
+      cmd.add(configFile.getAbsolutePath());
+      if (captureGraph){
+        cmd.add("-searchgraph");
+      }
+
+      process = new ProcessBuilder(cmd).start();
+      process.getOutputStream().close(); // there is nobody to type into STDIN
+      copiers.add(copy(process.getInputStream(), (out != null) ? out : StreamRouter.getOut()));
+      copiers.add(copy(process.getErrorStream(), (err != null) ? err : StreamRouter.getErr()));
+
+      socket = accept(server, token);
+    } finally {
+      server.close();
+      configFile.delete();
+    }
+  }
+
+  /**
+   * Waits for the worker to connect with token, for at most
+   * shell.verify.fork.connect_timeout seconds or until it exited.
+   */
+  private Socket accept(ServerSocket server, String token) throws IOException {
+    long deadline = System.currentTimeMillis() + config.getInt("shell.verify.fork.connect_timeout", 60) * 1000L;
+    server.setSoTimeout(ACCEPT_POLL);
+    while (true){
+      if (!process.isAlive()){
+        throw new IOException("worker exited with " + process.exitValue() + " before it connected");
+      }
+      if (System.currentTimeMillis() > deadline){
+        process.destroy();
+        throw new IOException("worker did not connect, check shell.verify.fork.classpath");
+      }
+      Socket s;
+      try {
+        s = server.accept();
+      } catch (SocketTimeoutException x){
+        continue;
+      }
+      try {
+        s.setSoTimeout(TOKEN_TIMEOUT);
+        if (WorkerProtocol.readToken(s.getInputStream(), token)){
+          s.setSoTimeout(0);
+          return s;
+        }
+      } catch (IOException x){
+        // not our worker either
+      }
+      ShellManager.getLogger().log(Level.WARNING, "dropped a connection to the JPF worker port that did not authenticate");
+      s.close();
+    }
+  }
+
+  /**
+   * Reads the worker's events until it is done and waits for it to exit.
+   */
+  public void run() throws InterruptedException {
+    try {
+      readEvents();
+      waitForExit();
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Searches the subtree below prefix in a worker that serves (see
+   * {@link #serve()}) and waits until it sent the results of that search,
+   * which replace the ones of the last search.
+   * @return false if the worker is gone, it can't search anymore then
+   */
+  boolean search(int[] prefix) throws InterruptedException {
+    statistics = null;
+    statisticsText = null;
+    topics.clear();
+    errors.clear();
+    failure = null;
+    try {
+      synchronized (this){
+        DataOutputStream os = new DataOutputStream(socket.getOutputStream());
+        os.writeByte(WorkerProtocol.SEARCH);
+        WorkerProtocol.writePrefixOnly(os, prefix);
+        os.flush();
+      }
+    } catch (IOException x){
+      failure = "lost connection to the JPF worker: " + x.getMessage();
+      quit();
+      return false;
+    }
+    if (readEvents()){
+      return true;
+    }
+    try {
+      waitForExit();
+    } finally {
+      close();
+    }
+    return false;
+  }
+
+  /**
+   * Tells a worker that serves that there is nothing more to search and
+   * waits for it to exit.
+   */
+  void quit() throws InterruptedException {
+    try {
+      synchronized (this){
+        OutputStream os = socket.getOutputStream();
+        os.write(WorkerProtocol.QUIT);
+        os.flush();
+      }
+    } catch (IOException x){
+      process.destroy();
+    }
+    try {
+      waitForExit();
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Kills the worker without waiting for it.
+   */
+  void destroy(){
+    process.destroy();
+    close();
+  }
+
+  private void close(){
+    try {
+      socket.close();
+    } catch (IOException x){
+      // we don't care
+    }
+    done = true;
+  }
+
+  /**
+   * @return true if the worker sent END, false if the connection is gone
+   */
+  private boolean readEvents(){
+    try {
+      if (in == null){
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      }
+      while (true){
+        byte type = in.readByte();
+        switch (type){
+          case WorkerProtocol.STATISTICS:
+            long[] values = new long[WorkerProtocol.STATISTICS_SIZE];
+            for (int i = 0; i < values.length; i++){
+              values[i] = in.readLong();
+            }
+            statisticsText = WorkerProtocol.readString(in);
+            statistics = values;
+            break;
+          case WorkerProtocol.TOPIC:
+            String name = WorkerProtocol.readString(in);
+            topics.put(name, WorkerProtocol.readString(in));
+            break;
+          case WorkerProtocol.ERROR:
+            errors.add(WorkerProtocol.readString(in));
+            WorkerProtocol.readString(in); // details are part of the error topic
+            break;
+          case WorkerProtocol.GRAPH:
+            int[] threads = new int[1];
+            graph = WorkerProtocol.readGraph(in, threads);
+            threadCount = threads[0];
+            break;
+          case WorkerProtocol.FAILURE:
+            failure = WorkerProtocol.readString(in);
+            break;
+          case WorkerProtocol.PREFIX:
+            int[] prefix = WorkerProtocol.readPrefix(in);
+            if (prefixListener != null){
+              prefixListener.prefixFound(prefix);
+            }
+            break;
+          case WorkerProtocol.END:
+            return true;
+          default:
+            throw new IOException("unknown worker event " + type);
+        }
+      }
+    } catch (EOFException x){
+      //the worker died, see waitForExit()
+    } catch (IOException x){
+      ShellManager.getLogger().log(Level.SEVERE, "lost connection to the JPF worker", x);
+    }
+    return false;
+  }
+
+  private void waitForExit() throws InterruptedException {
+    int exit = process.waitFor();
+    for (Future<?> f : copiers){
+      try {
+        f.get();
+      } catch (Exception x){
+        // already logged by the copier
+      }
+    }
+    if (exit != 0 && failure == null){
+      failure = "JPF worker exited with " + exit;
+    }
+  }
+
+  /**
+   * Asks the worker to terminate the search, it still sends its results.
+   */
+  public void cancel(){
+    Socket s = socket;
+    if (s != null && !done){
+      try {
+        synchronized (this){
+          OutputStream os = s.getOutputStream();
+          os.write(WorkerProtocol.CANCEL);
+          os.flush();
+        }
+      } catch (IOException x){
+        process.destroy();
+      }
+    }
+  }
+
+  /**
+   * @return true once the worker exited
+   */
+  public boolean isDone(){
+    return done;
+  }
+
+  /**
+   * @return the last statistics the worker sent in the layout of
+   *         {@link gov.nasa.jpf.shell.commands.VerifyCommand#getStatistics()},
+   *         or null if there were none yet
+   */
+  public long[] getStatistics(){
+    return statistics;
+  }
+
+  /**
+   * @return the last statistics as printed by JPF's console publisher
+   */
+  public String getStatisticsText(){
+    return statisticsText;
+  }
+
+  /**
+   * @return the report topics by name, complete once the worker is done
+   */
+  public Map<String, String> getTopics(){
+    return topics;
+  }
+
+  /**
+   * @return the descriptions of all property violations JPF found
+   */
+  public List<String> getErrors(){
+    return errors;
+  }
+
+  /**
+   * @return the search graph if it was captured, otherwise null
+   */
+  public DirectedSparseGraph<NodeInfo, EdgeInfo> getSearchGraph(){
+    return graph;
+  }
+
+  public int getThreadCount(){
+    return threadCount;
+  }
+
+  /**
+   * @return what ended the worker abnormally (usually a stack trace), or
+   *         null if it finished its search
+   */
+  public String getFailure(){
+    return failure;
+  }
+
+  private String getClasspath(){
+    String cp = config.getString("shell.verify.fork.classpath");
+    if (cp == null){
+      cp = config.getString("native_classpath");
+    }
+    if (cp == null){
+      return System.getProperty("java.class.path");
+    }
+    cp = cp.replace(',', File.pathSeparatorChar);
+    cp = cp.replace(';', File.pathSeparatorChar);
+    return cp;
+  }
+
+  /**
+   * Writes the config snapshot of this run, without shell.port so that the
+   * worker does not try to open it.
+   */
+  private void writeConfig(File file) throws IOException {
+    Properties p = new Properties();
+    p.putAll(config);
+    p.remove("shell.port");
+    p.putAll(overrides);
+    Writer w = new FileWriter(file);
+    try {
+      p.store(w, "JPF worker config");
+    } finally {
+      w.close();
+    }
+  }
+
+  private Future<?> copy(final InputStream in, final OutputStream out){
+    return ShellManager.getManager().getExecutor().execute(new Runnable(){
+      public void run(){
+        byte[] buf = new byte[8192];
+        try {
+          try {
+            int n;
+            while ((n = in.read(buf)) >= 0){
+              out.write(buf, 0, n);
+              out.flush();
+            }
+          } finally {
+            in.close();
+          }
+        } catch (IOException ex){
+          ShellManager.getLogger().log(Level.SEVERE, "cannot copy the JPF worker output", ex);
+        }
+      }
+    });
+  }
+}
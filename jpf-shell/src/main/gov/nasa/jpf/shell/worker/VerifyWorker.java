@@ -0,0 +1,343 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.Error;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.report.Reporter;
+import gov.nasa.jpf.report.Statistics;
+import gov.nasa.jpf.shell.ShellManager;
+import gov.nasa.jpf.shell.panels.TopicPublisher;
+import gov.nasa.jpf.shell.panels.searchgraph.SearchGraphTracker;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The main class of the JVM that runs JPF for a forked {@link
+ * gov.nasa.jpf.shell.commands.VerifyCommand} (see {@link VerifyProcess}).
+ * It attaches the same publisher and listeners the shell's panels would
+ * attach and streams what they collect back to the shell in the format of
+ * {@link WorkerProtocol}. JPF's own output goes to System.out/err as usual,
+ * the shell copies it into its console.
+ * <br>
+ * Usage: <code>VerifyWorker port config-file [-searchgraph]</code>, where
+ * config-file is the config snapshot of the run in properties format. If it
+ * has shell.verify.partition.serve set, the worker searches the subtrees of
+ * a {@link PartitionedSearch} the shell sends one after the other instead of
+ * a single run.
+ */
+public class VerifyWorker {
+
+  //tells serve() that the shell has no more prefixes
+  private static final int[] QUIT = new int[0];
+
+  private final DataOutputStream out;
+  private final boolean captureGraph;
+
+  private Config config;
+  //the JPF of the current search, null between the searches of serve()
+  private volatile JPF jpf;
+  private volatile boolean cancelled = false;
+  private TopicPublisher topicPublisher;
+  private SearchGraphTracker tracker;
+
+  VerifyWorker(Config config, Socket socket, boolean captureGraph) throws IOException {
+    this.config = config;
+    this.captureGraph = captureGraph;
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  void run(final InputStream fromShell) throws IOException {
+    //the SearchGraphTracker and CGNodes read the shell config
+    ShellManager.createHeadlessShellManager(config);
+
+    startDaemon("cancel-listener", new Runnable(){
+      public void run(){
+        try {
+          int b;
+          while ((b = fromShell.read()) >= 0 && b != WorkerProtocol.CANCEL){
+            // nothing else is sent
+          }
+        } catch (IOException x){
+          // the shell is gone, stop as if cancelled
+        }
+        terminate();
+      }
+    });
+
+    search();
+  }
+
+  /**
+   * Searches one subtree of a {@link PartitionedSearch} after the other, as
+   * the shell sends their prefixes, until the shell sends QUIT. Every search
+   * gets a new JPF with a fresh config from configText, only the JVM stays.
+   */
+  void serve(final String configText, InputStream fromShell) throws IOException {
+    ShellManager.createHeadlessShellManager(config);
+
+    final DataInputStream in = new DataInputStream(fromShell);
+    final BlockingQueue<int[]> next = new LinkedBlockingQueue<int[]>();
+    startDaemon("shell-listener", new Runnable(){
+      public void run(){
+        try {
+          int b;
+          while ((b = in.read()) >= 0 && b != WorkerProtocol.QUIT){
+            if (b == WorkerProtocol.CANCEL){
+              terminate();
+            } else if (b == WorkerProtocol.SEARCH){
+              next.add(WorkerProtocol.readPrefix(in));
+            }
+          }
+        } catch (IOException x){
+          // the shell is gone, stop as if cancelled
+          terminate();
+        }
+        next.add(QUIT);
+      }
+    });
+
+    try {
+      int[] prefix;
+      while ((prefix = next.take()) != QUIT){
+        config = new Config(new StringReader(configText));
+        config.setProperty("shell.verify.partition.prefix", PrefixSelector.toString(prefix));
+        search();
+      }
+    } catch (InterruptedException ix){
+      // we are done
+    }
+  }
+
+  private void terminate(){
+    cancelled = true;
+    JPF j = jpf;
+    if (j != null && j.getStatus() != JPF.Status.DONE){
+      j.getSearch().terminate();
+    }
+  }
+
+  /**
+   * Runs JPF with config and sends everything the shell needs, up to END.
+   */
+  private void search() throws IOException {
+    final JPF j = new JPF(config);
+    Reporter reporter = j.getReporter();
+    topicPublisher = new TopicPublisher(config, reporter);
+    reporter.addPublisher(topicPublisher);
+
+    if (captureGraph){
+      tracker = new SearchGraphTracker(config);
+      j.addSearchListener(tracker);
+      j.addVMListener(tracker);
+    }
+
+    PrefixSelector selector = PrefixSelector.create(config, this);
+    if (selector != null){
+      j.addListener(selector);
+    }
+
+    CheckpointListener checkpoints = CheckpointListener.create(config, config.getString("shell.checkpoint.resume"));
+    if (checkpoints != null){
+      j.addListener(checkpoints);
+    }
+    jpf = j;
+    if (cancelled){
+      j.getSearch().terminate(); // before it even started
+    }
+
+    final int interval = config.getInt("shell.update_interval", 1000);
+    startDaemon("statistics", new Runnable(){
+      public void run(){
+        while (jpf == j && j.getStatus() != JPF.Status.DONE){
+          try {
+            Thread.sleep(interval);
+            sendStatistics(j);
+          } catch (InterruptedException ix){
+            return;
+          } catch (IOException x){
+            return;
+          }
+        }
+      }
+    });
+
+    Throwable failure = null;
+    try {
+      j.run();
+    } catch (Throwable t){ // includes OutOfMemoryError, which is why we are here
+      failure = t;
+    }
+    if (tracker != null){
+      tracker.stop();
+    }
+
+    synchronized (out){
+      if (failure != null){
+        StringWriter sw = new StringWriter();
+        failure.printStackTrace(new PrintWriter(sw));
+        out.writeByte(WorkerProtocol.FAILURE);
+        WorkerProtocol.writeString(out, sw.toString());
+      }
+    }
+    sendStatistics(j);
+    sendResults(j);
+    if (tracker != null){
+      tracker.dispose();
+      tracker = null;
+    }
+  }
+
+  /**
+   * Sends the statistics of j, unless it is not the current search anymore.
+   */
+  private void sendStatistics(JPF j) throws IOException {
+    if (jpf != j){
+      return;
+    }
+    Reporter reporter = j.getReporter();
+    Statistics stat = reporter.getStatistics();
+    if (stat == null){
+      return;
+    }
+    StringWriter sw = new StringWriter(512);
+    PrintWriter pw = new PrintWriter(sw);
+    topicPublisher.printStatistics(pw);
+    pw.flush();
+
+    synchronized (out){
+      if (jpf != j){
+        return; // the search sent its END already
+      }
+      out.writeByte(WorkerProtocol.STATISTICS);
+      out.writeLong(reporter.getElapsedTime());
+      out.writeLong(stat.newStates);
+      out.writeLong(stat.visitedStates);
+      out.writeLong(stat.backtracked);
+      out.writeLong(stat.endStates);
+      out.writeLong(stat.maxDepth);
+      out.writeLong(stat.insns);
+      out.writeLong(stat.maxUsed);
+      WorkerProtocol.writeString(out, sw.toString());
+      out.flush();
+    }
+  }
+
+  /**
+   * Tells the shell about a subtree the search left out, see {@link PrefixSelector}.
+   */
+  void sendPrefix(int[] prefix){
+    try {
+      synchronized (out){
+        WorkerProtocol.writePrefix(out, prefix);
+        out.flush();
+      }
+    } catch (IOException x){
+      // the shell is gone, the cancel-listener stops the search
+    }
+  }
+
+  private void sendResults(JPF j) throws IOException {
+    synchronized (out){
+      for (Map.Entry<String, String> e : topicPublisher.getResults().entrySet()){
+        out.writeByte(WorkerProtocol.TOPIC);
+        WorkerProtocol.writeString(out, e.getKey());
+        WorkerProtocol.writeString(out, e.getValue());
+      }
+
+      List<Error> errors = j.getSearchErrors();
+      if (errors != null){
+        for (Error e : errors){
+          out.writeByte(WorkerProtocol.ERROR);
+          WorkerProtocol.writeString(out, e.getDescription());
+          WorkerProtocol.writeString(out, e.getDetails());
+        }
+      }
+
+      if (tracker != null){
+        WorkerProtocol.writeGraph(out, tracker.getGraph(), tracker.getThreadCount());
+      }
+
+      out.writeByte(WorkerProtocol.END);
+      out.flush();
+      jpf = null;
+    }
+  }
+
+  private static void startDaemon(String name, Runnable r){
+    Thread t = new Thread(r, "jpf-worker-" + name);
+    t.setDaemon(true);
+    t.start();
+  }
+
+  public static void main(String[] args){
+    if (args.length < 2){
+      System.err.println("usage: VerifyWorker port config-file [-searchgraph]");
+      System.exit(2);
+    }
+
+    try {
+      //read the config before connecting, the shell deletes the file then
+      StringBuilder text = new StringBuilder();
+      Reader r = new FileReader(args[1]);
+      try {
+        char[] buf = new char[8192];
+        int n;
+        while ((n = r.read(buf)) >= 0){
+          text.append(buf, 0, n);
+        }
+      } finally {
+        r.close();
+      }
+      Config config = new Config(new StringReader(text.toString()));
+
+      boolean graph = args.length > 2 && "-searchgraph".equals(args[2]);
+      Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(args[0]));
+      try {
+        WorkerProtocol.writeToken(socket.getOutputStream(), config.getString(WorkerProtocol.TOKEN_PROPERTY, ""));
+        VerifyWorker worker = new VerifyWorker(config, socket, graph);
+        if (config.getBoolean("shell.verify.partition.serve", false)){
+          worker.serve(text.toString(), socket.getInputStream());
+        } else {
+          worker.run(socket.getInputStream());
+        }
+      } finally {
+        socket.close();
+      }
+    } catch (IOException x){
+      x.printStackTrace();
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,259 @@
+/* Copyright (C) 2007 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration
+ * (NASA).  All Rights Reserved.
+ *
+ * This software is distributed under the NASA Open Source Agreement
+ * (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+ * Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+ * directory tree for the complete NOSA document.
+ *
+ * THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+ * LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+ * SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ * A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+ * THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+ * DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+ */
+package gov.nasa.jpf.shell.worker;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import gov.nasa.jpf.shell.panels.searchgraph.CGNode;
+import gov.nasa.jpf.shell.panels.searchgraph.EdgeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.NodeInfo;
+import gov.nasa.jpf.shell.panels.searchgraph.SearchGraphTracker;
+import gov.nasa.jpf.shell.panels.searchgraph.TransitionEdgeInfo;
+import gov.nasa.jpf.shell.util.FilterableText;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The event stream between a {@link VerifyWorker} and its {@link VerifyProcess}.
+ * Every event is a type byte followed by its fields, written with a
+ * DataOutputStream. Strings are an int length (-1 for null) followed by that
+ * many bytes of UTF-8, so that topics are not limited to 64k like writeUTF.
+ * Before any event, the worker sends the token the shell put into its config
+ * file ({@link #TOKEN_PROPERTY}), the shell drops connections without it.
+ * <pre>
+ *   STATISTICS  8 longs (see VerifyCommand.getStatistics()), string text
+ *   TOPIC       string name, string text
+ *   ERROR       string description, string details
+ *   GRAPH       int threads, int nodes, nodes.., int edges, edges..
+ *   FAILURE     string stack trace of what ended JPF
+ *   PREFIX      int length, choice indices (see PrefixSelector)
+ *   END         (no fields, the worker closes the stream after it)
+ * </pre>
+ * The shell sends the worker single bytes: {@link #CANCEL} stops the current
+ * search. A worker that serves a {@link PartitionedSearch} also gets
+ * {@link #SEARCH} followed by a prefix (int length, choice indices) for every
+ * subtree, answered by the events of that search up to its END, and
+ * {@link #QUIT} once there are no more subtrees.
+ */
+final class WorkerProtocol {
+
+  static final byte STATISTICS = 1;
+  static final byte TOPIC = 2;
+  static final byte ERROR = 3;
+  static final byte GRAPH = 4;
+  static final byte FAILURE = 5;
+  static final byte END = 6;
+  static final byte PREFIX = 7;
+
+  static final byte CANCEL = 1;
+  static final byte SEARCH = 2;
+  static final byte QUIT = 3;
+
+  static final int STATISTICS_SIZE = 8;
+
+  //the config property of the token, a random hex string of TOKEN_LENGTH chars
+  static final String TOKEN_PROPERTY = "shell.verify.fork.token";
+  static final int TOKEN_LENGTH = 32;
+
+  private static final byte PLAIN_NODE = 0;
+  private static final byte CG_NODE = 1;
+
+  //the text owners of the SearchGraphTracker, sent as their index
+  private static final Object[] OWNERS = {
+    SearchGraphTracker.INIT_INSTRUCTION, SearchGraphTracker.INIT_SOURCE, SearchGraphTracker.INIT_METHOD,
+    SearchGraphTracker.INSTRUCTION, SearchGraphTracker.SOURCE, SearchGraphTracker.METHOD
+  };
+
+  private WorkerProtocol(){}
+
+  /**
+   * @return a new random token for a worker to authenticate with
+   */
+  static String createToken(){
+    byte[] b = new byte[TOKEN_LENGTH / 2];
+    new SecureRandom().nextBytes(b);
+    StringBuilder sb = new StringBuilder(TOKEN_LENGTH);
+    for (byte x : b){
+      sb.append(Character.forDigit((x >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(x & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  static void writeToken(OutputStream out, String token) throws IOException {
+    out.write(token.getBytes("US-ASCII"));
+    out.flush();
+  }
+
+  /**
+   * @return true if the next TOKEN_LENGTH bytes of in are token
+   */
+  static boolean readToken(InputStream in, String token) throws IOException {
+    byte[] b = new byte[TOKEN_LENGTH];
+    new DataInputStream(in).readFully(b);
+    return MessageDigest.isEqual(b, token.getBytes("US-ASCII"));
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null){
+      out.writeInt(-1);
+    } else {
+      byte[] b = s.getBytes("UTF-8");
+      out.writeInt(b.length);
+      out.write(b);
+    }
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n < 0){
+      return null;
+    }
+    byte[] b = new byte[n];
+    in.readFully(b);
+    return new String(b, "UTF-8");
+  }
+
+  static void writePrefix(DataOutputStream out, int[] prefix) throws IOException {
+    out.writeByte(PREFIX);
+    writePrefixOnly(out, prefix);
+  }
+
+  /**
+   * Writes a prefix without a type byte, for the SEARCH the shell sends.
+   */
+  static void writePrefixOnly(DataOutputStream out, int[] prefix) throws IOException {
+    out.writeInt(prefix.length);
+    for (int i : prefix){
+      out.writeInt(i);
+    }
+  }
+
+  /**
+   * Reads the PREFIX event after its type byte, or the prefix of a SEARCH.
+   */
+  static int[] readPrefix(DataInputStream in) throws IOException {
+    int[] prefix = new int[in.readInt()];
+    for (int i = 0; i < prefix.length; i++){
+      prefix[i] = in.readInt();
+    }
+    return prefix;
+  }
+
+  /**
+   * Writes the GRAPH event. Nodes are numbered in the order of
+   * graph.getVertices(), edges refer to these numbers.
+   */
+  static void writeGraph(DataOutputStream out, Graph<NodeInfo, EdgeInfo> graph,
+                         int threadCount) throws IOException {
+    Map<NodeInfo, Integer> ids = new IdentityHashMap<NodeInfo, Integer>();
+
+    out.writeByte(GRAPH);
+    out.writeInt(threadCount);
+
+    out.writeInt(graph.getVertexCount());
+    for (NodeInfo n : graph.getVertices()){
+      ids.put(n, ids.size());
+      if (n instanceof CGNode){
+        CGNode cg = (CGNode) n;
+        out.writeByte(CG_NODE);
+        writeString(out, cg.getNodeText());
+        writeString(out, cg.getToolTip());
+        writeString(out, cg.getPathText());
+        out.writeInt(cg.getThread());
+        writeString(out, cg.getSourceLine());
+        writeString(out, cg.getSourceFileName());
+        out.writeInt(cg.getLineNumber());
+      } else {
+        out.writeByte(PLAIN_NODE);
+        writeString(out, n.getPathText());
+      }
+    }
+
+    out.writeInt(graph.getEdgeCount());
+    for (EdgeInfo e : graph.getEdges()){
+      out.writeInt(ids.get(graph.getSource(e)));
+      out.writeInt(ids.get(graph.getDest(e)));
+      writeString(out, e.getPathText());
+      writeString(out, e.getEdgeText());
+      List<FilterableText> insns = e.getInstructionContent();
+      out.writeInt(insns.size());
+      for (FilterableText t : insns){
+        out.writeByte(ownerIndex(t.getOwner()));
+        writeString(out, t.getText());
+      }
+    }
+  }
+
+  /**
+   * Reads the GRAPH event after its type byte.
+   * @param threadCount gets the number of threads that were seen
+   */
+  static DirectedSparseGraph<NodeInfo, EdgeInfo> readGraph(DataInputStream in,
+                                                           int[] threadCount) throws IOException {
+    DirectedSparseGraph<NodeInfo, EdgeInfo> graph = new DirectedSparseGraph<NodeInfo, EdgeInfo>();
+    threadCount[0] = in.readInt();
+
+    int nNodes = in.readInt();
+    List<NodeInfo> nodes = new ArrayList<NodeInfo>(nNodes);
+    for (int i = 0; i < nNodes; i++){
+      NodeInfo n;
+      if (in.readByte() == CG_NODE){
+        n = new CGNode(readString(in), readString(in), readString(in), in.readInt(),
+                       readString(in), readString(in), in.readInt());
+      } else {
+        n = new NodeInfo(readString(in));
+      }
+      nodes.add(n);
+      graph.addVertex(n);
+    }
+
+    int nEdges = in.readInt();
+    for (int i = 0; i < nEdges; i++){
+      NodeInfo source = nodes.get(in.readInt());
+      NodeInfo dest = nodes.get(in.readInt());
+      EdgeInfo e = new TransitionEdgeInfo(readString(in), readString(in));
+      int nInsns = in.readInt();
+      for (int j = 0; j < nInsns; j++){
+        Object owner = OWNERS[in.readByte()];
+        e.appendInstructionText(owner, readString(in));
+      }
+      graph.addEdge(e, source, dest, EdgeType.DIRECTED);
+    }
+    return graph;
+  }
+
+  private static int ownerIndex(Object owner){
+    for (int i = 0; i < OWNERS.length; i++){
+      if (OWNERS[i] == owner){
+        return i;
+      }
+    }
+    return 3; // INSTRUCTION
+  }
+}